@@ -0,0 +1,64 @@
+package com.reactivebbq.loyalty;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many threads reading and writing accounts in the in-memory repository at once. The repository runs its work on
+ * the calling thread, so only the map and, when bounded, the eviction are measured. A capacity below the number of
+ * accounts keeps the repository evicting as it is written to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class InMemoryLoyaltyRepositoryBenchmark {
+
+    private static final int ACCOUNTS = 100000;
+
+    @Param({"0", "10000"})
+    private int capacity;
+
+    private InMemoryLoyaltyRepository loyaltyRepository;
+    private LoyaltyId[] loyaltyIds;
+    private LoyaltyInformation info;
+
+    @Setup
+    public void setup() {
+        Executor sameThread = Runnable::run;
+        loyaltyRepository = new InMemoryLoyaltyRepository(sameThread, capacity);
+        loyaltyIds = new LoyaltyId[ACCOUNTS];
+        info = LoyaltyInformation.empty.applyAdjustment(new Award(10));
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            loyaltyIds[i] = new LoyaltyId("account-" + i);
+            loyaltyRepository.updateLoyalty(loyaltyIds[i], info).join();
+        }
+    }
+
+    @Benchmark
+    public Optional<LoyaltyInformation> findLoyaltyIfPresent() {
+        return loyaltyRepository.findLoyaltyIfPresent(randomId()).join();
+    }
+
+    @Benchmark
+    public Optional<LoyaltyInformation> findLoyaltyIfPresentMissing() {
+        return loyaltyRepository.findLoyaltyIfPresent(new LoyaltyId("missing")).join();
+    }
+
+    @Benchmark
+    public Object updateLoyalty() {
+        return loyaltyRepository.updateLoyalty(randomId(), info).join();
+    }
+
+    private LoyaltyId randomId() {
+        return loyaltyIds[ThreadLocalRandom.current().nextInt(ACCOUNTS)];
+    }
+}
@@ -0,0 +1,68 @@
+package com.reactivebbq.loyalty;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts with a long history of adjustments. Applying adjustments is measured in batches from a freshly loaded
+ * account each iteration, as the actor applies them one after another to its latest state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoyaltyInformationBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"10000", "100000"})
+    private int adjustments;
+
+    private LoyaltyInformation loaded;
+    private LoyaltyInformation latest;
+    private LoyaltyAdjustment award;
+    private LoyaltyAdjustment deduct;
+
+    @Setup(Level.Trial)
+    public void load() {
+        award = new Award(10);
+        deduct = new Deduct(5);
+        loaded = LoyaltyInformation.empty;
+
+        for (int i = 0; i < adjustments; i++) {
+            loaded = loaded.applyAdjustment(i % 2 == 0 ? award : deduct);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reload() {
+        latest = loaded.applyAdjustment(award).applyAdjustment(deduct);
+    }
+
+    @Benchmark
+    public int currentTotal() {
+        return loaded.getCurrentTotal();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20, batchSize = BATCH_SIZE)
+    @Measurement(iterations = 20, batchSize = BATCH_SIZE)
+    public LoyaltyInformation applyAdjustment() {
+        if (latest.getCurrentTotal() >= 5)
+            latest = latest.applyAdjustment(deduct);
+        else
+            latest = latest.applyAdjustment(award);
+
+        return latest;
+    }
+
+    @Benchmark
+    public LoyaltyInformation applyAdjustmentToOlderState() {
+        return loaded.applyAdjustment(award);
+    }
+}
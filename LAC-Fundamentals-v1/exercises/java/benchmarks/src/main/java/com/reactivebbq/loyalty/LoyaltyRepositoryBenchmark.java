@@ -0,0 +1,77 @@
+package com.reactivebbq.loyalty;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading an account from each repository. The repositories run their work
+ * on the calling thread, so only the read and decode are measured. The last
+ * few adjustments are appended rather than part of the stored account, as
+ * they would be between compactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoyaltyRepositoryBenchmark {
+
+    private static final int APPENDED = 10;
+
+    @Param({"file", "log", "segmented"})
+    private String repository;
+
+    @Param({"100", "10000"})
+    private int adjustments;
+
+    private Path directory;
+    private LoyaltyRepository loyaltyRepository;
+    private LoyaltyId loyaltyId;
+
+    @Setup
+    public void setup() throws IOException {
+        Executor sameThread = Runnable::run;
+        directory = Files.createTempDirectory("loyalty-benchmark");
+        loyaltyId = new LoyaltyId("benchmark");
+
+        if(repository.equals("file"))
+            loyaltyRepository = new FileBasedLoyaltyRepository(directory, sameThread);
+        else if(repository.equals("log"))
+            loyaltyRepository = new LogBasedLoyaltyRepository(directory, sameThread, 1000);
+        else
+            loyaltyRepository = new SegmentedLoyaltyRepository(directory, sameThread, 64 << 20, 1000, 0.5);
+
+        LoyaltyInformation info = LoyaltyInformation.empty;
+
+        for (int i = 0; i < adjustments - APPENDED; i++) {
+            info = info.applyAdjustment(i % 2 == 0 ? new Award(10) : new Deduct(5));
+        }
+
+        loyaltyRepository.updateLoyalty(loyaltyId, info).join();
+
+        for (int i = 0; i < APPENDED; i++) {
+            LoyaltyAdjustment award = new Award(10);
+            info = info.applyAdjustment(award);
+            loyaltyRepository.appendAdjustment(loyaltyId, info, award).join();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walk(directory)
+            .sorted(Comparator.reverseOrder())
+            .forEach(path -> path.toFile().delete());
+    }
+
+    @Benchmark
+    public LoyaltyInformation findLoyalty() {
+        return loyaltyRepository.findLoyalty(loyaltyId).join();
+    }
+}
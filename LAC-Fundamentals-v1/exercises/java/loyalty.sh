@@ -11,7 +11,8 @@ function help {
     echo "Operations"
     echo "    award - Awards VALUE points to the provided account."
     echo "    deduct - Deducts VALUE points from the provided account."
-    echo "    retrieve - Retrieves the information for the provided account."
+    echo "    retrieve - Retrieves the information for the provided account, or"
+    echo "               page VALUE of its history if VALUE is given."
     echo ""
     echo "Options"
     echo "    -a <account> Assign an account Id (default=sample)"
@@ -54,9 +55,15 @@ function deduct {
 }
 
 function retrieve {
-    echo "RETRIEVE $ACCOUNT ON PORT $PORT"
-    echo "+ curl -w '\n' -X GET http://localhost:$PORT/loyalty/$ACCOUNT"
-    curl -w "\n" -X GET http://localhost:$PORT/loyalty/$ACCOUNT
+    if [ "$VALUE" != "0" ]; then
+        QUERY="?page=$VALUE"
+    else
+        QUERY=""
+    fi
+
+    echo "RETRIEVE $ACCOUNT$QUERY ON PORT $PORT"
+    echo "+ curl -w '\n' -X GET http://localhost:$PORT/loyalty/$ACCOUNT$QUERY"
+    curl -w "\n" -X GET "http://localhost:$PORT/loyalty/$ACCOUNT$QUERY"
 }
 
 case $OPERATION in
@@ -0,0 +1,426 @@
+package com.reactivebbq.loyalty;
+
+import akka.Done;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores each account as a snapshot plus a log of the adjustments made since
+ * the snapshot was taken. Applying an adjustment appends one small record to
+ * the log rather than rewriting the account. Once the log holds compactAfter
+ * records, the account is written out as a new snapshot and the log is
+ * cleared.
+ *
+ * Each record holds the adjustment's position in the account's history and a
+ * checksum. Records are placed by position when the account is read, so a
+ * record that was written twice is read back once and in the right place.
+ * The log ends at the first record that fails its checksum, such as one torn
+ * by a crash part way through a write, and is cut back to the last good
+ * record, so a damaged record can't shift the adjustments after it.
+ *
+ * Snapshots and log records are forced to the disk before a write completes,
+ * so a write that has completed survives the machine crashing as well as the
+ * process.
+ *
+ * Accounts written by FileBasedLoyaltyRepository to the same directory are
+ * read as they are, and are moved to a snapshot the next time they change.
+ */
+class LogBasedLoyaltyRepository implements LoyaltyRepository {
+    private static final int SNAPSHOT_MAGIC = 0x4C4F594C;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int RECORD_SIZE = 12;
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path rootPath;
+    private final Executor executor;
+    private final int compactAfter;
+    private final Object[] locks = new Object[64];
+
+    LogBasedLoyaltyRepository(
+        Path rootPath,
+        Executor executor,
+        int compactAfter
+    ) throws IOException {
+
+        this.rootPath = rootPath;
+        this.executor = executor;
+        this.compactAfter = compactAfter;
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        Files.createDirectories(rootPath);
+    }
+
+    @Override
+    public CompletableFuture<Done> updateLoyalty(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (lockFor(loyaltyId)) {
+                try {
+                    // The new history may not start with the old one, so the
+                    // old log has to go before the snapshot replaces it.
+                    Files.deleteIfExists(logPath(loyaltyId));
+                    writeSnapshot(loyaltyId, loyaltyInformation);
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+
+            return Done.getInstance();
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Done> appendAdjustments(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation,
+        List<LoyaltyAdjustment> adjustments
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (lockFor(loyaltyId)) {
+                try {
+                    int position = loyaltyInformation.getAdjustmentCount() -
+                        adjustments.size();
+
+                    if(!Files.exists(snapshotPath(loyaltyId))) {
+                        LoyaltyInformation full = loyaltyInformation;
+
+                        // Without the earlier adjustments, they are taken
+                        // from the log or the legacy file.
+                        if(!loyaltyInformation.hasFullHistory())
+                            full = readLoyalty(loyaltyId)
+                                .orElseThrow(() -> new NoSuchElementException(
+                                    "The Id was not found: " +
+                                        loyaltyId.getValue()
+                                ))
+                                .applyAdjustmentsFrom(position, adjustments);
+
+                        writeSnapshot(loyaltyId, full);
+                        Files.deleteIfExists(logPath(loyaltyId));
+                    } else {
+                        long records = appendRecords(
+                            loyaltyId,
+                            position,
+                            adjustments
+                        );
+
+                        // Records before the snapshot's end are ignored, so
+                        // the log only has to go once the snapshot is written.
+                        if(records >= compactAfter) {
+                            LoyaltyInformation full =
+                                loyaltyInformation.hasFullHistory() ?
+                                    loyaltyInformation :
+                                    readLoyalty(loyaltyId).get();
+
+                            writeSnapshot(loyaltyId, full);
+                            Files.deleteIfExists(logPath(loyaltyId));
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+
+            return Done.getInstance();
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<LoyaltyInformation> findLoyalty(
+        LoyaltyId loyaltyId
+    ) {
+        return findLoyaltyIfPresent(loyaltyId).thenApply(loyaltyInfo ->
+            loyaltyInfo.orElseThrow(() -> new NoSuchElementException(
+                "The Id was not found: " + loyaltyId.getValue()
+            ))
+        );
+    }
+
+    @Override
+    public CompletableFuture<Optional<LoyaltyInformation>> findLoyaltyIfPresent(
+        LoyaltyId loyaltyId
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (lockFor(loyaltyId)) {
+                try {
+                    return readLoyalty(loyaltyId);
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, executor);
+    }
+
+    private Optional<LoyaltyInformation> readLoyalty(LoyaltyId loyaltyId)
+        throws IOException {
+
+        Path snapshot = snapshotPath(loyaltyId);
+        Path log = logPath(loyaltyId);
+        Path legacy = rootPath.resolve(loyaltyId.getValue());
+
+        List<Integer> adjustments;
+
+        if(Files.exists(snapshot))
+            adjustments = readSnapshot(snapshot);
+        else if(Files.exists(log))
+            adjustments = new ArrayList<>();
+        else if(Files.exists(legacy))
+            return Optional.of(FileBasedLoyaltyRepository.readLoyalty(legacy));
+        else
+            return Optional.empty();
+
+        if(Files.exists(log))
+            adjustments.addAll(readLog(log, adjustments.size()));
+
+        LoyaltyInformation loyaltyInfo = LoyaltyInformation.empty;
+
+        for (int balanceAdjustment : adjustments) {
+            loyaltyInfo = loyaltyInfo.applyAdjustment(
+                LoyaltyAdjustment.fromBalanceAdjustment(balanceAdjustment)
+            );
+        }
+
+        return Optional.of(loyaltyInfo);
+    }
+
+    /**
+     * A snapshot is the number of adjustments, the total, the adjustments and
+     * a checksum of all of it. It is written to a temporary file, forced to the
+     * disk and moved into place, so it is never seen half written.
+     */
+    private void writeSnapshot(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation
+    ) throws IOException {
+        Path snapshot = snapshotPath(loyaltyId);
+        Path temporary = rootPath.resolve(
+            snapshot.getFileName() + TEMPORARY_SUFFIX
+        );
+        List<LoyaltyAdjustment> adjustments =
+            loyaltyInformation.getAdjustments();
+        CRC32 checksum = new CRC32();
+
+        try (FileChannel channel = FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+        ); DataOutputStream out = new DataOutputStream(
+            new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)),
+                checksum
+            )
+        )) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(adjustments.size());
+            out.writeInt(loyaltyInformation.getCurrentTotal());
+
+            for (LoyaltyAdjustment adjustment : adjustments) {
+                out.writeInt(adjustment.getBalanceAdjustment());
+            }
+
+            out.writeInt((int) checksum.getValue());
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+    }
+
+    private static List<Integer> readSnapshot(Path snapshot)
+        throws IOException {
+
+        CRC32 checksum = new CRC32();
+
+        try (DataInputStream in = new DataInputStream(
+            new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot)),
+                checksum
+            )
+        )) {
+            if(in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException("Not a loyalty snapshot: " + snapshot);
+
+            int version = in.readInt();
+            if(version != SNAPSHOT_VERSION)
+                throw new IOException("Unsupported loyalty snapshot version " +
+                    version + ": " + snapshot);
+
+            int count = in.readInt();
+            int total = in.readInt();
+            List<Integer> adjustments = new ArrayList<>(count);
+            int sum = 0;
+
+            for (int i = 0; i < count; i++) {
+                int balanceAdjustment = in.readInt();
+                adjustments.add(balanceAdjustment);
+                sum += balanceAdjustment;
+            }
+
+            int expected = (int) checksum.getValue();
+
+            if(in.readInt() != expected || sum != total)
+                throw new IOException("Corrupt loyalty snapshot: " + snapshot);
+
+            return adjustments;
+        }
+    }
+
+    /**
+     * Appends a record of the position, the balance adjustment and a checksum
+     * of the two for each adjustment, starting at the given position, and
+     * returns the number of records in the log once they have been forced to
+     * the disk. A partial record left at the end by an earlier crash is cut off
+     * first, so it can't shift the records after it.
+     */
+    private long appendRecords(
+        LoyaltyId loyaltyId,
+        int position,
+        List<LoyaltyAdjustment> adjustments
+    ) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+            logPath(loyaltyId),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE
+        )) {
+            long size = channel.size();
+            long end = size - size % RECORD_SIZE;
+
+            if(end != size)
+                channel.truncate(end);
+
+            ByteBuffer records =
+                ByteBuffer.allocate(RECORD_SIZE * adjustments.size());
+
+            for (LoyaltyAdjustment adjustment : adjustments) {
+                int offset = records.position();
+                records.putInt(position++);
+                records.putInt(adjustment.getBalanceAdjustment());
+                records.putInt(checksum(records.array(), offset));
+            }
+
+            records.flip();
+
+            while (records.hasRemaining()) {
+                channel.write(records, end + records.position());
+            }
+
+            channel.force(true);
+
+            if(size == 0)
+                forceDirectory();
+
+            return end / RECORD_SIZE + adjustments.size();
+        }
+    }
+
+    /**
+     * The balance adjustments of the records from the given position on, in
+     * order of position. A record written again at an earlier position, such
+     * as by a retried write, replaces the records from that position on. The
+     * log ends at the first record that fails its checksum or would leave a
+     * gap, and is cut back to there like a torn record, so that records
+     * appended after it are read.
+     */
+    private static List<Integer> readLog(Path log, int from)
+        throws IOException {
+
+        TreeMap<Integer, Integer> adjustments = new TreeMap<>();
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(log));
+        byte[] record = new byte[RECORD_SIZE];
+        int end = 0;
+
+        while (records.remaining() >= RECORD_SIZE) {
+            records.get(record);
+
+            ByteBuffer fields = ByteBuffer.wrap(record);
+            int position = fields.getInt();
+            int balanceAdjustment = fields.getInt();
+            int next = from + adjustments.size();
+
+            if(fields.getInt() != checksum(record, 0) || position > next)
+                break;
+
+            if(position >= from) {
+                adjustments.tailMap(position, true).clear();
+                adjustments.put(position, balanceAdjustment);
+            }
+
+            end = records.position();
+        }
+
+        if(end < records.limit()) {
+            try (FileChannel channel = FileChannel.open(
+                log,
+                StandardOpenOption.WRITE
+            )) {
+                channel.truncate(end);
+            }
+        }
+
+        return new ArrayList<>(adjustments.values());
+    }
+
+    /**
+     * Forces the directory, so a file that was created or moved into it is
+     * still there after a crash. Windows won't open a directory, so there it is
+     * left to the file system.
+     */
+    private void forceDirectory() throws IOException {
+        try (FileChannel directory = FileChannel.open(
+            rootPath,
+            StandardOpenOption.READ
+        )) {
+            directory.force(true);
+        } catch (AccessDeniedException ignored) {}
+    }
+
+    private static int checksum(byte[] records, int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(records, offset, RECORD_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    private Path snapshotPath(LoyaltyId loyaltyId) {
+        return rootPath.resolve(loyaltyId.getValue() + SNAPSHOT_SUFFIX);
+    }
+
+    private Path logPath(LoyaltyId loyaltyId) {
+        return rootPath.resolve(loyaltyId.getValue() + LOG_SUFFIX);
+    }
+
+    private Object lockFor(LoyaltyId loyaltyId) {
+        return locks[Math.floorMod(loyaltyId.hashCode(), locks.length)];
+    }
+}
@@ -1,15 +1,46 @@
 package com.reactivebbq.loyalty;
 
 import akka.actor.AbstractActorWithStash;
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Status;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import com.fasterxml.jackson.annotation.JsonCreator;
 
 import static akka.pattern.Patterns.pipe;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+/**
+ * Adjustments are applied to the in-memory state as they arrive, but only one
+ * write to the repository is in flight at a time. Adjustments that arrive
+ * while a write is running are gathered up and stored together by the next
+ * write, which carries the latest state, so a burst of awards costs a few
+ * writes rather than one each. Each sender is answered once a write that
+ * covers its adjustment has completed, and writes reach the repository in the
+ * order the adjustments were applied.
+ *
+ * A deduction reserves its points as soon as it is accepted: they come off the
+ * balance that later deductions are checked against, while awards and balance
+ * checks carry on without waiting for the write. The reservation becomes part
+ * of the stored balance when the write completes. A failed write may still
+ * have stored some of its adjustments, so the account is loaded again, which
+ * releases the points of any that weren't stored, and the adjustments queued
+ * behind it are checked against what was.
+ *
+ * Only an account the repository doesn't have is started from empty. If the
+ * account can't be read, the adjustments queued behind a failed write are
+ * failed, other messages are held, and the read is retried with a backoff.
+ *
+ * Once they are stored, only the latest retainedAdjustments adjustments are
+ * kept in memory along with the balance. Older pages of the history are read
+ * back from the repository when they are asked for.
+ */
 class LoyaltyActor extends AbstractActorWithStash {
     private final LoggingAdapter log = Logging.getLogger(
         getContext().getSystem(),
@@ -34,6 +65,66 @@ class LoyaltyActor extends AbstractActorWithStash {
 
     static class GetLoyaltyInformation implements Command {}
 
+    /**
+     * Up to count adjustments from position from, counting from the first
+     * adjustment made to the account.
+     */
+    static class GetLoyaltyHistory implements Command {
+        private final int from;
+        private final int count;
+
+        int getFrom() {
+            return from;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        GetLoyaltyHistory(int from, int count) {
+            this.from = from;
+            this.count = count;
+        }
+    }
+
+    static class LoyaltyHistory implements Event {
+        private final int currentTotal;
+        private final int from;
+        private final List<LoyaltyAdjustment> adjustments;
+        private final int adjustmentCount;
+
+        int getCurrentTotal() {
+            return currentTotal;
+        }
+
+        int getFrom() {
+            return from;
+        }
+
+        List<LoyaltyAdjustment> getAdjustments() {
+            return adjustments;
+        }
+
+        /**
+         * The number of adjustments made to the account in all.
+         */
+        int getAdjustmentCount() {
+            return adjustmentCount;
+        }
+
+        LoyaltyHistory(
+            int currentTotal,
+            int from,
+            List<LoyaltyAdjustment> adjustments,
+            int adjustmentCount
+        ) {
+            this.currentTotal = currentTotal;
+            this.from = from;
+            this.adjustments = adjustments;
+            this.adjustmentCount = adjustmentCount;
+        }
+    }
+
     static class LoyaltyAdjustmentApplied implements Event {
         private final LoyaltyAdjustment adjustment;
 
@@ -65,33 +156,87 @@ class LoyaltyActor extends AbstractActorWithStash {
         }
     }
 
+    private static class PendingAdjustment {
+        private final LoyaltyAdjustment adjustment;
+        private final ActorRef replyTo;
+
+        PendingAdjustment(LoyaltyAdjustment adjustment, ActorRef replyTo) {
+            this.adjustment = adjustment;
+            this.replyTo = replyTo;
+        }
+    }
+
+    private static class WriteCompleted {
+        private final List<PendingAdjustment> written;
+        private final Throwable failure;
+
+        WriteCompleted(List<PendingAdjustment> written, Throwable failure) {
+            this.written = written;
+            this.failure = failure;
+        }
+    }
+
+    private static class LoadFailed {
+        private final Throwable failure;
+
+        LoadFailed(Throwable failure) {
+            this.failure = failure;
+        }
+    }
+
+    private static class RetryLoad {}
+
+    static final int RETAIN_ALL = Integer.MAX_VALUE;
+
+    private static final Duration MIN_LOAD_BACKOFF = Duration.ofMillis(100);
+    private static final Duration MAX_LOAD_BACKOFF = Duration.ofSeconds(10);
+
     static Props create(LoyaltyRepository loyaltyRepository) {
+        return create(loyaltyRepository, RETAIN_ALL);
+    }
+
+    static Props create(
+        LoyaltyRepository loyaltyRepository,
+        int retainedAdjustments
+    ) {
         return Props.create(
             LoyaltyActor.class,
-            () -> new LoyaltyActor(loyaltyRepository)
+            () -> new LoyaltyActor(loyaltyRepository, retainedAdjustments)
         );
     }
 
     private final LoyaltyId loyaltyId = new LoyaltyId(getSelf().path().name());
     private final LoyaltyRepository loyaltyRepository;
+    private final int retainedAdjustments;
     private LoyaltyInformation loyaltyInformation = LoyaltyInformation.empty;
-
-
-    private LoyaltyActor(LoyaltyRepository loyaltyRepository) {
+    private List<PendingAdjustment> pending = new ArrayList<>();
+    private boolean writing = false;
+    private Duration loadBackoff = MIN_LOAD_BACKOFF;
+
+    private LoyaltyActor(
+        LoyaltyRepository loyaltyRepository,
+        int retainedAdjustments
+    ) {
         this.loyaltyRepository = loyaltyRepository;
+        this.retainedAdjustments = retainedAdjustments;
     }
 
     @Override
     public void preStart() throws Exception {
         super.preStart();
+        load();
+    }
 
-        CompletableFuture<LoyaltyInformation> info = loyaltyRepository
-            .findLoyalty(loyaltyId)
+    private void load() {
+        CompletableFuture<Object> info = loyaltyRepository
+            .findLoyaltyIfPresent(loyaltyId)
             .handle((loyaltyInfo, ex) -> {
-                if(loyaltyInfo != null) {
+                if(ex != null) {
+                    return new LoadFailed(ex);
+                } else if(loyaltyInfo.isPresent()) {
                     log.info("Loyalty Information Loaded For " +
                         loyaltyId.getValue());
-                    return loyaltyInfo;
+                    return loyaltyInfo.get();
                 } else {
                     log.info("Creating New Loyalty Account For " +
                         loyaltyId.getValue());
@@ -112,11 +257,32 @@ class LoyaltyActor extends AbstractActorWithStash {
             .match(
                 LoyaltyInformation.class,
                 loyaltyInfo -> {
-                    loyaltyInformation = loyaltyInfo;
+                    List<PendingAdjustment> queued = pending;
+
+                    loyaltyInformation =
+                        loyaltyInfo.retainLast(retainedAdjustments);
+                    pending = new ArrayList<>();
+                    loadBackoff = MIN_LOAD_BACKOFF;
+
+                    for (PendingAdjustment request : queued) {
+                        accept(request);
+                    }
+
                     getContext().become(running());
                     unstashAll();
+
+                    if(!pending.isEmpty())
+                        startWrite();
                 }
             )
+            .match(
+                LoadFailed.class,
+                this::handle
+            )
+            .match(
+                RetryLoad.class,
+                retry -> load()
+            )
             .matchAny((msg) -> stash())
             .build();
     }
@@ -131,18 +297,39 @@ class LoyaltyActor extends AbstractActorWithStash {
                 GetLoyaltyInformation.class,
                 this::handle
             )
+            .match(
+                GetLoyaltyHistory.class,
+                this::handle
+            )
+            .match(
+                WriteCompleted.class,
+                this::handle
+            )
             .build();
     }
 
     private void handle(ApplyLoyaltyAdjustment cmd) {
-        LoyaltyAdjustment adjustment = cmd.getAdjustment();
+        accept(new PendingAdjustment(cmd.getAdjustment(), getSender()));
+
+        if(!writing && !pending.isEmpty())
+            startWrite();
+    }
+
+    /**
+     * Applies the adjustment to the balance and queues it to be written, or
+     * rejects it if it deducts more points than are available. The balance
+     * includes the adjustments still being written, so the points of pending
+     * deductions are not available.
+     */
+    private void accept(PendingAdjustment request) {
+        LoyaltyAdjustment adjustment = request.adjustment;
 
         if(adjustment instanceof Deduct &&
             adjustment.getPoints() > loyaltyInformation.getCurrentTotal()) {
 
             log.info("Insufficient Points For "+loyaltyId.getValue());
 
-            getSender().tell(
+            request.replyTo.tell(
                 new LoyaltyAdjustmentRejected(
                     adjustment,
                     "Insufficient Points"
@@ -156,20 +343,146 @@ class LoyaltyActor extends AbstractActorWithStash {
                 loyaltyId.getValue());
 
             loyaltyInformation = loyaltyInformation.applyAdjustment(adjustment);
+            pending.add(request);
+        }
+    }
+
+    private void handle(WriteCompleted completed) {
+        writing = false;
+
+        if(completed.failure == null) {
+            // Everything but the pending adjustments is stored now, so the
+            // rest can be read back from the repository if it is asked for.
+            loyaltyInformation = loyaltyInformation.retainLast(
+                Math.max(retainedAdjustments, pending.size())
+            );
+
+            for (PendingAdjustment written : completed.written) {
+                written.replyTo.tell(
+                    new LoyaltyAdjustmentApplied(written.adjustment),
+                    getSelf()
+                );
+            }
+        } else {
+            for (PendingAdjustment written : completed.written) {
+                written.replyTo.tell(
+                    new Status.Failure(completed.failure),
+                    getSelf()
+                );
+            }
+
+            reload();
+            return;
+        }
 
-            CompletableFuture<LoyaltyAdjustmentApplied> result =
-                loyaltyRepository.updateLoyalty(loyaltyId, loyaltyInformation)
-                    .thenApply((done) ->
-                        new LoyaltyAdjustmentApplied(adjustment)
-                    );
+        if(!pending.isEmpty())
+            startWrite();
+    }
 
-            pipe(result, getContext().getDispatcher()).to(getSender());
+    /**
+     * The account couldn't be read, so nothing is known about its balance.
+     * Adjustments queued behind a failed write are failed rather than checked
+     * against a balance that may be wrong, and the read is tried again later.
+     */
+    private void handle(LoadFailed failed) {
+        log.warning("Failed To Load Loyalty Information For " +
+            loyaltyId.getValue() + ", Retrying In " + loadBackoff.toMillis() +
+            "ms: " + failed.failure);
+
+        for (PendingAdjustment request : pending) {
+            request.replyTo.tell(new Status.Failure(failed.failure), getSelf());
         }
 
+        pending = new ArrayList<>();
+
+        getContext().getSystem().scheduler().scheduleOnce(
+            loadBackoff,
+            getSelf(),
+            new RetryLoad(),
+            getContext().getDispatcher(),
+            getSelf()
+        );
+
+        Duration doubled = loadBackoff.multipliedBy(2);
+        loadBackoff = doubled.compareTo(MAX_LOAD_BACKOFF) < 0 ?
+            doubled :
+            MAX_LOAD_BACKOFF;
+    }
+
+    /**
+     * Loads the account again after a failed write, holding other messages
+     * until it has. The queued adjustments are accepted again against the
+     * loaded balance, so deductions that relied on an adjustment that wasn't
+     * stored are rejected.
+     */
+    private void reload() {
+        log.info("Reloading Loyalty Information For " + loyaltyId.getValue());
+        getContext().become(initializing());
+        load();
+    }
+
+    private void startWrite() {
+        List<PendingAdjustment> batch = pending;
+        List<LoyaltyAdjustment> adjustments = new ArrayList<>(batch.size());
+
+        for (PendingAdjustment adjustment : batch) {
+            adjustments.add(adjustment.adjustment);
+        }
+
+        pending = new ArrayList<>();
+        writing = true;
+
+        CompletableFuture<WriteCompleted> result = loyaltyRepository
+            .appendAdjustments(loyaltyId, loyaltyInformation, adjustments)
+            .handle((done, ex) -> new WriteCompleted(batch, ex));
+
+        pipe(result, getContext().getDispatcher()).to(getSelf());
     }
 
     private void handle(GetLoyaltyInformation ignored) {
         log.info("Retrieving Loyalty Information For "+loyaltyId.getValue());
         getSender().tell(loyaltyInformation, getSelf());
     }
+
+    private void handle(GetLoyaltyHistory query) {
+        log.info("Retrieving Loyalty History For "+loyaltyId.getValue());
+
+        LoyaltyInformation info = loyaltyInformation;
+        List<LoyaltyAdjustment> held = info.getAdjustments();
+        int earlier = info.getEarlierAdjustmentCount();
+        int count = info.getAdjustmentCount();
+
+        // A page past the end of the history is empty.
+        int from = Math.min(Math.max(0, query.getFrom()), count);
+        int to = Math.max(from, Math.min(from + query.getCount(), count));
+
+        // The part of the page still held is taken from memory, and anything
+        // before it from the repository.
+        List<LoyaltyAdjustment> recent = new ArrayList<>(held.subList(
+            Math.min(Math.max(from - earlier, 0), held.size()),
+            Math.max(to - earlier, 0)
+        ));
+
+        CompletableFuture<List<LoyaltyAdjustment>> older = from < earlier ?
+            loyaltyRepository.findAdjustments(
+                loyaltyId,
+                from,
+                Math.min(to, earlier) - from
+            ) :
+            CompletableFuture.completedFuture(Collections.emptyList());
+
+        CompletableFuture<LoyaltyHistory> result = older.thenApply(stored -> {
+            List<LoyaltyAdjustment> adjustments = new ArrayList<>(stored);
+            adjustments.addAll(recent);
+
+            return new LoyaltyHistory(
+                info.getCurrentTotal(),
+                from,
+                adjustments,
+                info.getAdjustmentCount()
+            );
+        });
+
+        pipe(result, getContext().getDispatcher()).to(getSender());
+    }
 }
@@ -5,6 +5,17 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 interface LoyaltyAdjustment extends SerializableMessage {
     int getBalanceAdjustment();
     int getPoints();
+
+    /**
+     * The adjustment that changes the balance by the given amount. Positive
+     * amounts are awards and negative amounts are deductions.
+     */
+    static LoyaltyAdjustment fromBalanceAdjustment(int balanceAdjustment) {
+        if(balanceAdjustment >= 0)
+            return new Award(balanceAdjustment);
+        else
+            return new Deduct(-balanceAdjustment);
+    }
 }
 
 class Award implements LoyaltyAdjustment {
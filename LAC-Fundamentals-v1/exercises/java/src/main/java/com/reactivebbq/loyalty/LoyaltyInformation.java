@@ -2,32 +2,251 @@ package com.reactivebbq.loyalty;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
+/**
+ * The adjustments made to an account, and the balance they add up to. The balance is kept as adjustments are
+ * applied rather than summed when it is read, and applying an adjustment shares the existing history rather than
+ * copying it, so both are constant time however long the account has been open. The history is kept as ints
+ * rather than adjustment objects, so a long history costs little heap either.
+ *
+ * The history may hold only the latest adjustments. The earlier ones are counted but not held, and the balance
+ * still covers all of them; the repositories keep the whole history.
+ */
 class LoyaltyInformation implements SerializableMessage {
-    static final LoyaltyInformation empty = new LoyaltyInformation(new ArrayList<>());
+    static final LoyaltyInformation empty = new LoyaltyInformation(AdjustmentHistory.EMPTY, 0, 0);
 
     private final List<LoyaltyAdjustment> adjustments;
+    private final int currentTotal;
+    private final int earlierAdjustmentCount;
 
+    /**
+     * The adjustments held, which are the latest ones. Use getAdjustmentCount for the number made in all.
+     */
     List<LoyaltyAdjustment> getAdjustments() {
         return adjustments;
     }
 
     @JsonCreator
-    private LoyaltyInformation(List<LoyaltyAdjustment> adjustments) {
-        this.adjustments = new ArrayList<>(adjustments);
+    private LoyaltyInformation(
+        List<LoyaltyAdjustment> adjustments,
+        Integer currentTotal,
+        Integer earlierAdjustmentCount
+    ) {
+        this(
+            AdjustmentHistory.of(adjustments),
+            currentTotal != null ? currentTotal : sum(adjustments),
+            earlierAdjustmentCount != null ? earlierAdjustmentCount : 0
+        );
+    }
+
+    private LoyaltyInformation(AdjustmentHistory adjustments, int currentTotal, int earlierAdjustmentCount) {
+        this.adjustments = adjustments;
+        this.currentTotal = currentTotal;
+        this.earlierAdjustmentCount = earlierAdjustmentCount;
     }
 
     int getCurrentTotal() {
-        return adjustments.stream()
-                .map(LoyaltyAdjustment::getBalanceAdjustment)
-                .reduce(0, (sum, adj) -> sum + adj);
+        return currentTotal;
+    }
+
+    /**
+     * The number of adjustments before the ones held.
+     */
+    int getEarlierAdjustmentCount() {
+        return earlierAdjustmentCount;
+    }
+
+    int getAdjustmentCount() {
+        return earlierAdjustmentCount + adjustments.size();
+    }
+
+    boolean hasFullHistory() {
+        return earlierAdjustmentCount == 0;
     }
 
     LoyaltyInformation applyAdjustment(LoyaltyAdjustment adjustment) {
-        List<LoyaltyAdjustment> updated = new ArrayList<>(adjustments);
-        updated.add(adjustment);
-        return new LoyaltyInformation(updated);
+        AdjustmentHistory history = (AdjustmentHistory) adjustments;
+
+        return new LoyaltyInformation(
+            history.append(adjustment),
+            currentTotal + adjustment.getBalanceAdjustment(),
+            earlierAdjustmentCount
+        );
+    }
+
+    /**
+     * The same account holding no more than the given number of the latest adjustments.
+     */
+    LoyaltyInformation retainLast(int count) {
+        int dropped = adjustments.size() - count;
+
+        if (dropped <= 0)
+            return this;
+
+        AdjustmentHistory history = (AdjustmentHistory) adjustments;
+
+        return new LoyaltyInformation(
+            history.dropFirst(dropped),
+            currentTotal,
+            earlierAdjustmentCount + dropped
+        );
+    }
+
+    /**
+     * This account's first position adjustments followed by the given ones. Used to bring a stored account up to
+     * date with adjustments made from a given position, which may repeat some that were already stored.
+     */
+    LoyaltyInformation applyAdjustmentsFrom(int position, List<LoyaltyAdjustment> adjustments) {
+        if (!hasFullHistory() || position > getAdjustmentCount())
+            throw new IllegalStateException(
+                "The adjustments before position " + position + " are missing");
+
+        LoyaltyInformation loyaltyInfo = this;
+
+        if (position < getAdjustmentCount()) {
+            loyaltyInfo = empty;
+
+            for (LoyaltyAdjustment adjustment : this.adjustments.subList(0, position)) {
+                loyaltyInfo = loyaltyInfo.applyAdjustment(adjustment);
+            }
+        }
+
+        for (LoyaltyAdjustment adjustment : adjustments) {
+            loyaltyInfo = loyaltyInfo.applyAdjustment(adjustment);
+        }
+
+        return loyaltyInfo;
+    }
+
+    private static int sum(List<LoyaltyAdjustment> adjustments) {
+        int total = 0;
+
+        for (LoyaltyAdjustment adjustment : adjustments) {
+            total += adjustment.getBalanceAdjustment();
+        }
+
+        return total;
+    }
+}
+
+/**
+ * An immutable list of adjustments that can be appended to without copying. Each version is a range of a shared
+ * buffer. Appending to the newest version writes into the free space after it and returns a longer range; the
+ * older versions don't see the new entry because they only read up to their own end. Appending to an older
+ * version, whose next slot is already taken, copies it into a new buffer instead.
+ *
+ * The buffer holds each adjustment's balance adjustment as an int, positive for an award and negative for a
+ * deduction, rather than the adjustment objects, which take several times the space. An Award or Deduct is built
+ * from the int when an entry is read.
+ *
+ * Dropping the first entries moves the start of the range. Once more of the buffer has been dropped than is still
+ * in use, the rest is copied into a smaller buffer so the dropped entries can be collected.
+ *
+ * Entries are never overwritten once written, so reading needs no locking. Appending is synchronized on the buffer
+ * because two threads may append to the same version at once, and only one of them can have the free slot.
+ */
+final class AdjustmentHistory extends AbstractList<LoyaltyAdjustment> implements RandomAccess {
+    static final AdjustmentHistory EMPTY = new AdjustmentHistory(new Buffer(new int[0]), 0, 0);
+
+    private static final int MINIMUM_CAPACITY = 8;
+
+    private static final class Buffer {
+        private int[] entries;
+        private int used;
+
+        private Buffer(int[] entries) {
+            this.entries = entries;
+            this.used = entries.length;
+        }
+    }
+
+    private final Buffer buffer;
+    private final int[] entries;
+    private final int start;
+    private final int end;
+
+    private AdjustmentHistory(Buffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.entries = buffer.entries;
+        this.start = start;
+        this.end = end;
+    }
+
+    static AdjustmentHistory of(List<LoyaltyAdjustment> adjustments) {
+        if (adjustments.isEmpty())
+            return EMPTY;
+
+        int[] entries = new int[adjustments.size()];
+        int i = 0;
+
+        for (LoyaltyAdjustment adjustment : adjustments) {
+            entries[i++] = adjustment.getBalanceAdjustment();
+        }
+
+        return new AdjustmentHistory(new Buffer(entries), 0, entries.length);
+    }
+
+    AdjustmentHistory append(LoyaltyAdjustment adjustment) {
+        int balanceAdjustment = adjustment.getBalanceAdjustment();
+
+        if (end > 0) {
+            synchronized (buffer) {
+                // A full buffer that starts with dropped entries is copied below rather than grown, leaving them
+                // behind.
+                boolean canGrow = start == 0 || end < buffer.entries.length;
+
+                if (buffer.used == end && canGrow) {
+                    if (end == buffer.entries.length)
+                        buffer.entries = grow(buffer.entries, 0, end);
+
+                    buffer.entries[end] = balanceAdjustment;
+                    buffer.used++;
+                    return new AdjustmentHistory(buffer, start, end + 1);
+                }
+            }
+        }
+
+        int size = size();
+        Buffer copy = new Buffer(grow(entries, start, end));
+        copy.entries[size] = balanceAdjustment;
+        copy.used = size + 1;
+        return new AdjustmentHistory(copy, 0, size + 1);
+    }
+
+    AdjustmentHistory dropFirst(int count) {
+        int newStart = start + count;
+
+        if (newStart >= end)
+            return EMPTY;
+
+        if (newStart > end - newStart)
+            return new AdjustmentHistory(new Buffer(Arrays.copyOfRange(entries, newStart, end)), 0, end - newStart);
+
+        return new AdjustmentHistory(buffer, newStart, end);
+    }
+
+    private static int[] grow(int[] entries, int start, int end) {
+        int size = end - start;
+        int capacity = Math.max(MINIMUM_CAPACITY, size + (size >> 1) + 1);
+        int[] grown = new int[capacity];
+        System.arraycopy(entries, start, grown, 0, size);
+        return grown;
+    }
+
+    @Override
+    public LoyaltyAdjustment get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        return LoyaltyAdjustment.fromBalanceAdjustment(entries[start + index]);
+    }
+
+    @Override
+    public int size() {
+        return end - start;
     }
 }
@@ -8,11 +8,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 
 interface LoyaltyRepository {
@@ -23,16 +28,122 @@ interface LoyaltyRepository {
 
     CompletableFuture<LoyaltyInformation> findLoyalty(LoyaltyId loyaltyId);
 
+    /**
+     * Finds the loyalty information, completing with an empty Optional rather
+     * than failing when there is none. An account's first visit is a miss, so
+     * repositories that can tell cheaply should override this rather than
+     * building an exception for it.
+     */
+    default CompletableFuture<Optional<LoyaltyInformation>> findLoyaltyIfPresent(
+        LoyaltyId loyaltyId
+    ) {
+        return findLoyalty(loyaltyId).handle((loyaltyInfo, ex) -> {
+            if(ex == null)
+                return Optional.of(loyaltyInfo);
+
+            Throwable cause = ex instanceof CompletionException ?
+                ex.getCause() : ex;
+
+            if(cause instanceof NoSuchElementException)
+                return Optional.empty();
+            else if(ex instanceof CompletionException)
+                throw (CompletionException) ex;
+            else
+                throw new CompletionException(ex);
+        });
+    }
+
+    default CompletableFuture<Done> appendAdjustment(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation,
+        LoyaltyAdjustment adjustment
+    ) {
+        return appendAdjustments(
+            loyaltyId,
+            loyaltyInformation,
+            Collections.singletonList(adjustment)
+        );
+    }
+
+    /**
+     * Stores the loyalty information that results from applying the
+     * adjustments, which are the last ones in its history. Repositories that
+     * can add adjustments to what they have already stored should override
+     * this rather than storing the whole history again.
+     *
+     * The loyalty information may hold only its latest adjustments, in which
+     * case the earlier ones are taken from what is already stored. That
+     * relies on one writer per account, which the LoyaltyActor is.
+     */
+    default CompletableFuture<Done> appendAdjustments(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation,
+        List<LoyaltyAdjustment> adjustments
+    ) {
+        if(loyaltyInformation.hasFullHistory())
+            return updateLoyalty(loyaltyId, loyaltyInformation);
+
+        int position =
+            loyaltyInformation.getAdjustmentCount() - adjustments.size();
+
+        return findLoyalty(loyaltyId).thenCompose(stored ->
+            updateLoyalty(
+                loyaltyId,
+                stored.applyAdjustmentsFrom(position, adjustments)
+            )
+        );
+    }
+
+    /**
+     * Up to count of the stored adjustments, starting at position from. There
+     * are fewer, or none, past the end of the history.
+     */
+    default CompletableFuture<List<LoyaltyAdjustment>> findAdjustments(
+        LoyaltyId loyaltyId,
+        int from,
+        int count
+    ) {
+        return findLoyaltyIfPresent(loyaltyId).thenApply(loyaltyInfo -> {
+            List<LoyaltyAdjustment> adjustments = loyaltyInfo
+                .map(LoyaltyInformation::getAdjustments)
+                .orElse(Collections.emptyList());
+
+            int start = Math.min(from, adjustments.size());
+            int end = Math.min(from + count, adjustments.size());
+
+            return new ArrayList<>(adjustments.subList(start, end));
+        });
+    }
 }
 
+/**
+ * Keeps the accounts in a ConcurrentHashMap, so any number of threads can read
+ * and write them at once. Given a capacity, the repository holds at most that
+ * many accounts and evicts the oldest ones first; an evicted account is found
+ * as missing, as if it had never been stored.
+ */
 class InMemoryLoyaltyRepository implements LoyaltyRepository {
+    static final int UNBOUNDED = 0;
 
-    private final Map<LoyaltyId, LoyaltyInformation> data;
+    private final ConcurrentMap<LoyaltyId, LoyaltyInformation> data;
+    private final Queue<LoyaltyId> insertionOrder;
     private final Executor executor;
+    private final int capacity;
 
     InMemoryLoyaltyRepository(Executor executor) {
-        data = new HashMap<>();
+        this(executor, UNBOUNDED);
+    }
+
+    InMemoryLoyaltyRepository(Executor executor, int capacity) {
+        if(capacity < 0)
+            throw new IllegalArgumentException(
+                "The capacity can't be negative: " + capacity
+            );
+
+        data = new ConcurrentHashMap<>();
+        insertionOrder = new ConcurrentLinkedQueue<>();
         this.executor = executor;
+        this.capacity = capacity;
     }
 
     @Override
@@ -41,9 +152,15 @@ class InMemoryLoyaltyRepository implements LoyaltyRepository {
         LoyaltyInformation loyaltyInformation
     ) {
         return CompletableFuture.supplyAsync(() -> {
-            data.put(loyaltyId, loyaltyInformation);
+            boolean added = data.put(loyaltyId, loyaltyInformation) == null;
+
+            if(added && capacity != UNBOUNDED) {
+                insertionOrder.add(loyaltyId);
+                evictOverCapacity();
+            }
+
             return Done.getInstance();
-        });
+        }, executor);
     }
 
     @Override
@@ -51,14 +168,40 @@ class InMemoryLoyaltyRepository implements LoyaltyRepository {
         LoyaltyId loyaltyId
     ) {
         return CompletableFuture.supplyAsync(() -> {
-            if(data.containsKey(loyaltyId)) {
-                return data.get(loyaltyId);
-            } else {
+            LoyaltyInformation loyaltyInfo = data.get(loyaltyId);
+
+            if(loyaltyInfo == null)
                 throw new NoSuchElementException("The Id was not found: " +
                     loyaltyId.getValue());
-            }
+
+            return loyaltyInfo;
         }, executor);
     }
+
+    @Override
+    public CompletableFuture<Optional<LoyaltyInformation>> findLoyaltyIfPresent(
+        LoyaltyId loyaltyId
+    ) {
+        return CompletableFuture.supplyAsync(
+            () -> Optional.ofNullable(data.get(loyaltyId)),
+            executor
+        );
+    }
+
+    int size() {
+        return data.size();
+    }
+
+    private void evictOverCapacity() {
+        while (data.size() > capacity) {
+            LoyaltyId oldest = insertionOrder.poll();
+
+            if(oldest == null)
+                return;
+
+            data.remove(oldest);
+        }
+    }
 }
 
 class FileBasedLoyaltyRepository implements LoyaltyRepository {
@@ -109,31 +252,43 @@ class FileBasedLoyaltyRepository implements LoyaltyRepository {
             try {
                 File file = new File(rootPath.toFile(), loyaltyId.getValue());
 
-                String fileContents = new String(
-                    Files.readAllBytes(
-                        Paths.get(file.getAbsolutePath())
-                    )
-                );
-
-                LoyaltyInformation loyaltyInfo = LoyaltyInformation.empty;
-
-                for (String str : fileContents.split(",")) {
-                    int points = Integer.parseInt(str);
-                    if(points >=0)
-                        loyaltyInfo = loyaltyInfo.applyAdjustment(
-                            new Award(points)
-                        );
-                    else
-                        loyaltyInfo = loyaltyInfo.applyAdjustment(
-                            new Deduct(-points)
-                        );
-                }
-
-                return loyaltyInfo;
+                return readLoyalty(Paths.get(file.getAbsolutePath()));
             } catch (IOException ex) {
                 throw new CompletionException(ex);
             }
 
         }, executor);
     }
+
+    @Override
+    public CompletableFuture<Optional<LoyaltyInformation>> findLoyaltyIfPresent(
+        LoyaltyId loyaltyId
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Path path = rootPath.resolve(loyaltyId.getValue());
+
+                if(!Files.exists(path))
+                    return Optional.empty();
+
+                return Optional.of(readLoyalty(path));
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    static LoyaltyInformation readLoyalty(Path path) throws IOException {
+        String fileContents = new String(Files.readAllBytes(path));
+
+        LoyaltyInformation loyaltyInfo = LoyaltyInformation.empty;
+
+        for (String str : fileContents.split(",")) {
+            loyaltyInfo = loyaltyInfo.applyAdjustment(
+                LoyaltyAdjustment.fromBalanceAdjustment(Integer.parseInt(str))
+            );
+        }
+
+        return loyaltyInfo;
+    }
 }
@@ -1,23 +1,47 @@
 package com.reactivebbq.loyalty;
 
+import akka.NotUsed;
 import akka.actor.ActorRef;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
 import akka.http.scaladsl.model.StatusCodes;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletionStage;
 
 import static akka.http.javadsl.server.PathMatchers.integerSegment;
 import static akka.http.javadsl.server.PathMatchers.segment;
 import static akka.pattern.Patterns.ask;
 
+/**
+ * The history in GET responses is streamed to the client in chunks of a few
+ * adjustments rather than built up as one string. GET /loyalty/{id} shows the
+ * balance and the adjustments the account holds in memory; older adjustments
+ * are shown a page at a time with ?page=, counting from 1 for the oldest.
+ */
 class LoyaltyRoutes extends AllDirectives {
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int ADJUSTMENTS_PER_CHUNK = 50;
+
     private final ActorRef loyaltyActors;
+    private final int pageSize;
     private final Duration timeout = Duration.ofSeconds(5);
 
     LoyaltyRoutes(ActorRef loyaltyActors) {
+        this(loyaltyActors, DEFAULT_PAGE_SIZE);
+    }
+
+    LoyaltyRoutes(ActorRef loyaltyActors, int pageSize) {
         this.loyaltyActors = loyaltyActors;
+        this.pageSize = pageSize;
     }
 
     Route createRoutes() {
@@ -35,7 +59,15 @@ class LoyaltyRoutes extends AllDirectives {
                         )
                     ),
                     pathEnd(() ->
-                        get(() -> getLoyalty(id))
+                        get(() ->
+                            parameterOptional(
+                                StringUnmarshallers.INTEGER,
+                                "page",
+                                (page) -> page
+                                    .map((p) -> getLoyaltyPage(id, p))
+                                    .orElseGet(() -> getLoyalty(id))
+                            )
+                        )
                     )
                 )
             )
@@ -118,26 +150,89 @@ class LoyaltyRoutes extends AllDirectives {
         );
     }
 
+    private Route getLoyaltyPage(String id, int page) {
+        if(page < 1)
+            return complete(StatusCodes.BadRequest(), "Invalid Page: " + page);
+
+        LoyaltyId loyaltyId = new LoyaltyId(id);
+        LoyaltyActor.GetLoyaltyHistory command =
+            new LoyaltyActor.GetLoyaltyHistory((page - 1) * pageSize, pageSize);
+
+        CompletionStage<LoyaltyActor.LoyaltyHistory> result =
+            ask(
+                loyaltyActors,
+                new LoyaltyActorSupervisor.Deliver(command, loyaltyId),
+                timeout
+            ).thenApply((obj) -> (LoyaltyActor.LoyaltyHistory) obj);
+
+        return onComplete(result, maybeResult ->
+            maybeResult.map((history) -> complete(history, page))
+            .get()
+        );
+    }
+
     private Route complete(LoyaltyInformation info) {
-        StringBuilder adjustments = new StringBuilder();
+        String header = "Current Balance: "+info.getCurrentTotal()+"\n"+
+            "History:\n";
+
+        if(!info.hasFullHistory())
+            header += "- ... " + info.getEarlierAdjustmentCount() +
+                " earlier adjustments, see ?page=\n";
 
-        for(LoyaltyAdjustment adj : info.getAdjustments()) {
+        return completeStreamed(header, info.getAdjustments());
+    }
+
+    private Route complete(LoyaltyActor.LoyaltyHistory history, int page) {
+        int pages = Math.max(
+            1,
+            (history.getAdjustmentCount() + pageSize - 1) / pageSize
+        );
+
+        if(page > pages)
+            return complete(StatusCodes.NotFound(), "Page Not Found: " + page);
+
+        return completeStreamed(
+            "Current Balance: "+history.getCurrentTotal()+"\n"+
+                "History (page "+page+" of "+pages+"):\n",
+            history.getAdjustments()
+        );
+    }
+
+    private Route completeStreamed(
+        String header,
+        List<LoyaltyAdjustment> adjustments
+    ) {
+        Source<ByteString, NotUsed> body = Source
+            .single(ByteString.fromString(header))
+            .concat(
+                Source.from(adjustments)
+                    .grouped(ADJUSTMENTS_PER_CHUNK)
+                    .map(this::render)
+            );
+
+        return complete(
+            HttpResponse.create().withEntity(
+                HttpEntities.createChunked(ContentTypes.TEXT_PLAIN_UTF8, body)
+            )
+        );
+    }
+
+    private ByteString render(List<LoyaltyAdjustment> adjustments) {
+        StringBuilder chunk = new StringBuilder();
+
+        for(LoyaltyAdjustment adj : adjustments) {
             if(adj instanceof Award)
-                adjustments
+                chunk
                     .append("- Award ")
                     .append(adj.getPoints())
                     .append("\n");
             else
-                adjustments
+                chunk
                     .append("- Deduct ")
                     .append(adj.getPoints())
                     .append("\n");
         }
 
-        return complete(
-            "Current Balance: "+info.getCurrentTotal()+"\n"+
-                "History:\n"+
-                adjustments
-        );
+        return ByteString.fromString(chunk.toString());
     }
 }
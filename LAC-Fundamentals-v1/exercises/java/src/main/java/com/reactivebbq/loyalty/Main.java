@@ -8,12 +8,15 @@ import akka.http.javadsl.ConnectHttp;
 import akka.http.javadsl.Http;
 import akka.management.javadsl.AkkaManagement;
 import akka.stream.Materializer;
+import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -61,32 +64,100 @@ class Main {
     }
 
     private static void initializeRepositories() {
-        Path rootPath = Paths.get("tmp");
+        Config config = system.settings()
+            .config()
+            .getConfig("loyalty.repository");
+
+        Path rootPath = Paths.get(config.getString("directory"));
+        String type = config.getString("type");
+        Executor executor = system.dispatchers()
+            .lookup(config.getString("dispatcher"));
+
         try {
-            loyaltyRepository = new FileBasedLoyaltyRepository(
-                rootPath,
-                system.getDispatcher()
-            );
+            if(type.equals("log")) {
+                loyaltyRepository = new LogBasedLoyaltyRepository(
+                    rootPath,
+                    executor,
+                    config.getInt("log.compact-after")
+                );
+            } else if(type.equals("segmented")) {
+                loyaltyRepository = initializeSegmentedRepository(
+                    rootPath,
+                    executor,
+                    config.getConfig("segmented")
+                );
+            } else if(type.equals("memory")) {
+                loyaltyRepository = new InMemoryLoyaltyRepository(
+                    executor,
+                    config.getInt("memory.capacity")
+                );
+            } else if(type.equals("file")) {
+                loyaltyRepository = new FileBasedLoyaltyRepository(
+                    rootPath,
+                    executor
+                );
+            } else {
+                throw new IllegalArgumentException(
+                    "Unknown loyalty repository type: " + type
+                );
+            }
         } catch(IOException ex) {
             logger.error("Unable to initialize Loyalty Repo", ex);
         }
     }
 
+    private static LoyaltyRepository initializeSegmentedRepository(
+        Path rootPath,
+        Executor executor,
+        Config config
+    ) throws IOException {
+        SegmentedLoyaltyRepository repository = new SegmentedLoyaltyRepository(
+            rootPath,
+            executor,
+            config.getBytes("segment-size"),
+            config.getInt("compact-after"),
+            config.getDouble("compact-below")
+        );
+
+        Duration interval = config.getDuration("compaction-interval");
+
+        system.scheduler().scheduleWithFixedDelay(
+            interval,
+            interval,
+            () -> repository.compact().whenComplete((compacted, ex) -> {
+                if(ex != null)
+                    logger.error("Unable to compact loyalty segments", ex);
+                else if(compacted > 0)
+                    logger.info("Compacted " + compacted + " loyalty segments");
+            }),
+            system.getDispatcher()
+        );
+
+        return repository;
+    }
+
     private static void initializeActors() {
         /*loyaltyActorSupervisor = system.actorOf(
             LoyaltyActorSupervisor.create(loyaltyRepository)
         );*/
 
+         int retainedAdjustments = system.settings()
+             .config()
+             .getInt("loyalty.history.retained-adjustments");
+
          loyaltyActorSupervisor = ClusterSharding.get(system).start(
              "loyalty",
-             LoyaltyActor.create(loyaltyRepository),
+             LoyaltyActor.create(loyaltyRepository, retainedAdjustments),
              ClusterShardingSettings.create(system),
              LoyaltyActorSupervisor.messageExtractor
          );
     }
 
     private static void initializeHttpServer() {
-        LoyaltyRoutes routes = new LoyaltyRoutes(loyaltyActorSupervisor);
+        LoyaltyRoutes routes = new LoyaltyRoutes(
+            loyaltyActorSupervisor,
+            system.settings().config().getInt("loyalty.history.page-size")
+        );
 
         int httpPort = system.settings()
             .config()
@@ -0,0 +1,734 @@
+package com.reactivebbq.loyalty;
+
+import akka.Done;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Stores every account in a handful of segment files rather than a file per
+ * account. Records are appended to the newest segment, and a new segment is
+ * started once it reaches segmentSize.
+ *
+ * A record is either a snapshot of an account's whole history, or a single
+ * adjustment along with its position in the history. Every record points back
+ * to the account's previous record, so the index only has to hold the
+ * location of each account's newest record; reading an account follows the
+ * chain back to the last snapshot. Once compactAfter adjustments have been
+ * appended since the snapshot, a new snapshot is written. Adjustments are
+ * placed by position the same way LogBasedLoyaltyRepository places them.
+ *
+ * Segments are memory mapped, and records are written into and decoded
+ * straight from the mapping, so reading an account copies nothing onto the
+ * heap beyond the adjustments themselves. This limits a segment to 2GB.
+ *
+ * Each write forces the segment to the disk before it completes, so a write
+ * that has completed survives the machine crashing as well as the process.
+ *
+ * The index is rebuilt on startup by scanning the segments in order. Each
+ * record carries its length and a checksum, so the scan stops at a record
+ * that was only partly written when the process or machine stopped, and the
+ * newest segment is cut back to the last whole record.
+ *
+ * compact() rewrites older segments that are mostly records no account reads
+ * any more: each account that still reads from such a segment gets a new
+ * snapshot in the newest segment, and the old segment is deleted.
+ */
+class SegmentedLoyaltyRepository implements LoyaltyRepository {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final byte SNAPSHOT = 1;
+    private static final byte ADJUSTMENT = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final long NO_RECORD = -1;
+
+    /**
+     * The location of an account's newest record, and the number of
+     * adjustments appended since its last snapshot.
+     */
+    private static final class Head {
+        private final long location;
+        private final int sinceSnapshot;
+
+        private Head(long location, int sinceSnapshot) {
+            this.location = location;
+            this.sinceSnapshot = sinceSnapshot;
+        }
+    }
+
+    private static final class Record {
+        private final byte type;
+        private final ByteBuffer id;
+        private final long previous;
+        private final int size;
+        private final ByteBuffer payload;
+
+        private Record(
+            byte type,
+            ByteBuffer id,
+            long previous,
+            int size,
+            ByteBuffer payload
+        ) {
+            this.type = type;
+            this.id = id;
+            this.previous = previous;
+            this.size = size;
+            this.payload = payload;
+        }
+    }
+
+    private final Path rootPath;
+    private final Executor executor;
+    private final int segmentSize;
+    private final int compactAfter;
+    private final double compactBelow;
+    private final Map<Integer, MappedByteBuffer> segments =
+        new ConcurrentHashMap<>();
+    private final Map<LoyaltyId, Head> index = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[64];
+    private final Object compactionLock = new Object();
+    private int activeSegment;
+    private int activePosition;
+
+    SegmentedLoyaltyRepository(
+        Path rootPath,
+        Executor executor,
+        long segmentSize,
+        int compactAfter,
+        double compactBelow
+    ) throws IOException {
+
+        this.rootPath = rootPath;
+        this.executor = executor;
+        if(segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "Segments must be between 1 byte and 2GB: " + segmentSize
+            );
+
+        this.segmentSize = (int) segmentSize;
+        this.compactAfter = compactAfter;
+        this.compactBelow = compactBelow;
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        Files.createDirectories(rootPath);
+        recover();
+    }
+
+    @Override
+    public CompletableFuture<Done> updateLoyalty(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (lockFor(loyaltyId)) {
+                try {
+                    writeSnapshot(loyaltyId, loyaltyInformation);
+                    force();
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+
+            return Done.getInstance();
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Done> appendAdjustments(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation,
+        List<LoyaltyAdjustment> adjustments
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (lockFor(loyaltyId)) {
+                try {
+                    Head head = index.get(loyaltyId);
+                    boolean snapshotDue = head == null ||
+                        head.sinceSnapshot + adjustments.size() >= compactAfter;
+
+                    if(snapshotDue && loyaltyInformation.hasFullHistory()) {
+                        writeSnapshot(loyaltyId, loyaltyInformation);
+                    } else if(head == null) {
+                        throw new NoSuchElementException(
+                            "The Id was not found: " + loyaltyId.getValue()
+                        );
+                    } else {
+                        int position = loyaltyInformation.getAdjustmentCount() -
+                            adjustments.size();
+
+                        for (LoyaltyAdjustment adjustment : adjustments) {
+                            ByteBuffer payload = ByteBuffer.allocate(8);
+                            payload.putInt(position++);
+                            payload.putInt(adjustment.getBalanceAdjustment());
+
+                            long location = write(
+                                ADJUSTMENT,
+                                loyaltyId,
+                                head.location,
+                                payload
+                            );
+                            head = new Head(location, head.sinceSnapshot + 1);
+                            index.put(loyaltyId, head);
+                        }
+
+                        // Without the earlier adjustments, the snapshot is
+                        // taken from the records just written.
+                        if(snapshotDue)
+                            writeSnapshot(loyaltyId, readLoyalty(loyaltyId));
+                    }
+
+                    force();
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+
+            return Done.getInstance();
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<LoyaltyInformation> findLoyalty(
+        LoyaltyId loyaltyId
+    ) {
+        return findLoyaltyIfPresent(loyaltyId).thenApply(loyaltyInfo ->
+            loyaltyInfo.orElseThrow(() -> new NoSuchElementException(
+                "The Id was not found: " + loyaltyId.getValue()
+            ))
+        );
+    }
+
+    @Override
+    public CompletableFuture<Optional<LoyaltyInformation>> findLoyaltyIfPresent(
+        LoyaltyId loyaltyId
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (lockFor(loyaltyId)) {
+                if(!index.containsKey(loyaltyId))
+                    return Optional.empty();
+
+                try {
+                    return Optional.of(readLoyalty(loyaltyId));
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Compacts the segments before the newest one that are mostly unread, and
+     * completes with the number of segments removed.
+     */
+    CompletableFuture<Integer> compact() {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (compactionLock) {
+                try {
+                    return compactSegments();
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, executor);
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Follows the account's chain back to its snapshot, then applies the
+     * adjustments in the order they were written. As in the log, a record
+     * written again at an earlier position, such as by a retried or stale
+     * write, replaces the records from that position on, and the chain ends at
+     * the first record that would leave a gap. The index is cut back to the
+     * last record read, so that records appended after it are read.
+     */
+    private LoyaltyInformation readLoyalty(LoyaltyId loyaltyId)
+        throws IOException {
+
+        Head head = index.get(loyaltyId);
+
+        if(head == null)
+            throw new NoSuchElementException("The Id was not found: " +
+                loyaltyId.getValue());
+
+        List<Long> locations = new ArrayList<>();
+        List<ByteBuffer> payloads = new ArrayList<>();
+        long location = head.location;
+        Record record = read(location);
+
+        while (record.type == ADJUSTMENT) {
+            locations.add(location);
+            payloads.add(record.payload);
+            location = record.previous;
+            record = read(location);
+        }
+
+        int count = record.payload.getInt();
+        record.payload.getInt();
+
+        LoyaltyInformation loyaltyInfo = LoyaltyInformation.empty;
+
+        for (int i = 0; i < count; i++) {
+            loyaltyInfo = loyaltyInfo.applyAdjustment(
+                LoyaltyAdjustment.fromBalanceAdjustment(record.payload.getInt())
+            );
+        }
+
+        TreeMap<Integer, Integer> appended = new TreeMap<>();
+        long end = location;
+        int read = 0;
+
+        for (int i = payloads.size() - 1; i >= 0; i--) {
+            ByteBuffer payload = payloads.get(i);
+            int position = payload.getInt();
+            int balanceAdjustment = payload.getInt();
+
+            if(position > count + appended.size())
+                break;
+
+            if(position >= count) {
+                appended.tailMap(position, true).clear();
+                appended.put(position, balanceAdjustment);
+            }
+
+            end = locations.get(i);
+            read++;
+        }
+
+        if(end != head.location)
+            index.put(loyaltyId, new Head(end, read));
+
+        for (int balanceAdjustment : appended.values()) {
+            loyaltyInfo = loyaltyInfo.applyAdjustment(
+                LoyaltyAdjustment.fromBalanceAdjustment(balanceAdjustment)
+            );
+        }
+
+        return loyaltyInfo;
+    }
+
+    private void writeSnapshot(
+        LoyaltyId loyaltyId,
+        LoyaltyInformation loyaltyInformation
+    ) throws IOException {
+        List<LoyaltyAdjustment> adjustments =
+            loyaltyInformation.getAdjustments();
+        ByteBuffer payload = ByteBuffer.allocate(8 + 4 * adjustments.size());
+
+        payload.putInt(adjustments.size());
+        payload.putInt(loyaltyInformation.getCurrentTotal());
+
+        for (LoyaltyAdjustment adjustment : adjustments) {
+            payload.putInt(adjustment.getBalanceAdjustment());
+        }
+
+        long location = write(SNAPSHOT, loyaltyId, NO_RECORD, payload);
+        index.put(loyaltyId, new Head(location, 0));
+    }
+
+    /**
+     * A record is its length and a checksum, followed by the type, the
+     * account, the location of the account's previous record and the payload.
+     * Writes are serialized, and a segment is forced before the next one is
+     * started, so a crash can only leave records partly written that belong to
+     * writes that hadn't completed.
+     */
+    private long write(
+        byte type,
+        LoyaltyId loyaltyId,
+        long previous,
+        ByteBuffer payload
+    ) throws IOException {
+        byte[] id = loyaltyId.getValue().getBytes(StandardCharsets.UTF_8);
+        int bodySize = 1 + 2 + id.length + 8 + payload.position();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+
+        record.putInt(bodySize);
+        record.putInt(0);
+        record.put(type);
+        record.putShort((short) id.length);
+        record.put(id);
+        record.putLong(previous);
+        record.put(payload.array(), 0, payload.position());
+        record.putInt(4, checksum(record.array(), HEADER_SIZE, bodySize));
+        record.flip();
+
+        synchronized (this) {
+            MappedByteBuffer segment = segments.get(activeSegment);
+
+            if(activePosition + record.remaining() > segment.capacity()) {
+                segment.force();
+                openSegment(
+                    activeSegment + 1,
+                    Math.max(segmentSize, record.remaining())
+                );
+                segment = segments.get(activeSegment);
+            }
+
+            long location = location(activeSegment, activePosition);
+
+            ByteBuffer target = segment.duplicate();
+            target.position(activePosition);
+            target.put(record);
+
+            activePosition += record.limit();
+            return location;
+        }
+    }
+
+    /**
+     * Forces the records written to the newest segment to the disk. Older
+     * segments were forced when the next one was started.
+     */
+    private void force() {
+        MappedByteBuffer segment;
+
+        synchronized (this) {
+            segment = segments.get(activeSegment);
+        }
+
+        segment.force();
+    }
+
+    /**
+     * Decodes the record in place. The payload is a view of the mapped
+     * segment, so nothing is copied onto the heap.
+     */
+    private Record read(long location) throws IOException {
+        ByteBuffer segment = segments.get(segmentOf(location)).duplicate();
+        int position = (int) offsetOf(location);
+        int bodySize = segment.getInt(position);
+
+        segment.position(position + HEADER_SIZE);
+        segment.limit(position + HEADER_SIZE + bodySize);
+        ByteBuffer body = segment.slice();
+
+        if(checksum(body.duplicate()) != segment.getInt(position + 4))
+            throw new IOException("Corrupt loyalty record at " +
+                position + " in segment " + segmentOf(location));
+
+        return parse(body);
+    }
+
+    private static Record parse(ByteBuffer body) {
+        byte type = body.get();
+        int idLength = body.getShort();
+
+        ByteBuffer id = body.slice();
+        id.limit(idLength);
+        body.position(body.position() + idLength);
+
+        long previous = body.getLong();
+
+        return new Record(
+            type,
+            id,
+            previous,
+            HEADER_SIZE + body.capacity(),
+            body.slice()
+        );
+    }
+
+    private static LoyaltyId loyaltyIdOf(Record record) {
+        byte[] id = new byte[record.id.remaining()];
+        record.id.duplicate().get(id);
+        return new LoyaltyId(new String(id, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Maps the segments and indexes their records in the order they were
+     * written. Scanning stops at the first record that is incomplete or fails
+     * its checksum. Anything after that in the newest segment is cleared,
+     * so the next record written there can't be mistaken for part of it.
+     */
+    private void recover() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(
+            rootPath,
+            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX
+        )) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Integer.parseInt(name.substring(
+                    SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()
+                )));
+            }
+        }
+
+        numbers.sort(null);
+
+        if(numbers.isEmpty()) {
+            openSegment(1, segmentSize);
+            return;
+        }
+
+        for (int number : numbers) {
+            MappedByteBuffer segment;
+
+            try (FileChannel channel = FileChannel.open(
+                segmentPath(number),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            )) {
+                segment = channel.map(
+                    FileChannel.MapMode.READ_WRITE,
+                    0,
+                    channel.size()
+                );
+            }
+
+            int end = scan(segment, (position, record) -> {
+                LoyaltyId loyaltyId = loyaltyIdOf(record);
+                Head previous = index.get(loyaltyId);
+                int sinceSnapshot =
+                    record.type == SNAPSHOT || previous == null
+                        ? 0
+                        : previous.sinceSnapshot + 1;
+
+                index.put(
+                    loyaltyId,
+                    new Head(location(number, position), sinceSnapshot)
+                );
+            });
+
+            segments.put(number, segment);
+            activeSegment = number;
+            activePosition = end;
+        }
+
+        try (FileChannel channel = FileChannel.open(
+            segmentPath(activeSegment),
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            channel.truncate(activePosition);
+            segments.put(activeSegment, channel.map(
+                FileChannel.MapMode.READ_WRITE,
+                0,
+                Math.max(segmentSize, activePosition)
+            ));
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(int position, Record record) throws IOException;
+    }
+
+    /**
+     * Visits each whole record in the segment, and returns the position after
+     * the last one. New segments are zero filled, so an empty header marks the
+     * end of the records.
+     */
+    private static int scan(ByteBuffer segment, RecordVisitor visitor)
+        throws IOException {
+
+        ByteBuffer records = segment.duplicate();
+        int size = records.capacity();
+        int position = 0;
+
+        while (position + HEADER_SIZE <= size) {
+            int bodySize = records.getInt(position);
+
+            if(bodySize <= 0 || bodySize > size - position - HEADER_SIZE)
+                break;
+
+            records.limit(position + HEADER_SIZE + bodySize);
+            records.position(position + HEADER_SIZE);
+            ByteBuffer body = records.slice();
+            records.limit(size);
+
+            if(checksum(body.duplicate()) != records.getInt(position + 4))
+                break;
+
+            visitor.visit(position, parse(body));
+            position += HEADER_SIZE + bodySize;
+        }
+
+        return position;
+    }
+
+    private int compactSegments() throws IOException {
+        int compacted = 0;
+        List<Integer> sealed = new ArrayList<>();
+
+        synchronized (this) {
+            for (int number : segments.keySet()) {
+                if(number < activeSegment)
+                    sealed.add(number);
+            }
+        }
+
+        sealed.sort(null);
+
+        for (int number : sealed) {
+            Set<LoyaltyId> loyaltyIds = new HashSet<>();
+            long[] total = new long[1];
+
+            scan(segments.get(number), (position, record) -> {
+                loyaltyIds.add(loyaltyIdOf(record));
+                total[0] += record.size;
+            });
+
+            Map<LoyaltyId, Long> liveBytes = new HashMap<>();
+            long live = 0;
+
+            for (LoyaltyId loyaltyId : loyaltyIds) {
+                synchronized (lockFor(loyaltyId)) {
+                    long bytes = bytesReadFrom(number, loyaltyId);
+
+                    if(bytes > 0) {
+                        liveBytes.put(loyaltyId, bytes);
+                        live += bytes;
+                    }
+                }
+            }
+
+            if(total[0] > 0 && (double) live / total[0] >= compactBelow)
+                continue;
+
+            for (LoyaltyId loyaltyId : liveBytes.keySet()) {
+                synchronized (lockFor(loyaltyId)) {
+                    if(bytesReadFrom(number, loyaltyId) > 0)
+                        writeSnapshot(loyaltyId, readLoyalty(loyaltyId));
+                }
+            }
+
+            // The new snapshots have to be on the disk before the records
+            // they replace are deleted.
+            force();
+
+            // The mapping stays valid until it is garbage collected, so a
+            // deleted segment's memory is only given back after that.
+            segments.remove(number);
+            Files.delete(segmentPath(number));
+            compacted++;
+        }
+
+        return compacted;
+    }
+
+    /**
+     * The number of bytes of the segment that reading the account still needs.
+     */
+    private long bytesReadFrom(int number, LoyaltyId loyaltyId)
+        throws IOException {
+
+        Head head = index.get(loyaltyId);
+
+        if(head == null)
+            return 0;
+
+        long bytes = 0;
+        long location = head.location;
+
+        while (location != NO_RECORD) {
+            Record record = read(location);
+
+            if(segmentOf(location) == number)
+                bytes += record.size;
+
+            location = record.type == SNAPSHOT ? NO_RECORD : record.previous;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Creates and maps a segment of the given size. The file is extended to
+     * its full size straight away, and reads as zeros past the last record.
+     */
+    private void openSegment(int number, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+            segmentPath(number),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            segments.put(
+                number,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+            );
+        }
+
+        forceDirectory();
+        activeSegment = number;
+        activePosition = 0;
+    }
+
+    /**
+     * Forces the directory, so a new segment is still there after a crash.
+     * Windows won't open a directory, so there it is left to the file system.
+     */
+    private void forceDirectory() throws IOException {
+        try (FileChannel directory = FileChannel.open(
+            rootPath,
+            StandardOpenOption.READ
+        )) {
+            directory.force(true);
+        } catch (AccessDeniedException ignored) {}
+    }
+
+    private Path segmentPath(int number) {
+        return rootPath.resolve(
+            String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)
+        );
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 40);
+    }
+
+    private static long offsetOf(long location) {
+        return location & ((1L << 40) - 1);
+    }
+
+    private Object lockFor(LoyaltyId loyaltyId) {
+        return locks[Math.floorMod(loyaltyId.hashCode(), locks.length)];
+    }
+}
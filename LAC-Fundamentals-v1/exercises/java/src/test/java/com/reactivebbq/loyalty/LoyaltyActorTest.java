@@ -8,10 +8,16 @@ import org.junit.jupiter.api.TestInstance;
 
 import static akka.pattern.Patterns.ask;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 
@@ -30,6 +36,98 @@ class LoyaltyActorTest extends AkkaTest {
         @Override
         public CompletableFuture<LoyaltyInformation> findLoyalty(LoyaltyId loyaltyId) {
             CompletableFuture<LoyaltyInformation> future = new CompletableFuture<>();
+            future.completeExceptionally(new NoSuchElementException());
+            return future;
+        }
+    }
+
+    class SlowLoyaltyRepository implements LoyaltyRepository {
+        final List<List<LoyaltyAdjustment>> writes = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<Done>> results = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<Done> updateLoyalty(LoyaltyId loyaltyId, LoyaltyInformation loyaltyInformation) {
+            return appendAdjustments(loyaltyId, loyaltyInformation, loyaltyInformation.getAdjustments());
+        }
+
+        @Override
+        public CompletableFuture<Done> appendAdjustments(
+            LoyaltyId loyaltyId,
+            LoyaltyInformation loyaltyInformation,
+            List<LoyaltyAdjustment> adjustments
+        ) {
+            CompletableFuture<Done> result = new CompletableFuture<>();
+            writes.add(new ArrayList<>(adjustments));
+            results.add(result);
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<LoyaltyInformation> findLoyalty(LoyaltyId loyaltyId) {
+            CompletableFuture<LoyaltyInformation> future = new CompletableFuture<>();
+            future.completeExceptionally(new NoSuchElementException());
+            return future;
+        }
+    }
+
+    class StoreThenFailLoyaltyRepository extends InMemoryLoyaltyRepository {
+        boolean failNext = true;
+
+        StoreThenFailLoyaltyRepository() {
+            super(Executors.newSingleThreadExecutor());
+        }
+
+        @Override
+        public CompletableFuture<Done> appendAdjustments(
+            LoyaltyId loyaltyId,
+            LoyaltyInformation loyaltyInformation,
+            List<LoyaltyAdjustment> adjustments
+        ) {
+            CompletableFuture<Done> stored = super.appendAdjustments(loyaltyId, loyaltyInformation, adjustments);
+
+            if(!failNext)
+                return stored;
+
+            failNext = false;
+
+            return stored.thenCompose(done -> {
+                CompletableFuture<Done> future = new CompletableFuture<>();
+                future.completeExceptionally(new Exception("Boom"));
+                return future;
+            });
+        }
+    }
+
+    class UnavailableLoyaltyRepository extends InMemoryLoyaltyRepository {
+        volatile boolean available = true;
+        final CompletableFuture<Done> readFailed = new CompletableFuture<>();
+
+        UnavailableLoyaltyRepository() {
+            super(Executors.newSingleThreadExecutor());
+        }
+
+        @Override
+        public CompletableFuture<Done> appendAdjustments(
+            LoyaltyId loyaltyId,
+            LoyaltyInformation loyaltyInformation,
+            List<LoyaltyAdjustment> adjustments
+        ) {
+            if(available)
+                return super.appendAdjustments(loyaltyId, loyaltyInformation, adjustments);
+
+            CompletableFuture<Done> future = new CompletableFuture<>();
+            future.completeExceptionally(new Exception("Boom"));
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Optional<LoyaltyInformation>> findLoyaltyIfPresent(LoyaltyId loyaltyId) {
+            if(available)
+                return super.findLoyaltyIfPresent(loyaltyId);
+
+            readFailed.complete(Done.getInstance());
+
+            CompletableFuture<Optional<LoyaltyInformation>> future = new CompletableFuture<>();
             future.completeExceptionally(new Exception("Bam"));
             return future;
         }
@@ -143,6 +241,254 @@ class LoyaltyActorTest extends AkkaTest {
         );
     }
 
+    @Test
+    void applyLoyaltyAdjustment_shouldCoalesceAdjustmentsWhileAWriteIsInFlight() {
+        SlowLoyaltyRepository slowRepository = new SlowLoyaltyRepository();
+        ActorRef actor = system.actorOf(LoyaltyActor.create(slowRepository), loyaltyId.getValue());
+
+        CompletionStage<Object> first = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(10)), timeout);
+        CompletionStage<Object> second = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(20)), timeout);
+        CompletionStage<Object> third = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Deduct(5)), timeout);
+
+        LoyaltyInformation state = (LoyaltyInformation) ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(25, state.getCurrentTotal());
+        assertEquals(1, slowRepository.writes.size());
+        assertEquals(1, slowRepository.writes.get(0).size());
+        assertFalse(first.toCompletableFuture().isDone());
+
+        slowRepository.results.get(0).complete(Done.getInstance());
+        first.toCompletableFuture().join();
+
+        ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout).toCompletableFuture().join();
+
+        assertEquals(2, slowRepository.writes.size());
+        assertEquals(20, slowRepository.writes.get(1).get(0).getBalanceAdjustment());
+        assertEquals(-5, slowRepository.writes.get(1).get(1).getBalanceAdjustment());
+        assertFalse(second.toCompletableFuture().isDone());
+        assertFalse(third.toCompletableFuture().isDone());
+
+        slowRepository.results.get(1).complete(Done.getInstance());
+
+        LoyaltyActor.LoyaltyAdjustmentApplied secondResult =
+            (LoyaltyActor.LoyaltyAdjustmentApplied) second.toCompletableFuture().join();
+        LoyaltyActor.LoyaltyAdjustmentApplied thirdResult =
+            (LoyaltyActor.LoyaltyAdjustmentApplied) third.toCompletableFuture().join();
+
+        assertEquals(20, secondResult.getAdjustment().getBalanceAdjustment());
+        assertEquals(-5, thirdResult.getAdjustment().getBalanceAdjustment());
+        assertEquals(2, slowRepository.writes.size());
+    }
+
+    @Test
+    void applyLoyaltyAdjustment_shouldReservePointsForADeductionThatIsBeingWritten() {
+        SlowLoyaltyRepository slowRepository = new SlowLoyaltyRepository();
+        ActorRef actor = system.actorOf(LoyaltyActor.create(slowRepository), loyaltyId.getValue());
+
+        CompletionStage<Object> award = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(10)), timeout);
+
+        ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout).toCompletableFuture().join();
+        slowRepository.results.get(0).complete(Done.getInstance());
+        award.toCompletableFuture().join();
+
+        CompletionStage<Object> deduct = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Deduct(8)), timeout);
+
+        LoyaltyActor.LoyaltyAdjustmentRejected rejected = (LoyaltyActor.LoyaltyAdjustmentRejected)
+            ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Deduct(5)), timeout)
+                .toCompletableFuture()
+                .join();
+
+        CompletionStage<Object> secondAward = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(20)), timeout);
+
+        LoyaltyInformation state = (LoyaltyInformation) ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(5, rejected.getAdjustment().getPoints());
+        assertEquals(22, state.getCurrentTotal());
+        assertFalse(deduct.toCompletableFuture().isDone());
+        assertFalse(secondAward.toCompletableFuture().isDone());
+
+        slowRepository.results.get(1).complete(Done.getInstance());
+        deduct.toCompletableFuture().join();
+
+        ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout).toCompletableFuture().join();
+        slowRepository.results.get(2).complete(Done.getInstance());
+        secondAward.toCompletableFuture().join();
+
+        assertEquals(3, slowRepository.writes.size());
+        assertEquals(20, slowRepository.writes.get(2).get(0).getBalanceAdjustment());
+    }
+
+    @Test
+    void applyLoyaltyAdjustment_shouldReleaseReservedPointsIfTheWriteFails() {
+        SlowLoyaltyRepository slowRepository = new SlowLoyaltyRepository();
+        ActorRef actor = system.actorOf(LoyaltyActor.create(slowRepository), loyaltyId.getValue());
+
+        CompletionStage<Object> award = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(10)), timeout);
+        CompletionStage<Object> deduct = ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Deduct(8)), timeout);
+
+        LoyaltyInformation state = (LoyaltyInformation) ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(2, state.getCurrentTotal());
+
+        slowRepository.results.get(0).completeExceptionally(new Exception("Boom"));
+
+        assertThrows(CompletionException.class, () -> award.toCompletableFuture().join());
+
+        LoyaltyActor.LoyaltyAdjustmentRejected rejected =
+            (LoyaltyActor.LoyaltyAdjustmentRejected) deduct.toCompletableFuture().join();
+
+        LoyaltyInformation result = (LoyaltyInformation) ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(8, rejected.getAdjustment().getPoints());
+        assertEquals(0, result.getCurrentTotal());
+        assertEquals(0, result.getAdjustments().size());
+        assertEquals(1, slowRepository.writes.size());
+    }
+
+    @Test
+    void applyLoyaltyAdjustment_shouldReloadWhatWasStoredIfTheWriteFails() {
+        StoreThenFailLoyaltyRepository failingRepository = new StoreThenFailLoyaltyRepository();
+        ActorRef actor = system.actorOf(LoyaltyActor.create(failingRepository), loyaltyId.getValue());
+
+        assertThrows(CompletionException.class, () ->
+            ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(10)), timeout)
+                .toCompletableFuture()
+                .join()
+        );
+
+        LoyaltyInformation reloaded = (LoyaltyInformation) ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(10, reloaded.getCurrentTotal());
+
+        ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Deduct(8)), timeout)
+            .toCompletableFuture()
+            .join();
+
+        LoyaltyInformation stored = failingRepository.findLoyalty(loyaltyId).join();
+
+        assertEquals(2, stored.getCurrentTotal());
+        assertEquals(2, stored.getAdjustments().size());
+    }
+
+    @Test
+    void applyLoyaltyAdjustment_shouldNotStartFromEmptyIfTheAccountCantBeReadAfterAFailedWrite() {
+        UnavailableLoyaltyRepository unavailableRepository = new UnavailableLoyaltyRepository();
+        LoyaltyInformation stored = LoyaltyInformation.empty
+            .applyAdjustment(new Award(10))
+            .applyAdjustment(new Award(10))
+            .applyAdjustment(new Award(10));
+
+        unavailableRepository.updateLoyalty(loyaltyId, stored).join();
+
+        ActorRef actor = system.actorOf(LoyaltyActor.create(unavailableRepository), loyaltyId.getValue());
+
+        ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout).toCompletableFuture().join();
+
+        unavailableRepository.available = false;
+
+        assertThrows(CompletionException.class, () ->
+            ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(5)), timeout)
+                .toCompletableFuture()
+                .join()
+        );
+
+        unavailableRepository.readFailed.join();
+
+        CompletionStage<Object> held = ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout);
+
+        unavailableRepository.available = true;
+
+        LoyaltyInformation reloaded = (LoyaltyInformation) held.toCompletableFuture().join();
+
+        assertEquals(30, reloaded.getCurrentTotal());
+
+        ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Deduct(25)), timeout)
+            .toCompletableFuture()
+            .join();
+
+        LoyaltyInformation result = unavailableRepository.findLoyalty(loyaltyId).join();
+
+        assertEquals(5, result.getCurrentTotal());
+        assertEquals(4, result.getAdjustments().size());
+    }
+
+    @Test
+    void applyLoyaltyAdjustment_shouldOnlyKeepTheLatestAdjustmentsOnceStored() {
+        ActorRef actor = system.actorOf(LoyaltyActor.create(loyaltyRepository, 2), loyaltyId.getValue());
+
+        for (int i = 1; i <= 5; i++) {
+            ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(i)), timeout)
+                .toCompletableFuture()
+                .join();
+        }
+
+        LoyaltyInformation result = (LoyaltyInformation) ask(actor, new LoyaltyActor.GetLoyaltyInformation(), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(15, result.getCurrentTotal());
+        assertEquals(2, result.getAdjustments().size());
+        assertEquals(3, result.getEarlierAdjustmentCount());
+        assertEquals(5, loyaltyRepository.findLoyalty(loyaltyId).join().getAdjustments().size());
+    }
+
+    @Test
+    void getLoyaltyHistory_shouldCombineStoredAndHeldAdjustments() {
+        ActorRef actor = system.actorOf(LoyaltyActor.create(loyaltyRepository, 2), loyaltyId.getValue());
+
+        for (int i = 1; i <= 5; i++) {
+            ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(i)), timeout)
+                .toCompletableFuture()
+                .join();
+        }
+
+        LoyaltyActor.LoyaltyHistory history = (LoyaltyActor.LoyaltyHistory) ask(actor, new LoyaltyActor.GetLoyaltyHistory(1, 3), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(15, history.getCurrentTotal());
+        assertEquals(5, history.getAdjustmentCount());
+        assertEquals(1, history.getFrom());
+        assertEquals(3, history.getAdjustments().size());
+        assertEquals(2, history.getAdjustments().get(0).getPoints());
+        assertEquals(3, history.getAdjustments().get(1).getPoints());
+        assertEquals(4, history.getAdjustments().get(2).getPoints());
+    }
+
+    @Test
+    void getLoyaltyHistory_shouldReturnAnEmptyPagePastTheEndOfTheHistory() {
+        ActorRef actor = system.actorOf(LoyaltyActor.create(loyaltyRepository, 2), loyaltyId.getValue());
+
+        LoyaltyActor.LoyaltyHistory empty = (LoyaltyActor.LoyaltyHistory) ask(actor, new LoyaltyActor.GetLoyaltyHistory(100, 100), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(0, empty.getAdjustmentCount());
+        assertEquals(0, empty.getAdjustments().size());
+
+        ask(actor, new LoyaltyActor.ApplyLoyaltyAdjustment(new Award(10)), timeout)
+            .toCompletableFuture()
+            .join();
+
+        LoyaltyActor.LoyaltyHistory history = (LoyaltyActor.LoyaltyHistory) ask(actor, new LoyaltyActor.GetLoyaltyHistory(200, 100), timeout)
+            .toCompletableFuture()
+            .join();
+
+        assertEquals(10, history.getCurrentTotal());
+        assertEquals(1, history.getAdjustmentCount());
+        assertEquals(0, history.getAdjustments().size());
+    }
+
     @Test
     void getLoyaltyInformation_shouldReturnEmptyIfNoAdjustmentsHaveBeenApplied() {
         LoyaltyInformation result = (LoyaltyInformation) ask(loyaltyActor.get(), new LoyaltyActor.GetLoyaltyInformation(), timeout)
@@ -2,7 +2,12 @@ package com.reactivebbq.loyalty;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class LoyaltyInformationTest {
 
@@ -62,4 +67,130 @@ class LoyaltyInformationTest {
         assertEquals(30, loyaltyInformation.getAdjustments().get(2).getBalanceAdjustment());
     }
 
+    @Test
+    void applyAdjustment_shouldNotChangeThePreviousInformation() {
+        LoyaltyInformation before = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10));
+
+        LoyaltyInformation after = before.applyAdjustment(new Deduct(5));
+
+        assertEquals(1, before.getAdjustments().size());
+        assertEquals(10, before.getCurrentTotal());
+        assertEquals(2, after.getAdjustments().size());
+        assertEquals(5, after.getCurrentTotal());
+    }
+
+    @Test
+    void applyAdjustment_shouldKeepHistoriesSeparate_ifTheSameInformationIsAdjustedTwice() {
+        LoyaltyInformation original = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10))
+                .applyAdjustment(new Award(20));
+
+        LoyaltyInformation awarded = original.applyAdjustment(new Award(30));
+        LoyaltyInformation deducted = original.applyAdjustment(new Deduct(5));
+
+        assertEquals(3, awarded.getAdjustments().size());
+        assertEquals(30, awarded.getAdjustments().get(2).getBalanceAdjustment());
+        assertEquals(60, awarded.getCurrentTotal());
+
+        assertEquals(3, deducted.getAdjustments().size());
+        assertEquals(-5, deducted.getAdjustments().get(2).getBalanceAdjustment());
+        assertEquals(25, deducted.getCurrentTotal());
+
+        assertEquals(2, original.getAdjustments().size());
+    }
+
+    @Test
+    void currentTotal_shouldMatchTheAdjustments_forALongHistory() {
+        LoyaltyInformation loyalty = LoyaltyInformation.empty;
+        int expected = 0;
+
+        for (int i = 1; i <= 10000; i++) {
+            LoyaltyAdjustment adjustment = i % 3 == 0 ? new Deduct(i) : new Award(i);
+            loyalty = loyalty.applyAdjustment(adjustment);
+            expected += adjustment.getBalanceAdjustment();
+        }
+
+        assertEquals(10000, loyalty.getAdjustments().size());
+        assertEquals(expected, loyalty.getCurrentTotal());
+
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i + 1, loyalty.getAdjustments().get(i).getPoints());
+        }
+    }
+
+    @Test
+    void getAdjustments_shouldNotBeModifiable() {
+        LoyaltyInformation loyalty = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10));
+
+        assertThrows(UnsupportedOperationException.class, () ->
+                loyalty.getAdjustments().add(new Award(20)));
+    }
+
+    @Test
+    void getAdjustments_shouldReturnAwardsAndDeductsAsTheyWereApplied() {
+        LoyaltyInformation loyalty = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10))
+                .applyAdjustment(new Deduct(4));
+
+        LoyaltyAdjustment award = loyalty.getAdjustments().get(0);
+        LoyaltyAdjustment deduct = loyalty.getAdjustments().get(1);
+
+        assertTrue(award instanceof Award);
+        assertEquals(10, award.getPoints());
+        assertTrue(deduct instanceof Deduct);
+        assertEquals(4, deduct.getPoints());
+        assertEquals(-4, deduct.getBalanceAdjustment());
+    }
+
+    @Test
+    void retainLast_shouldKeepTheBalanceAndTheLatestAdjustments() {
+        LoyaltyInformation loyalty = LoyaltyInformation.empty;
+
+        for (int i = 1; i <= 100; i++) {
+            loyalty = loyalty.applyAdjustment(new Award(i)).retainLast(10);
+        }
+
+        assertEquals(5050, loyalty.getCurrentTotal());
+        assertEquals(10, loyalty.getAdjustments().size());
+        assertEquals(90, loyalty.getEarlierAdjustmentCount());
+        assertEquals(100, loyalty.getAdjustmentCount());
+        assertFalse(loyalty.hasFullHistory());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(91 + i, loyalty.getAdjustments().get(i).getPoints());
+        }
+    }
+
+    @Test
+    void retainLast_shouldNotChangeThePreviousInfo() {
+        LoyaltyInformation original = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10))
+                .applyAdjustment(new Award(20))
+                .applyAdjustment(new Award(30));
+
+        LoyaltyInformation latest = original.retainLast(1).applyAdjustment(new Deduct(5));
+
+        assertEquals(3, original.getAdjustments().size());
+        assertEquals(30, original.getAdjustments().get(2).getPoints());
+        assertEquals(2, latest.getAdjustments().size());
+        assertEquals(55, latest.getCurrentTotal());
+        assertEquals(30, latest.getAdjustments().get(0).getPoints());
+    }
+
+    @Test
+    void applyAdjustmentsFrom_shouldReplaceTheAdjustmentsFromThePosition() {
+        LoyaltyInformation stored = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10))
+                .applyAdjustment(new Award(20));
+
+        LoyaltyInformation result = stored.applyAdjustmentsFrom(1, Arrays.asList(new Award(20), new Deduct(5)));
+
+        assertEquals(3, result.getAdjustments().size());
+        assertEquals(25, result.getCurrentTotal());
+        assertThrows(IllegalStateException.class, () ->
+                stored.applyAdjustmentsFrom(3, Arrays.asList(new Award(1))));
+    }
+
 }
@@ -1,19 +1,33 @@
 package com.reactivebbq.loyalty;
 
+import akka.Done;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 abstract class LoyaltyRepositoryTest {
     abstract LoyaltyRepository getLoyaltyRepository();
@@ -29,6 +43,30 @@ abstract class LoyaltyRepositoryTest {
         );
     }
 
+    @Test
+    void findLoyaltyIfPresent_shouldReturnEmptyIfTheIdDoesntExist() {
+        Optional<LoyaltyInformation> result = getLoyaltyRepository()
+            .findLoyaltyIfPresent(createLoyaltyId())
+            .join();
+
+        assertFalse(result.isPresent());
+    }
+
+    @Test
+    void findLoyaltyIfPresent_shouldReturnTheLoyaltyIfItExists() {
+        LoyaltyInformation info = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10))
+                .applyAdjustment(new Deduct(5));
+        LoyaltyId id = createLoyaltyId();
+
+        getLoyaltyRepository().updateLoyalty(id, info).join();
+
+        Optional<LoyaltyInformation> result = getLoyaltyRepository().findLoyaltyIfPresent(id).join();
+
+        assertTrue(result.isPresent());
+        assertEquals(info.getCurrentTotal(), result.get().getCurrentTotal());
+    }
+
     @Test
     void findLoyalty_shouldReturnTheLoyaltyIfItExists() {
         LoyaltyInformation info = LoyaltyInformation.empty
@@ -82,6 +120,113 @@ abstract class LoyaltyRepositoryTest {
         assertEquals(info2.getCurrentTotal(), result.getCurrentTotal());
     }
 
+    @Test
+    void appendAdjustment_shouldStoreTheAdjustedLoyalty() {
+        LoyaltyId id = createLoyaltyId();
+        LoyaltyInformation info = LoyaltyInformation.empty;
+
+        for (int i = 1; i <= 10; i++) {
+            LoyaltyAdjustment adjustment = i % 2 == 0 ? new Deduct(i) : new Award(i * 2);
+            info = info.applyAdjustment(adjustment);
+            getLoyaltyRepository().appendAdjustment(id, info, adjustment).join();
+        }
+
+        LoyaltyInformation result = getLoyaltyRepository().findLoyalty(id).join();
+
+        assertEquals(info.getCurrentTotal(), result.getCurrentTotal());
+        assertEquals(10, result.getAdjustments().size());
+        assertEquals(-10, result.getAdjustments().get(9).getBalanceAdjustment());
+    }
+
+    @Test
+    void appendAdjustment_shouldAddToAnExistingValue() {
+        LoyaltyId id = createLoyaltyId();
+        LoyaltyInformation info = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10));
+        LoyaltyAdjustment deduct = new Deduct(4);
+        LoyaltyInformation updated = info.applyAdjustment(deduct);
+
+        getLoyaltyRepository().updateLoyalty(id, info).join();
+        getLoyaltyRepository().appendAdjustment(id, updated, deduct).join();
+
+        LoyaltyInformation result = getLoyaltyRepository().findLoyalty(id).join();
+
+        assertEquals(6, result.getCurrentTotal());
+        assertEquals(2, result.getAdjustments().size());
+    }
+
+    @Test
+    void appendAdjustments_shouldStoreEveryAdjustmentInOrder() {
+        LoyaltyId id = createLoyaltyId();
+        LoyaltyInformation info = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10));
+
+        getLoyaltyRepository().updateLoyalty(id, info).join();
+
+        for (int i = 0; i < 2; i++) {
+            LoyaltyAdjustment award = new Award(5);
+            LoyaltyAdjustment deduct = new Deduct(3);
+            info = info.applyAdjustment(award).applyAdjustment(deduct);
+            getLoyaltyRepository().appendAdjustments(id, info, Arrays.asList(award, deduct)).join();
+        }
+
+        LoyaltyInformation result = getLoyaltyRepository().findLoyalty(id).join();
+
+        assertEquals(14, result.getCurrentTotal());
+        assertEquals(5, result.getAdjustments().size());
+        assertEquals(5, result.getAdjustments().get(3).getBalanceAdjustment());
+        assertEquals(-3, result.getAdjustments().get(4).getBalanceAdjustment());
+    }
+
+    @Test
+    void appendAdjustments_shouldKeepTheEarlierHistoryIfOnlyTheLatestIsHeld() {
+        LoyaltyId id = createLoyaltyId();
+        LoyaltyInformation info = LoyaltyInformation.empty;
+
+        for (int i = 1; i <= 5; i++) {
+            info = info.applyAdjustment(new Award(i));
+        }
+
+        getLoyaltyRepository().updateLoyalty(id, info).join();
+
+        LoyaltyInformation latest = info.retainLast(2);
+
+        for (int i = 6; i <= 9; i++) {
+            LoyaltyAdjustment award = new Award(i);
+            latest = latest.applyAdjustment(award).retainLast(2);
+            getLoyaltyRepository().appendAdjustments(id, latest, Collections.singletonList(award)).join();
+        }
+
+        LoyaltyInformation result = getLoyaltyRepository().findLoyalty(id).join();
+
+        assertEquals(45, result.getCurrentTotal());
+        assertEquals(9, result.getAdjustments().size());
+
+        for (int i = 0; i < 9; i++) {
+            assertEquals(i + 1, result.getAdjustments().get(i).getPoints());
+        }
+    }
+
+    @Test
+    void findAdjustments_shouldReturnAPageOfTheHistory() {
+        LoyaltyId id = createLoyaltyId();
+        LoyaltyInformation info = LoyaltyInformation.empty;
+
+        for (int i = 1; i <= 5; i++) {
+            info = info.applyAdjustment(new Award(i));
+        }
+
+        getLoyaltyRepository().updateLoyalty(id, info).join();
+
+        List<LoyaltyAdjustment> page = getLoyaltyRepository().findAdjustments(id, 1, 2).join();
+
+        assertEquals(2, page.size());
+        assertEquals(2, page.get(0).getPoints());
+        assertEquals(3, page.get(1).getPoints());
+        assertEquals(1, getLoyaltyRepository().findAdjustments(id, 4, 10).join().size());
+        assertEquals(0, getLoyaltyRepository().findAdjustments(id, 10, 10).join().size());
+        assertEquals(0, getLoyaltyRepository().findAdjustments(createLoyaltyId(), 0, 10).join().size());
+    }
 }
 
 class InMemoryLoyaltyRepositoryTest extends LoyaltyRepositoryTest {
@@ -95,6 +240,74 @@ class InMemoryLoyaltyRepositoryTest extends LoyaltyRepositoryTest {
     InMemoryLoyaltyRepositoryTest() {
         super();
     }
+
+    @Test
+    void updateLoyalty_shouldEvictTheOldestAccountsOverCapacity() {
+        InMemoryLoyaltyRepository bounded = new InMemoryLoyaltyRepository(Executors.newSingleThreadExecutor(), 3);
+        LoyaltyInformation info = LoyaltyInformation.empty.applyAdjustment(new Award(10));
+        List<LoyaltyId> ids = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            LoyaltyId id = new LoyaltyId("account-" + i);
+            ids.add(id);
+            bounded.updateLoyalty(id, info).join();
+        }
+
+        // Updating an account that is already held doesn't make room.
+        bounded.updateLoyalty(ids.get(2), info.applyAdjustment(new Award(5))).join();
+
+        assertEquals(3, bounded.size());
+        assertFalse(bounded.findLoyaltyIfPresent(ids.get(0)).join().isPresent());
+        assertFalse(bounded.findLoyaltyIfPresent(ids.get(1)).join().isPresent());
+        assertEquals(15, bounded.findLoyalty(ids.get(2)).join().getCurrentTotal());
+        assertTrue(bounded.findLoyaltyIfPresent(ids.get(3)).join().isPresent());
+        assertTrue(bounded.findLoyaltyIfPresent(ids.get(4)).join().isPresent());
+    }
+
+    @Test
+    void updateLoyalty_shouldKeepEveryAccountWrittenConcurrently() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        InMemoryLoyaltyRepository repository = new InMemoryLoyaltyRepository(executor);
+        List<CompletableFuture<Done>> updates = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 10000; i++) {
+                LoyaltyInformation info = LoyaltyInformation.empty.applyAdjustment(new Award(i % 100 + 1));
+                updates.add(repository.updateLoyalty(new LoyaltyId("account-" + i), info));
+            }
+
+            updates.forEach(CompletableFuture::join);
+
+            assertEquals(10000, repository.size());
+
+            for (int i = 0; i < 10000; i++) {
+                LoyaltyInformation result = repository.findLoyalty(new LoyaltyId("account-" + i)).join();
+                assertEquals(i % 100 + 1, result.getCurrentTotal());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void updateLoyalty_shouldStayWithinCapacityUnderConcurrentWrites() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        InMemoryLoyaltyRepository repository = new InMemoryLoyaltyRepository(executor, 100);
+        LoyaltyInformation info = LoyaltyInformation.empty.applyAdjustment(new Award(10));
+        List<CompletableFuture<Done>> updates = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 10000; i++) {
+                updates.add(repository.updateLoyalty(new LoyaltyId("account-" + i), info));
+            }
+
+            updates.forEach(CompletableFuture::join);
+
+            assertTrue(repository.size() <= 100);
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
 
 class FileBasedLoyaltyRepositoryTest extends LoyaltyRepositoryTest {
@@ -124,8 +337,374 @@ class FileBasedLoyaltyRepositoryTest extends LoyaltyRepositoryTest {
     }
 }
 
+class LogBasedLoyaltyRepositoryTest extends LoyaltyRepositoryTest {
+    private static Path tmpDir;
+    private static LoyaltyRepository loyaltyRepository;
+
+    @Override
+    LoyaltyRepository getLoyaltyRepository() {
+        return loyaltyRepository;
+    }
+
+    @BeforeAll
+    static void setup() throws IOException {
+        tmpDir = Files.createTempDirectory("logbasedrepotest");
+        loyaltyRepository = new LogBasedLoyaltyRepository(tmpDir, Executors.newSingleThreadExecutor(), 3);
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        Files.walk(tmpDir).forEach(file -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {}
+        });
 
+        Files.deleteIfExists(tmpDir);
+    }
+
+    private LoyaltyInformation appendAll(LoyaltyId id, int... balanceAdjustments) {
+        LoyaltyInformation info = LoyaltyInformation.empty;
+
+        for (int balanceAdjustment : balanceAdjustments) {
+            LoyaltyAdjustment adjustment = LoyaltyAdjustment.fromBalanceAdjustment(balanceAdjustment);
+            info = info.applyAdjustment(adjustment);
+            loyaltyRepository.appendAdjustment(id, info, adjustment).join();
+        }
+
+        return info;
+    }
+
+    @Test
+    void appendAdjustment_shouldCompactTheLogIntoASnapshot() {
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        Path log = tmpDir.resolve(id.getValue() + ".log");
+        LoyaltyInformation info = appendAll(id, 10, 20, -5);
 
+        assertTrue(Files.exists(log));
 
+        LoyaltyAdjustment award = new Award(1);
+        loyaltyRepository.appendAdjustment(id, info.applyAdjustment(award), award).join();
+
+        assertFalse(Files.exists(log));
+        assertTrue(Files.exists(tmpDir.resolve(id.getValue() + ".snapshot")));
+
+        LoyaltyInformation result = loyaltyRepository.findLoyalty(id).join();
+
+        assertEquals(26, result.getCurrentTotal());
+        assertEquals(4, result.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldSkipATornRecordAtTheEndOfTheLog() throws IOException {
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        LoyaltyInformation info = appendAll(id, 10, 20);
+        Path log = tmpDir.resolve(id.getValue() + ".log");
+
+        Files.write(log, new byte[] {0, 0, 0, 2, 0}, StandardOpenOption.APPEND);
+
+        assertEquals(info.getCurrentTotal(), loyaltyRepository.findLoyalty(id).join().getCurrentTotal());
+
+        LoyaltyAdjustment deduct = new Deduct(5);
+        loyaltyRepository.appendAdjustment(id, info.applyAdjustment(deduct), deduct).join();
+
+        LoyaltyInformation result = loyaltyRepository.findLoyalty(id).join();
+
+        assertEquals(25, result.getCurrentTotal());
+        assertEquals(3, result.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldEndTheLogAtARecordThatFailsItsChecksum() throws IOException {
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        appendAll(id, 10, 20, -5);
+        Path log = tmpDir.resolve(id.getValue() + ".log");
 
+        byte[] records = Files.readAllBytes(log);
+        records[7] ^= 1;
+        Files.write(log, records);
 
+        LoyaltyInformation result = loyaltyRepository.findLoyalty(id).join();
+
+        assertEquals(10, result.getCurrentTotal());
+        assertEquals(1, result.getAdjustments().size());
+
+        LoyaltyAdjustment deduct = new Deduct(5);
+        loyaltyRepository.appendAdjustment(id, result.applyAdjustment(deduct), deduct).join();
+
+        LoyaltyInformation updated = loyaltyRepository.findLoyalty(id).join();
+
+        assertEquals(5, updated.getCurrentTotal());
+        assertEquals(2, updated.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldReadEachPositionOnce_ifAnAdjustmentIsAppendedTwice() {
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        LoyaltyInformation info = appendAll(id, 10);
+        LoyaltyAdjustment award = new Award(20);
+        LoyaltyInformation updated = info.applyAdjustment(award);
+
+        loyaltyRepository.appendAdjustment(id, updated, award).join();
+        loyaltyRepository.appendAdjustment(id, updated, award).join();
+
+        LoyaltyInformation result = loyaltyRepository.findLoyalty(id).join();
+
+        assertEquals(30, result.getCurrentTotal());
+        assertEquals(2, result.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldReadAccountsStoredByTheFileBasedRepository() throws IOException {
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        LoyaltyInformation info = LoyaltyInformation.empty
+                .applyAdjustment(new Award(10))
+                .applyAdjustment(new Deduct(3));
+
+        new FileBasedLoyaltyRepository(tmpDir, Executors.newSingleThreadExecutor())
+            .updateLoyalty(id, info)
+            .join();
+
+        assertEquals(7, loyaltyRepository.findLoyalty(id).join().getCurrentTotal());
+
+        LoyaltyAdjustment award = new Award(5);
+        loyaltyRepository.appendAdjustment(id, info.applyAdjustment(award), award).join();
+
+        LoyaltyInformation result = loyaltyRepository.findLoyalty(id).join();
+
+        assertEquals(12, result.getCurrentTotal());
+        assertEquals(3, result.getAdjustments().size());
+    }
+}
+
+class SegmentedLoyaltyRepositoryTest extends LoyaltyRepositoryTest {
+    private static Path tmpDir;
+    private static LoyaltyRepository loyaltyRepository;
+
+    @Override
+    LoyaltyRepository getLoyaltyRepository() {
+        return loyaltyRepository;
+    }
+
+    @BeforeAll
+    static void setup() throws IOException {
+        tmpDir = Files.createTempDirectory("segmentedrepotest");
+        loyaltyRepository = createRepository(tmpDir);
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        Files.walk(tmpDir).sorted(Comparator.reverseOrder()).forEach(file -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {}
+        });
+    }
+
+    private static SegmentedLoyaltyRepository createRepository(Path directory) throws IOException {
+        return createRepository(directory, 3);
+    }
+
+    private static SegmentedLoyaltyRepository createRepository(Path directory, int compactAfter) throws IOException {
+        return new SegmentedLoyaltyRepository(directory, Executors.newFixedThreadPool(4), 1024, compactAfter, 0.5);
+    }
+
+    private static LoyaltyInformation appendAll(LoyaltyRepository repository, LoyaltyId id, int... balanceAdjustments) {
+        LoyaltyInformation info = LoyaltyInformation.empty;
+
+        for (int balanceAdjustment : balanceAdjustments) {
+            LoyaltyAdjustment adjustment = LoyaltyAdjustment.fromBalanceAdjustment(balanceAdjustment);
+            info = info.applyAdjustment(adjustment);
+            repository.appendAdjustment(id, info, adjustment).join();
+        }
+
+        return info;
+    }
+
+    @Test
+    void findLoyalty_shouldRecoverAccountsWhenTheRepositoryIsReopened() throws IOException {
+        Path directory = Files.createTempDirectory(tmpDir, "reopen");
+        LoyaltyId id1 = new LoyaltyId(UUID.randomUUID().toString());
+        LoyaltyId id2 = new LoyaltyId(UUID.randomUUID().toString());
+
+        SegmentedLoyaltyRepository repository = createRepository(directory);
+        appendAll(repository, id1, 10, 20, -5, 7, 1);
+        appendAll(repository, id2, 3);
+
+        SegmentedLoyaltyRepository reopened = createRepository(directory);
+
+        LoyaltyInformation result = reopened.findLoyalty(id1).join();
+
+        assertEquals(33, result.getCurrentTotal());
+        assertEquals(5, result.getAdjustments().size());
+        assertEquals(3, reopened.findLoyalty(id2).join().getCurrentTotal());
+    }
+
+    @Test
+    void findLoyalty_shouldIgnoreAPartlyWrittenRecordWhenTheRepositoryIsReopened() throws IOException {
+        Path directory = Files.createTempDirectory(tmpDir, "torn");
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+
+        SegmentedLoyaltyRepository repository = createRepository(directory);
+        LoyaltyInformation info = appendAll(repository, id, 10, 20);
+
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory)) {
+            for (Path segment : segments) {
+                byte[] bytes = Files.readAllBytes(segment);
+                int end = bytes.length;
+
+                while (end > 0 && bytes[end - 1] == 0) {
+                    end--;
+                }
+
+                System.arraycopy(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5}, 0, bytes, end, 9);
+                Files.write(segment, bytes);
+            }
+        }
+
+        SegmentedLoyaltyRepository reopened = createRepository(directory);
+        assertEquals(30, reopened.findLoyalty(id).join().getCurrentTotal());
+
+        LoyaltyAdjustment deduct = new Deduct(5);
+        reopened.appendAdjustment(id, info.applyAdjustment(deduct), deduct).join();
+
+        LoyaltyInformation result = createRepository(directory).findLoyalty(id).join();
+
+        assertEquals(25, result.getCurrentTotal());
+        assertEquals(3, result.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldEndTheChainAtARecordThatFailsItsChecksumWhenTheRepositoryIsReopened() throws IOException {
+        Path directory = Files.createTempDirectory(tmpDir, "checksum");
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+
+        appendAll(createRepository(directory, 10), id, 10, 20, -5);
+
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory)) {
+            for (Path segment : segments) {
+                byte[] bytes = Files.readAllBytes(segment);
+                int second = 8 + ByteBuffer.wrap(bytes).getInt(0);
+
+                bytes[second + 8] ^= 1;
+                Files.write(segment, bytes);
+            }
+        }
+
+        SegmentedLoyaltyRepository reopened = createRepository(directory, 10);
+        LoyaltyInformation result = reopened.findLoyalty(id).join();
+
+        assertEquals(10, result.getCurrentTotal());
+        assertEquals(1, result.getAdjustments().size());
+
+        LoyaltyAdjustment deduct = new Deduct(5);
+        reopened.appendAdjustment(id, result.applyAdjustment(deduct), deduct).join();
+
+        LoyaltyInformation updated = createRepository(directory, 10).findLoyalty(id).join();
+
+        assertEquals(5, updated.getCurrentTotal());
+        assertEquals(2, updated.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldReadEachPositionOnce_ifAnAdjustmentIsAppendedTwice() throws IOException {
+        SegmentedLoyaltyRepository repository = createRepository(Files.createTempDirectory(tmpDir, "twice"), 10);
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        LoyaltyInformation info = appendAll(repository, id, 10);
+        LoyaltyAdjustment award = new Award(20);
+        LoyaltyInformation updated = info.applyAdjustment(award);
+
+        repository.appendAdjustment(id, updated, award).join();
+        repository.appendAdjustment(id, updated, award).join();
+
+        LoyaltyInformation result = repository.findLoyalty(id).join();
+
+        assertEquals(30, result.getCurrentTotal());
+        assertEquals(2, result.getAdjustments().size());
+    }
+
+    @Test
+    void findLoyalty_shouldDropTheLaterPositions_ifAnEarlierOneIsWrittenAgain() throws IOException {
+        Path directory = Files.createTempDirectory(tmpDir, "rewrite");
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+
+        SegmentedLoyaltyRepository repository = createRepository(directory, 10);
+        appendAll(repository, id, 1, 2, 3, 4);
+
+        LoyaltyAdjustment deduct = new Deduct(1);
+        LoyaltyInformation stale = LoyaltyInformation.empty
+            .applyAdjustment(new Award(1))
+            .applyAdjustment(new Award(2))
+            .applyAdjustment(deduct);
+
+        repository.appendAdjustment(id, stale, deduct).join();
+
+        LoyaltyInformation result = repository.findLoyalty(id).join();
+
+        assertEquals(2, result.getCurrentTotal());
+        assertEquals(3, result.getAdjustments().size());
+        assertEquals(2, createRepository(directory, 10).findLoyalty(id).join().getCurrentTotal());
+
+        LoyaltyAdjustment award = new Award(5);
+        repository.appendAdjustment(id, result.applyAdjustment(award), award).join();
+
+        LoyaltyInformation updated = createRepository(directory, 10).findLoyalty(id).join();
+
+        assertEquals(7, updated.getCurrentTotal());
+        assertEquals(4, updated.getAdjustments().size());
+    }
+
+    @Test
+    void appendAdjustment_shouldSupportConcurrentAppendsToManyAccounts() throws IOException {
+        Path directory = Files.createTempDirectory(tmpDir, "concurrent");
+        SegmentedLoyaltyRepository repository = createRepository(directory);
+        List<LoyaltyId> ids = new ArrayList<>();
+        List<CompletableFuture<LoyaltyInformation>> appends = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+            ids.add(id);
+            appends.add(CompletableFuture.supplyAsync(() -> appendAll(repository, id, 1, 2, 3, 4, 5, 6, 7)));
+        }
+
+        appends.forEach(CompletableFuture::join);
+
+        SegmentedLoyaltyRepository reopened = createRepository(directory);
+
+        for (LoyaltyId id : ids) {
+            assertEquals(28, reopened.findLoyalty(id).join().getCurrentTotal());
+            assertEquals(7, reopened.findLoyalty(id).join().getAdjustments().size());
+        }
+
+        assertTrue(reopened.segmentCount() > 1);
+    }
+
+    @Test
+    void compact_shouldRemoveSegmentsThatAreNoLongerRead() throws IOException {
+        Path directory = Files.createTempDirectory(tmpDir, "compact");
+        SegmentedLoyaltyRepository repository = createRepository(directory);
+        LoyaltyId id = new LoyaltyId(UUID.randomUUID().toString());
+        LoyaltyId untouched = new LoyaltyId(UUID.randomUUID().toString());
+
+        appendAll(repository, untouched, 50);
+
+        LoyaltyInformation info = LoyaltyInformation.empty;
+        for (int i = 0; i < 100; i++) {
+            info = info.applyAdjustment(new Award(1));
+            repository.updateLoyalty(id, info).join();
+        }
+
+        int before = repository.segmentCount();
+        int compacted = repository.compact().join();
+
+        assertTrue(compacted > 0);
+        assertEquals(before - compacted, repository.segmentCount());
+        assertEquals(100, repository.findLoyalty(id).join().getCurrentTotal());
+        assertEquals(50, repository.findLoyalty(untouched).join().getCurrentTotal());
+
+        SegmentedLoyaltyRepository reopened = createRepository(directory);
+
+        assertEquals(100, reopened.findLoyalty(id).join().getCurrentTotal());
+        assertEquals(50, reopened.findLoyalty(untouched).join().getCurrentTotal());
+    }
+}
@@ -12,6 +12,9 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 class LoyaltyRoutesTest extends JUnitRouteTest {
 
     private TestProbe loyaltyActorSupervisor;
@@ -56,6 +59,61 @@ class LoyaltyRoutesTest extends JUnitRouteTest {
             .assertEntity(expectedResponse);
     }
 
+    @Test
+    void loyalty_id_shouldCountTheAdjustmentsThatAreNotHeld() {
+        LoyaltyId loyaltyId = new LoyaltyId("someId");
+        LoyaltyInformation info = LoyaltyInformation.empty
+            .applyAdjustment(new Award(10))
+            .applyAdjustment(new Deduct(5))
+            .applyAdjustment(new Award(20))
+            .retainLast(1);
+
+        String expectedResponse = "Current Balance: 25\nHistory:\n- ... 2 earlier adjustments, see ?page=\n- Award 20\n";
+
+        setAutoPilot(new LoyaltyActorSupervisor.Deliver(new LoyaltyActor.GetLoyaltyInformation(), loyaltyId), info);
+
+        route.run(HttpRequest.GET("/loyalty/"+loyaltyId.getValue()))
+            .assertStatusCode(StatusCodes.OK)
+            .assertContentType(ContentTypes.TEXT_PLAIN_UTF8)
+            .assertEntity(expectedResponse);
+    }
+
+    @Test
+    void loyalty_id_page_shouldReturnThatPageOfTheHistory() {
+        LoyaltyId loyaltyId = new LoyaltyId("someId");
+        LoyaltyActor.LoyaltyHistory history = new LoyaltyActor.LoyaltyHistory(
+            25,
+            100,
+            Arrays.asList(new Deduct(5), new Award(20)),
+            102
+        );
+
+        String expectedResponse = "Current Balance: 25\nHistory (page 2 of 2):\n- Deduct 5\n- Award 20\n";
+
+        setAutoPilot(new LoyaltyActorSupervisor.Deliver(new LoyaltyActor.GetLoyaltyHistory(100, 100), loyaltyId), history);
+
+        route.run(HttpRequest.GET("/loyalty/"+loyaltyId.getValue()+"?page=2"))
+            .assertStatusCode(StatusCodes.OK)
+            .assertContentType(ContentTypes.TEXT_PLAIN_UTF8)
+            .assertEntity(expectedResponse);
+    }
+
+    @Test
+    void loyalty_id_page_shouldReturnNotFoundPastTheLastPage() {
+        LoyaltyId loyaltyId = new LoyaltyId("someId");
+        LoyaltyActor.LoyaltyHistory history = new LoyaltyActor.LoyaltyHistory(
+            10,
+            200,
+            Collections.emptyList(),
+            1
+        );
+
+        setAutoPilot(new LoyaltyActorSupervisor.Deliver(new LoyaltyActor.GetLoyaltyHistory(200, 100), loyaltyId), history);
+
+        route.run(HttpRequest.GET("/loyalty/"+loyaltyId.getValue()+"?page=3"))
+            .assertStatusCode(StatusCodes.NOT_FOUND);
+    }
+
     @Test
     void loyalty_id_award_points_shouldIndicateTheAdjustmentWasAppliedIfItSucceeds() {
         LoyaltyId loyaltyId = new LoyaltyId("someId");
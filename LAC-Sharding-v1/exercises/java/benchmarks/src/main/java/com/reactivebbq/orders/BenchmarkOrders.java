@@ -0,0 +1,19 @@
+package com.reactivebbq.orders;
+
+import java.util.Vector;
+
+/**
+ * The order used throughout the benchmarks: four items, the size of a typical table's order.
+ */
+class BenchmarkOrders {
+
+    static Order typicalOrder() {
+        Vector<OrderItem> items = new Vector<>();
+        items.add(new OrderItem("Steak", "Medium Rare"));
+        items.add(new OrderItem("Salad", "No Croutons"));
+        items.add(new OrderItem("Milk", "None"));
+        items.add(new OrderItem("Cheesecake", "Extra Strawberries"));
+
+        return new Order(new OrderId(), new Server("Server"), new Table(5), items);
+    }
+}
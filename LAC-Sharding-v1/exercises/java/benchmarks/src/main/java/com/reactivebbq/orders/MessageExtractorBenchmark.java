@@ -0,0 +1,43 @@
+package com.reactivebbq.orders;
+
+import akka.cluster.sharding.ShardRegion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageExtractorBenchmark {
+
+    private ShardRegion.MessageExtractor extractor;
+    private OrderActor.Envelope envelope;
+    private ShardRegion.StartEntity startEntity;
+
+    @Setup
+    public void setup() {
+        extractor = OrderActor.messageExtractor(30);
+
+        OrderId orderId = new OrderId();
+        envelope = new OrderActor.Envelope(orderId, new OrderActor.GetOrder());
+        startEntity = new ShardRegion.StartEntity(orderId.asString());
+    }
+
+    @Benchmark
+    public String entityId() {
+        return extractor.entityId(envelope);
+    }
+
+    @Benchmark
+    public String shardId() {
+        return extractor.shardId(envelope);
+    }
+
+    @Benchmark
+    public String shardIdOfStartEntity() {
+        return extractor.shardId(startEntity);
+    }
+}
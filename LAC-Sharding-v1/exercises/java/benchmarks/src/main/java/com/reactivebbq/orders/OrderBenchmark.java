@@ -0,0 +1,67 @@
+package com.reactivebbq.orders;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBenchmark {
+
+    private Order order;
+    private OrderItem item;
+    private OrderId orderId;
+    private String orderIdString;
+    private OrderIdGenerator.TimeOrdered timeOrderedIds;
+
+    @Setup
+    public void setup() {
+        order = BenchmarkOrders.typicalOrder();
+        item = new OrderItem("Fries", "Extra Salt");
+        orderId = new OrderId();
+        orderIdString = UUID.randomUUID().toString();
+        timeOrderedIds = new OrderIdGenerator.TimeOrdered();
+    }
+
+    @Benchmark
+    public Order withItem() {
+        return order.withItem(item);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OrderId newRandomOrderId() {
+        return new OrderId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OrderId newTimeOrderedOrderId() {
+        return timeOrderedIds.get();
+    }
+
+    @Benchmark
+    public OrderId orderIdFromString() {
+        return OrderId.fromString(orderIdString);
+    }
+
+    @Benchmark
+    public int orderIdHashCode() {
+        return orderId.hashCode();
+    }
+
+    @Benchmark
+    public String orderIdAsString() {
+        return new OrderId(orderId.getValue()).asString();
+    }
+
+    @Benchmark
+    public String orderIdFromStringAsString() {
+        return OrderId.fromString(orderIdString).asString();
+    }
+}
@@ -0,0 +1,36 @@
+package com.reactivebbq.orders;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The mapping between orders and their database objects, without the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryMappingBenchmark {
+
+    private Order order;
+    private OrderDBO dbo;
+
+    @Setup
+    public void setup() {
+        order = BenchmarkOrders.typicalOrder();
+        dbo = new OrderDBO().apply(order);
+    }
+
+    @Benchmark
+    public OrderDBO orderToDbo() {
+        return new OrderDBO().apply(order);
+    }
+
+    @Benchmark
+    public Order dboToOrder() {
+        return SQLOrderRepository.dboToOrder(dbo);
+    }
+}
@@ -0,0 +1,86 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trips messages through the jackson-cbor serializer that application.conf binds to SerializableMessage,
+ * which is what every message crossing nodes pays for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private ActorSystem system;
+    private Serialization serialization;
+
+    private Order order;
+    private OrderActor.OpenOrder openOrder;
+    private OrderActor.AddItemToOrder addItem;
+
+    private byte[] serializedOrder;
+
+    @Setup
+    public void setup() {
+        Config config = ConfigFactory.parseString("akka.actor.provider = local")
+            .withFallback(ConfigFactory.load());
+
+        system = ActorSystem.create("SerializationBenchmark", config);
+        serialization = SerializationExtension.get(system);
+
+        order = BenchmarkOrders.typicalOrder();
+        openOrder = new OrderActor.OpenOrder(order.getServer(), order.getTable(), "open-key");
+        addItem = new OrderActor.AddItemToOrder(new OrderItem("Fries", "Extra Salt"), "add-key");
+
+        serializedOrder = serialization.findSerializerFor(order).toBinary(order);
+    }
+
+    @TearDown
+    public void tearDown() {
+        system.terminate();
+    }
+
+    @Benchmark
+    public byte[] serializeOrder() {
+        return serialization.findSerializerFor(order).toBinary(order);
+    }
+
+    @Benchmark
+    public Object deserializeOrder() {
+        Serializer serializer = serialization.findSerializerFor(order);
+        return serialization.deserialize(serializedOrder, serializer.identifier(), Serializers.manifestFor(serializer, order)).get();
+    }
+
+    @Benchmark
+    public Object roundTripOrder() {
+        return roundTrip(order);
+    }
+
+    @Benchmark
+    public Object roundTripOpenOrder() {
+        return roundTrip(openOrder);
+    }
+
+    @Benchmark
+    public Object roundTripAddItem() {
+        return roundTrip(addItem);
+    }
+
+    private Object roundTrip(Object message) {
+        Serializer serializer = serialization.findSerializerFor(message);
+        byte[] bytes = serializer.toBinary(message);
+        return serialization.deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, message)).get();
+    }
+}
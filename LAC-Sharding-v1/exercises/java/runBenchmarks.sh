@@ -0,0 +1,6 @@
+#!/usr/bin/env bash
+
+set -x
+
+mvn install -DskipTests && \
+  (cd benchmarks && mvn package && mkdir -p results && java -jar target/benchmarks.jar -rf json -rff results/latest.json "${@}")
@@ -0,0 +1,5 @@
+#!/usr/bin/env bash
+
+set -x
+
+mvn compile exec:exec -Dexec.args="-classpath %classpath com.reactivebbq.orders.ClusterBenchmark"
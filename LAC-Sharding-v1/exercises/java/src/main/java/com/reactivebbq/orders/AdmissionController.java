@@ -0,0 +1,107 @@
+package com.reactivebbq.orders;
+
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of requests in flight using an AIMD (additive increase, multiplicative decrease) concurrency
+ * limit. The limit grows by one for every request completing under the latency threshold while the limit is being
+ * used, and shrinks by the backoff ratio for every request that is too slow or times out.
+ */
+class AdmissionController {
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final Duration retryAfter;
+
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    AdmissionController(boolean enabled,
+                        int initialLimit,
+                        int minLimit,
+                        int maxLimit,
+                        Duration latencyThreshold,
+                        double backoffRatio,
+                        Duration retryAfter) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit)
+            throw new IllegalArgumentException("Admission limits must satisfy 1 <= min <= initial <= max");
+
+        if (backoffRatio <= 0 || backoffRatio >= 1)
+            throw new IllegalArgumentException("The backoff ratio must be between 0 and 1");
+
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.retryAfter = retryAfter;
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    static AdmissionController fromConfig(Config config) {
+        return new AdmissionController(
+            config.getBoolean("enabled"),
+            config.getInt("initial-limit"),
+            config.getInt("min-limit"),
+            config.getInt("max-limit"),
+            config.getDuration("latency-threshold"),
+            config.getDouble("backoff-ratio"),
+            config.getDuration("retry-after")
+        );
+    }
+
+    static AdmissionController unlimited() {
+        return new AdmissionController(false, 1, 1, 1, Duration.ofSeconds(5), 0.9, Duration.ofSeconds(1));
+    }
+
+    boolean tryAcquire() {
+        if (!enabled) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+
+        while (true) {
+            int current = inFlight.get();
+
+            if (current >= limit.get())
+                return false;
+
+            if (inFlight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Must be called exactly once for every successful {@link #tryAcquire()}.
+     */
+    void release(long latencyNanos, boolean timedOut) {
+        int current = inFlight.getAndDecrement();
+
+        if (!enabled)
+            return;
+
+        if (timedOut || latencyNanos > latencyThresholdNanos) {
+            limit.updateAndGet(l -> Math.max(minLimit, (int) (l * backoffRatio)));
+        } else if (current * 2 >= limit.get()) {
+            limit.updateAndGet(l -> Math.min(maxLimit, l + 1));
+        }
+    }
+
+    int getLimit() {
+        return enabled ? limit.get() : Integer.MAX_VALUE;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
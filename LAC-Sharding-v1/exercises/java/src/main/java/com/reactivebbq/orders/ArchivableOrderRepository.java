@@ -0,0 +1,20 @@
+package com.reactivebbq.orders;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A repository that the {@link OrderArchiver} can move closed orders out of.
+ */
+public interface ArchivableOrderRepository extends OrderRepository {
+
+    /**
+     * The orders closed before the given time, oldest first.
+     */
+    CompletableFuture<List<Order>> findClosedBefore(long closedBeforeMillis, int limit);
+
+    /**
+     * Completes with the number of orders that were deleted.
+     */
+    CompletableFuture<Integer> delete(List<OrderId> orderIds);
+}
@@ -0,0 +1,37 @@
+package com.reactivebbq.orders;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Looks for orders in the archive when the wrapped repository doesn't have them, so an order reads the same before
+ * and after it has been archived. Archived orders are closed and never change, so updates only go to the wrapped
+ * repository.
+ */
+class ArchivedOrderRepository implements OrderRepository {
+    private final OrderRepository repository;
+    private final OrderArchive archive;
+    private final Executor executor;
+
+    ArchivedOrderRepository(OrderRepository repository, OrderArchive archive, Executor executor) {
+        this.repository = repository;
+        this.archive = archive;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Order> update(Order order) {
+        return repository.update(order);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Order>> find(OrderId orderId) {
+        return repository.find(orderId).thenCompose(order -> {
+            if (order.isPresent())
+                return CompletableFuture.completedFuture(order);
+
+            return CompletableFuture.supplyAsync(() -> archive.find(orderId), executor);
+        });
+    }
+}
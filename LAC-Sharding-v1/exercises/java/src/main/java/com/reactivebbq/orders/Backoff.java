@@ -0,0 +1,43 @@
+package com.reactivebbq.orders;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Exponential backoff with jitter. The delay for an attempt is drawn between half and all of the capped exponential
+ * delay, so clients that failed together do not all retry together.
+ */
+class Backoff {
+
+    private final long minNanos;
+    private final long maxNanos;
+    private final DoubleSupplier random;
+
+    Backoff(Duration min, Duration max) {
+        this(min, max, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    Backoff(Duration min, Duration max, DoubleSupplier random) {
+        if (min.isNegative() || min.isZero() || max.compareTo(min) < 0)
+            throw new IllegalArgumentException("Backoff requires 0 < min <= max");
+
+        this.minNanos = min.toNanos();
+        this.maxNanos = max.toNanos();
+        this.random = random;
+    }
+
+    /**
+     * @param attempt the number of attempts that have already failed, starting at 0.
+     */
+    Duration delay(int attempt) {
+        long cap = maxNanos;
+
+        if (attempt < 62 && minNanos <= maxNanos >> attempt) {
+            cap = Math.min(maxNanos, minNanos << attempt);
+        }
+
+        long half = cap / 2;
+        return Duration.ofNanos(half + (long) (random.getAsDouble() * (cap - half)));
+    }
+}
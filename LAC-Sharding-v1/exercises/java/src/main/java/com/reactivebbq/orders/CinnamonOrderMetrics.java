@@ -0,0 +1,160 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorSystem;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Counter;
+import com.lightbend.cinnamon.metric.GaugeLong;
+import com.lightbend.cinnamon.metric.Recorder;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reports order metrics through the Cinnamon API so they are exported by the Prometheus exporter configured in
+ * telemetry.conf. Without the Cinnamon agent the metrics are no-ops.
+ */
+class CinnamonOrderMetrics implements OrderMetrics {
+    private final CinnamonMetrics metrics;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, GaugeLong> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> tableBacklogs = new ConcurrentHashMap<>();
+
+    CinnamonOrderMetrics(ActorSystem system) {
+        this.metrics = CinnamonMetrics.get(system);
+    }
+
+    @Override
+    public void requestAdmitted(String endpoint) {
+        counter("orders-http-" + endpoint + "-admitted").increment();
+    }
+
+    @Override
+    public void requestRejected(String endpoint) {
+        counter("orders-http-" + endpoint + "-rejected").increment();
+    }
+
+    @Override
+    public void requestCompleted(String endpoint, long latencyNanos, boolean success) {
+        recorder("orders-http-" + endpoint + "-latency").record(latencyNanos);
+
+        if (!success) {
+            counter("orders-http-" + endpoint + "-failed").increment();
+        }
+    }
+
+    @Override
+    public void concurrencyLimit(int limit, int inFlight) {
+        gauge("orders-http-concurrency-limit").set(limit);
+        gauge("orders-http-in-flight").set(inFlight);
+    }
+
+    @Override
+    public void tenantRequestThrottled(String tenant, String endpoint) {
+        counter("orders-tenant-" + tenant + "-" + endpoint + "-throttled").increment();
+    }
+
+    @Override
+    public void tenantRequestCompleted(String tenant, String endpoint, long latencyNanos, boolean success) {
+        recorder("orders-tenant-" + tenant + "-" + endpoint + "-latency").record(latencyNanos);
+
+        if (!success) {
+            counter("orders-tenant-" + tenant + "-" + endpoint + "-failed").increment();
+        }
+    }
+
+    /**
+     * Backlog depth is reported per table rather than per order, which keeps the number of series bounded while
+     * still showing which tables are hot. A table's gauge is the total backlog of its orders on this node, kept from
+     * the changes each order reports. The gauge is set while the total is updated, so it can't be set from an older
+     * total than the latest.
+     */
+    @Override
+    public void entityBacklog(OrderId orderId, Optional<Table> table, int depth, int change) {
+        recorder("orders-entity-backlog").record(depth);
+
+        String name = "orders-table-" + tableName(table) + "-backlog";
+
+        tableBacklogs.compute(name, (key, total) -> {
+            long updated = (total == null ? 0 : total) + change;
+            gauge(name).set(updated);
+            return updated;
+        });
+    }
+
+    @Override
+    public void entityOverloaded(OrderId orderId, Optional<Table> table) {
+        counter("orders-entity-overloaded").increment();
+        counter("orders-table-" + tableName(table) + "-overloaded").increment();
+    }
+
+    /**
+     * OrderActor starts and stops. These follow orders being used and passivated, so shard rebalancing is reported
+     * separately by shardStarted and shardStopped.
+     */
+    @Override
+    public void entityActivated(OrderId orderId) {
+        counter("orders-entity-activated").increment();
+    }
+
+    @Override
+    public void entityPassivated(OrderId orderId) {
+        counter("orders-entity-passivated").increment();
+    }
+
+    @Override
+    public void shardStarted(String region, String shardId) {
+        counter(region + "-shards-started").increment();
+    }
+
+    @Override
+    public void shardStopped(String region, String shardId) {
+        counter(region + "-shards-stopped").increment();
+    }
+
+    @Override
+    public void orderOpened(Order order) {
+        counter("orders-opened").increment();
+    }
+
+    @Override
+    public void itemAdded(Order order) {
+        counter("orders-items-added").increment();
+    }
+
+    @Override
+    public void repositoryFind(String repository, long latencyNanos, boolean success) {
+        recordRepository(repository, "find", latencyNanos, success);
+    }
+
+    @Override
+    public void repositoryUpdate(String repository, long latencyNanos, boolean success) {
+        recordRepository(repository, "update", latencyNanos, success);
+    }
+
+    private void recordRepository(String repository, String operation, long latencyNanos, boolean success) {
+        recorder("orders-repository-" + repository + "-" + operation + "-latency").record(latencyNanos);
+
+        if (!success) {
+            counter("orders-repository-" + repository + "-" + operation + "-failed").increment();
+        }
+    }
+
+    private String tableName(Optional<Table> table) {
+        return table.map(t -> String.valueOf(t.getNumber())).orElse("unknown");
+    }
+
+    private Counter counter(String name) {
+        return counters.computeIfAbsent(name, metrics::createCounter);
+    }
+
+    private Recorder recorder(String name) {
+        return recorders.computeIfAbsent(name, metrics::createRecorder);
+    }
+
+    private GaugeLong gauge(String name) {
+        return gauges.computeIfAbsent(name, metrics::createGaugeLong);
+    }
+}
@@ -0,0 +1,464 @@
+package com.reactivebbq.orders;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.Http;
+import akka.stream.Materializer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Boots a cluster of orders nodes inside this JVM, drives a workload through {@link OrdersClient} and reports the
+ * throughput and latency seen in steady state separately from the throughput and latency seen while shards are being
+ * rebalanced onto a new node or recovered from a killed one.
+ *
+ * The nodes share one in-memory repository, so an order survives its shard moving to another node.
+ */
+public class ClusterBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterBenchmark.class);
+
+    private static final String STEADY = "steady";
+    private static final String REBALANCE = "rebalance";
+    private static final String NODE_FAILURE = "node-failure";
+
+    private static Config config;
+    private static Config settings;
+    private static ExecutorService repositoryExecutor;
+    private static OrderRepository orderRepository;
+    private static final List<BenchmarkNode> nodes = new ArrayList<>();
+    private static int nodesStarted = 0;
+    private static ActorSystem clientSystem;
+    private static OrdersClient client;
+    private static final BenchmarkPhases phases = new BenchmarkPhases();
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) {
+        loadConfigOverrides(args);
+        loadConfig();
+        initializeRepository();
+        initializeCluster();
+        initializeClient();
+        run();
+        report();
+        shutdown();
+    }
+
+    private static void loadConfigOverrides(String[] args) {
+        String regex = "-D(\\S+)=(\\S+)";
+        Pattern pattern = Pattern.compile(regex);
+
+        for (String arg : args) {
+            Matcher matcher = pattern.matcher(arg);
+
+            while(matcher.find()) {
+                String key = matcher.group(1);
+                String value = matcher.group(2);
+                logger.info("Config Override: "+key+" = "+value);
+                System.setProperty(key, value);
+            }
+        }
+    }
+
+    private static void loadConfig() {
+        config = ConfigFactory.load("cluster-benchmark.conf");
+        settings = config.getConfig("cluster-benchmark");
+    }
+
+    private static void initializeRepository() {
+        repositoryExecutor = Executors.newFixedThreadPool(8);
+        orderRepository = new InMemoryOrderRepository(repositoryExecutor);
+    }
+
+    private static void initializeCluster() {
+        int initialNodes = settings.getInt("nodes");
+        logger.info("Starting "+initialNodes+" nodes");
+
+        List<CompletableFuture<Done>> memberUp = new ArrayList<>();
+
+        for (int i = 0; i < initialNodes; i++) {
+            BenchmarkNode node = startNode(initialNodes);
+            memberUp.add(node.memberUp());
+        }
+
+        CompletableFuture.allOf(memberUp.toArray(new CompletableFuture[0]))
+            .orTimeout(60, TimeUnit.SECONDS)
+            .join();
+
+        logger.info("Cluster of "+initialNodes+" nodes is up");
+    }
+
+    private static BenchmarkNode startNode(int minMembers) {
+        BenchmarkNode node = new BenchmarkNode(nodesStarted++, minMembers, settings, orderRepository);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * The client only knows the initial nodes, as a client configured before a scale out would. A node added later
+     * still serves traffic through the shards it is allocated, and a killed node is ejected by the client's health
+     * checks.
+     */
+    private static void initializeClient() {
+        List<String> addresses = new ArrayList<>();
+        for (BenchmarkNode node : nodes) {
+            addresses.add(node.getAddress());
+        }
+
+        Config clientConfig = config.withValue("orders-client.nodes", ConfigValueFactory.fromIterable(addresses));
+        clientSystem = ActorSystem.create("ClusterBenchmark", clientConfig);
+        client = new OrdersClient(clientSystem);
+    }
+
+    private static void run() {
+        int parallelism = settings.getInt("parallelism");
+        Duration warmup = settings.getDuration("warmup");
+        Duration duration = settings.getDuration("duration");
+        Duration disruptionWindow = settings.getDuration("disruption-window");
+
+        List<Config> events = new ArrayList<>(settings.getConfigList("events"));
+        events.sort(Comparator.comparing(event -> event.getDuration("at")));
+
+        logger.info("Starting "+parallelism+" simulated users, warming up for "+warmup.getSeconds()+" s");
+
+        for (int i = 0; i < parallelism; i++) {
+            simulate();
+        }
+
+        sleep(warmup);
+
+        long start = System.nanoTime();
+        phases.enter(STEADY);
+
+        for (int i = 0; i < events.size(); i++) {
+            Duration at = events.get(i).getDuration("at");
+
+            if (at.compareTo(duration) >= 0)
+                break;
+
+            sleepUntil(start, at);
+            phases.enter(perform(events.get(i).getString("action")));
+
+            Duration recovered = min(at.plus(disruptionWindow), duration);
+            boolean nextEventFirst = i + 1 < events.size()
+                && events.get(i + 1).getDuration("at").compareTo(recovered) < 0;
+
+            if (!nextEventFirst) {
+                sleepUntil(start, recovered);
+                phases.enter(STEADY);
+            }
+        }
+
+        sleepUntil(start, duration);
+        phases.stop();
+        running = false;
+    }
+
+    private static String perform(String action) {
+        switch (action) {
+            case "add-node":
+                BenchmarkNode added = startNode(1);
+                logger.info("Added node "+added.getAddress());
+                added.memberUp().thenRun(() -> logger.info("Node "+added.getAddress()+" is up"));
+                return REBALANCE;
+
+            case "kill-node":
+                BenchmarkNode killed = lastKillableNode();
+                nodes.remove(killed);
+                killed.kill();
+                logger.info("Killed node "+killed.getAddress());
+                return NODE_FAILURE;
+
+            default:
+                throw new IllegalArgumentException("Unknown cluster benchmark action: "+action);
+        }
+    }
+
+    private static BenchmarkNode lastKillableNode() {
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            if (!nodes.get(i).isSeed())
+                return nodes.get(i);
+        }
+
+        throw new IllegalStateException("Only the seed node is left, there is no node to kill");
+    }
+
+    private static void simulate() {
+        if (!running)
+            return;
+
+        timed(() -> client.openOrder(new Server("Server"), new Table(5)))
+            .thenCompose(order -> timed(() -> client.addItem(order.getId(), new OrderItem("Steak", "None"))))
+            .thenCompose(order -> timed(() -> client.findOrder(order.getId())))
+            .thenCompose(order -> timed(() -> client.addItem(order.getId(), new OrderItem("Cheesecake", "None"))))
+            .thenCompose(order -> timed(() -> client.findOrder(order.getId())))
+            .whenComplete((order, ex) -> {
+                if (ex == null) {
+                    simulate();
+                } else {
+                    clientSystem.scheduler().scheduleOnce(
+                        settings.getDuration("pause-after-failure"),
+                        ClusterBenchmark::simulate,
+                        clientSystem.dispatcher()
+                    );
+                }
+            });
+    }
+
+    /**
+     * Requests are recorded under the phase they started in.
+     */
+    private static CompletableFuture<Order> timed(Supplier<CompletableFuture<Order>> request) {
+        String phase = phases.current();
+        long start = System.nanoTime();
+
+        return request.get().whenComplete((order, ex) ->
+            phases.record(phase, System.nanoTime() - start, ex == null)
+        );
+    }
+
+    private static void report() {
+        logger.info(String.format("%-13s %8s %10s %8s %10s %9s %9s %9s %9s",
+            "PHASE", "SECONDS", "REQUESTS", "FAILED", "REQ/S", "P50 ms", "P95 ms", "P99 ms", "MAX ms"));
+
+        for (String line : phases.report()) {
+            logger.info(line);
+        }
+    }
+
+    private static void shutdown() {
+        client.close();
+        clientSystem.terminate();
+
+        for (BenchmarkNode node : nodes) {
+            node.kill();
+        }
+
+        repositoryExecutor.shutdown();
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static void sleep(Duration duration) {
+        sleepUntil(System.nanoTime(), duration);
+    }
+
+    private static void sleepUntil(long start, Duration offset) {
+        long remaining = start + offset.toNanos() - System.nanoTime();
+
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException ex) {
+                logger.error("Error while sleeping", ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+/**
+ * One orders node, wired the same way as {@link Main} but listening on its own loopback ports.
+ */
+class BenchmarkNode {
+    private final int index;
+    private final ActorSystem system;
+    private final String address;
+    private final CompletableFuture<Done> memberUp = new CompletableFuture<>();
+
+    BenchmarkNode(int index, int minMembers, Config settings, OrderRepository orderRepository) {
+        int httpPort = settings.getInt("http-base-port") + index;
+        int arteryPort = settings.getInt("artery-base-port") + index;
+        int seedPort = settings.getInt("artery-base-port");
+
+        // Terminating the actor system skips coordinated shutdown, so a killed node does not leave the cluster. It
+        // has to be detected as unreachable and downed, as it would be after a crash.
+        Config config = ConfigFactory.parseString(String.join("\n",
+            "akka.remote.artery.canonical.port = " + arteryPort,
+            "akka.http.server.default-http-port = " + httpPort,
+            "akka.cluster.seed-nodes = [\"akka://Orders@127.0.0.1:" + seedPort + "\"]",
+            "akka.cluster.min-nr-of-members = " + minMembers,
+            "akka.coordinated-shutdown.run-by-actor-system-terminate = off"
+        ))
+            .withFallback(settings.getConfig("node-config"))
+            .withFallback(ConfigFactory.load());
+
+        this.index = index;
+        this.address = "http://localhost:" + httpPort;
+        this.system = ActorSystem.create("Orders", config);
+
+        Materializer materializer = Materializer.createMaterializer(system);
+        int maxShards = config.getInt("orders.max-shards");
+
+        ActorRef orders = ClusterSharding.get(system).start("orders",
+            OrderActor.props(orderRepository).withMailbox("orders-mailbox"),
+            ClusterShardingSettings.create(system),
+            OrderActor.messageExtractor(maxShards));
+
+        LocalShards localShards = new LocalShards(orders, address, maxShards, Duration.ofSeconds(5));
+
+        OrderRoutes routes = new OrderRoutes(
+            orders,
+            new OrderResponseCache(config.getInt("orders.response-cache.max-entries")),
+            AdmissionController.fromConfig(config.getConfig("orders.admission")),
+            OrderMetrics.NONE,
+            localShards::current,
+            OrderIdGenerator.fromConfig(config.getString("orders.id-generator"))
+        );
+
+        Config analytics = config.getConfig("orders.analytics");
+        OrderAnalyticsStore analyticsStore = new OrderAnalyticsStore(system, Duration.ofSeconds(5));
+        system.actorOf(OrderAnalyticsProjection.props(
+            analyticsStore,
+            analytics.getDuration("flush-interval"),
+            analytics.getInt("max-batch-size")
+        ), "order-analytics");
+
+        OrderAnalyticsRoutes analyticsRoutes = new OrderAnalyticsRoutes(TenantRegions.single(orders), analyticsStore::read);
+
+        Http.get(system).bindAndHandle(
+            routes.createRoutes().orElse(analyticsRoutes.createRoutes()).flow(system, materializer),
+            ConnectHttp.toHost("localhost", httpPort),
+            materializer
+        );
+
+        Cluster.get(system).registerOnMemberUp(() -> memberUp.complete(Done.getInstance()));
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    boolean isSeed() {
+        return index == 0;
+    }
+
+    CompletableFuture<Done> memberUp() {
+        return memberUp;
+    }
+
+    void kill() {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().join();
+    }
+}
+
+/**
+ * Collects latencies per phase of the benchmark. Nothing is recorded until the first phase is entered, which keeps
+ * the warmup out of the results.
+ */
+class BenchmarkPhases {
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private Phase current = null;
+    private long enteredAt = 0;
+
+    synchronized void enter(String name) {
+        stop();
+        current = phases.computeIfAbsent(name, Phase::new);
+        enteredAt = System.nanoTime();
+    }
+
+    synchronized void stop() {
+        if (current != null) {
+            current.elapsedNanos += System.nanoTime() - enteredAt;
+            current = null;
+        }
+    }
+
+    synchronized String current() {
+        return current == null ? null : current.name;
+    }
+
+    synchronized void record(String phase, long latencyNanos, boolean success) {
+        if (phase == null)
+            return;
+
+        Phase recorded = phases.get(phase);
+
+        if (success) {
+            recorded.record(latencyNanos);
+        } else {
+            recorded.failures++;
+        }
+    }
+
+    synchronized List<String> report() {
+        List<String> lines = new ArrayList<>();
+
+        for (Phase phase : phases.values()) {
+            lines.add(phase.report());
+        }
+
+        return lines;
+    }
+
+    private static final class Phase {
+        private final String name;
+        private long[] latencies = new long[1024];
+        private int count = 0;
+        private long failures = 0;
+        private long elapsedNanos = 0;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        private void record(long latencyNanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+
+            latencies[count++] = latencyNanos;
+        }
+
+        private String report() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+
+            double seconds = elapsedNanos / 1e9;
+
+            return String.format("%-13s %8.1f %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f",
+                name,
+                seconds,
+                count + failures,
+                failures,
+                seconds > 0 ? count / seconds : 0.0,
+                percentileMillis(sorted, 0.50),
+                percentileMillis(sorted, 0.95),
+                percentileMillis(sorted, 0.99),
+                percentileMillis(sorted, 1.0));
+        }
+
+        private static double percentileMillis(long[] sorted, double percentile) {
+            if (sorted.length == 0)
+                return 0.0;
+
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+    }
+}
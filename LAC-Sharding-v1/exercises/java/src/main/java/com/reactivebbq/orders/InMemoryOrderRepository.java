@@ -1,11 +1,14 @@
 package com.reactivebbq.orders;
 
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
-public class InMemoryOrderRepository implements OrderRepository {
+public class InMemoryOrderRepository implements ArchivableOrderRepository {
     private final HashMap<OrderId, Order> orders = new HashMap<>();
     private final Executor executor;
 
@@ -31,4 +34,33 @@ public class InMemoryOrderRepository implements OrderRepository {
             }
         });
     }
+
+    @Override
+    public CompletableFuture<List<Order>> findClosedBefore(long closedBeforeMillis, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this) {
+                return orders.values().stream()
+                    .filter(order -> order.isClosed() && order.getClosedAt() < closedBeforeMillis)
+                    .sorted(Comparator.comparing(Order::getClosedAt))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(List<OrderId> orderIds) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this) {
+                int deleted = 0;
+
+                for (OrderId orderId : orderIds) {
+                    if (orders.remove(orderId) != null)
+                        deleted++;
+                }
+
+                return deleted;
+            }
+        }, executor);
+    }
 }
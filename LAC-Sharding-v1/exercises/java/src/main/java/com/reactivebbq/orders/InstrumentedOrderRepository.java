@@ -0,0 +1,38 @@
+package com.reactivebbq.orders;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records the latency of every call to the wrapped repository. The name identifies the implementation, so
+ * repositories can be compared side by side.
+ */
+class InstrumentedOrderRepository implements OrderRepository {
+    private final OrderRepository repository;
+    private final String name;
+    private final OrderMetrics metrics;
+
+    InstrumentedOrderRepository(OrderRepository repository, String name, OrderMetrics metrics) {
+        this.repository = repository;
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletableFuture<Order> update(Order order) {
+        long start = System.nanoTime();
+
+        return repository.update(order).whenComplete((result, ex) ->
+            metrics.repositoryUpdate(name, System.nanoTime() - start, ex == null)
+        );
+    }
+
+    @Override
+    public CompletableFuture<Optional<Order>> find(OrderId orderId) {
+        long start = System.nanoTime();
+
+        return repository.find(orderId).whenComplete((result, ex) ->
+            metrics.repositoryFind(name, System.nanoTime() - start, ex == null)
+        );
+    }
+}
@@ -0,0 +1,48 @@
+package com.reactivebbq.orders;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Keeps the most recent latency samples so a percentile can be computed over recent traffic only.
+ */
+class LatencyWindow {
+
+    private final long[] samples;
+    private final int minSamples;
+    private int next = 0;
+    private int count = 0;
+
+    LatencyWindow(int size, int minSamples) {
+        if (size < 1 || minSamples < 1 || minSamples > size)
+            throw new IllegalArgumentException("The window requires 1 <= minSamples <= size");
+
+        this.samples = new long[size];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Empty until enough samples have been recorded for the percentile to mean something.
+     */
+    Optional<Duration> percentile(double percentile) {
+        long[] sorted;
+
+        synchronized (this) {
+            if (count < minSamples)
+                return Optional.empty();
+
+            sorted = Arrays.copyOf(samples, count);
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return Optional.of(Duration.ofNanos(sorted[Math.max(0, Math.min(index, sorted.length - 1))]));
+    }
+}
@@ -3,24 +3,13 @@ package com.reactivebbq.orders;
 import akka.actor.*;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.http.javadsl.Http;
-import akka.http.javadsl.model.ContentTypes;
-import akka.http.javadsl.model.HttpRequest;
-import akka.stream.Materializer;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -31,9 +20,8 @@ import static akka.pattern.Patterns.pipe;
 public class LoadTest {
     private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
     private static ActorSystem system;
-    private static Materializer materializer;
+    private static OrdersClient client;
     private static Config config;
-    private static List<Integer> ports;
     private static Duration testDuration;
     private static int parallelism;
     private static Duration rampUpTime;
@@ -64,7 +52,6 @@ public class LoadTest {
     private static void loadConfig() {
         config = ConfigFactory.load("loadtest.conf");
 
-        ports = config.getIntList("reactive-bbq.orders.ports");
         testDuration = Duration.ofMillis(config.getDuration("load-test.duration", TimeUnit.MILLISECONDS));
         parallelism = config.getInt("load-test.parallelism");
         rampUpTime = Duration.ofMillis(config.getDuration("load-test.ramp-up-time", TimeUnit.MILLISECONDS));
@@ -72,7 +59,7 @@ public class LoadTest {
 
     private static void initializeActorSystem() {
         system = ActorSystem.create("LoadTest", config);
-        materializer = Materializer.createMaterializer(system);
+        client = new OrdersClient(system);
     }
 
     private static void run() {
@@ -85,12 +72,12 @@ public class LoadTest {
                 logger.error("Error while sleeping", ex);
             }
 
-            ActorRef sim = system.actorOf(Simulation.create(ports, system, materializer));
+            ActorRef sim = system.actorOf(Simulation.create(client));
             system.getScheduler().scheduleOnce(testDuration, sim, new Simulation.Stop(), system.getDispatcher(), Actor.noSender());
         }
 
         system.scheduler().scheduleOnce(testDuration.plusSeconds(15), () -> {
-            materializer.shutdown();
+            client.close();
             system.terminate();
 
         }, system.getDispatcher());
@@ -101,30 +88,23 @@ class Simulation extends AbstractActor {
     public static class Start {}
     public static class Stop {}
 
-    public static Props create(List<Integer> targetPorts, ActorSystem system, Materializer materializer) {
-        return Props.create(Simulation.class, () -> new Simulation(targetPorts, system, materializer));
+    public static Props create(OrdersClient client) {
+        return Props.create(Simulation.class, () -> new Simulation(client));
     }
 
-    private final List<Integer> targetPorts;
-    private final Http http;
-    private final ActorSystem system;
-    private final Materializer materializer;
+    private final OrdersClient client;
     private final Executor executor;
     private final LoggingAdapter log;
 
     private long startTime;
 
-    public Simulation(List<Integer> targetPorts, ActorSystem system, Materializer materializer) {
-        http = Http.get(getContext().getSystem());
-
+    public Simulation(OrdersClient client) {
         startTime = System.currentTimeMillis();
 
         log = Logging.getLogger(getContext().getSystem(), this);
 
-        this.system = system;
-        this.executor = system.dispatcher();
-        this.materializer = materializer;
-        this.targetPorts = targetPorts;
+        this.client = client;
+        this.executor = getContext().getDispatcher();
 
         getContext().getSelf().tell(new Start(), getContext().getSelf());
     }
@@ -150,13 +130,6 @@ class Simulation extends AbstractActor {
             .build();
     }
 
-    private int port() {
-        List<Integer> shuffledPorts = new ArrayList<>(targetPorts);
-        Collections.shuffle(shuffledPorts);
-
-        return shuffledPorts.get(0);
-    }
-
     private CompletableFuture<Order> run() {
         return openOrder().thenComposeAsync(order ->
             retrieveOrder(order.getId()),
@@ -189,79 +162,14 @@ class Simulation extends AbstractActor {
     }
 
     private CompletableFuture<Order> openOrder() {
-        OrderActor.OpenOrder command = new OrderActor.OpenOrder(new Server("Server"), new Table(5));
-        String url = "http://localhost:"+port()+"/order";
-
-        ObjectMapper objectMapper = new ObjectMapper();
-        try {
-            String json = objectMapper.writeValueAsString(command);
-
-            HttpRequest request = HttpRequest.POST(url).withEntity(ContentTypes.APPLICATION_JSON, json);
-
-            return http.singleRequest(request)
-                .thenComposeAsync(response ->
-                    response.entity().toStrict(5000, materializer),
-                    executor
-                ).thenApplyAsync(response -> {
-                    try {
-                        return objectMapper.readValue(response.getData().toArray(), Order.class);
-                    } catch (IOException ex) {
-                        throw new CompletionException(ex);
-                    }
-                }, executor).toCompletableFuture();
-        } catch (JsonProcessingException ex) {
-            log.error(ex, "Unable to build request.");
-            getContext().stop(getContext().getSelf());
-            return null;
-        }
+        return client.openOrder(new Server("Server"), new Table(5));
     }
 
     private CompletableFuture<Order> retrieveOrder(OrderId id) {
-        String url = "http://localhost:"+port()+"/order/"+id.getValue().toString();
-
-        ObjectMapper objectMapper = new ObjectMapper();
-
-        HttpRequest request = HttpRequest.GET(url);
-
-        return http.singleRequest(request)
-            .thenComposeAsync(response ->
-                response.entity().toStrict(5000, materializer),
-                executor
-            ).thenApplyAsync(response -> {
-                try {
-                    return objectMapper.readValue(response.getData().toArray(), Order.class);
-                } catch (IOException ex) {
-                    throw new CompletionException(ex);
-                }
-            }, executor).toCompletableFuture();
+        return client.findOrder(id);
     }
 
     private CompletableFuture<Order> addItem(OrderId id, String itemName) {
-        OrderActor.AddItemToOrder command = new OrderActor.AddItemToOrder(new OrderItem(itemName, "None"));
-        String url = "http://localhost:"+port()+"/order/"+id.getValue().toString()+"/items";
-
-        ObjectMapper objectMapper = new ObjectMapper();
-
-        try {
-            String json = objectMapper.writeValueAsString(command);
-
-            HttpRequest request = HttpRequest.POST(url).withEntity(ContentTypes.APPLICATION_JSON, json);
-
-            return http.singleRequest(request)
-                .thenComposeAsync(response ->
-                    response.entity().toStrict(5000, materializer),
-                    executor
-                ).thenApplyAsync(response -> {
-                    try {
-                        return objectMapper.readValue(response.getData().toArray(), Order.class);
-                    } catch (IOException ex) {
-                        throw new CompletionException(ex);
-                    }
-                }, executor).toCompletableFuture();
-        } catch (JsonProcessingException ex) {
-            log.error(ex, "Unable to build request.");
-            getContext().stop(getContext().getSelf());
-            return null;
-        }
+        return client.addItem(id, new OrderItem(itemName, "None"));
     }
 }
@@ -0,0 +1,43 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorRef;
+import akka.cluster.sharding.ShardRegion;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+import static akka.pattern.Patterns.ask;
+
+/**
+ * Reports which shards of the orders region are currently hosted on this node.
+ */
+class LocalShards {
+
+    private final ActorRef region;
+    private final String node;
+    private final int maxShards;
+    private final Duration timeout;
+
+    LocalShards(ActorRef region, String node, int maxShards, Duration timeout) {
+        this.region = region;
+        this.node = node;
+        this.maxShards = maxShards;
+        this.timeout = timeout;
+    }
+
+    CompletionStage<ShardAllocation> current() {
+        return ask(region, ShardRegion.getShardRegionStateInstance(), timeout).thenApply(reply -> {
+            ShardRegion.CurrentShardRegionState state = (ShardRegion.CurrentShardRegionState) reply;
+
+            List<String> shards = state.getShards()
+                .stream()
+                .map(ShardRegion.ShardState::shardId)
+                .sorted()
+                .collect(Collectors.toList());
+
+            return new ShardAllocation(node, maxShards, shards);
+        });
+    }
+}
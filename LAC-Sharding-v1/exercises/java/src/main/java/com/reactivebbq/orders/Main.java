@@ -2,17 +2,22 @@ package com.reactivebbq.orders;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
-import akka.cluster.sharding.ClusterSharding;
-import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.singleton.ClusterSingletonManager;
+import akka.cluster.singleton.ClusterSingletonManagerSettings;
 import akka.cluster.sharding.ShardRegion;
 import akka.http.javadsl.ConnectHttp;
 import akka.http.javadsl.Http;
 import akka.routing.RoundRobinPool;
 import akka.stream.Materializer;
+import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,14 +27,23 @@ class Main {
     private static ActorSystem system;
     private static Materializer materializer;
     private static ActorRef orders;
+    private static TenantRegions tenantRegions;
     private static OrderRepository orderRepository;
+    private static SQLOrderRepository sqlOrderRepository;
+    private static OrderArchive orderArchive;
+    private static Executor blockingExecutor;
+    private static OrderMetrics orderMetrics;
+    private static OrderAnalyticsStore analyticsStore;
 
     public static void main(String[] args) {
         loadConfigOverrides(args);
 
         initializeActorSystem();
+        initializeMetrics();
         initializeRepository();
         initializeActors();
+        initializeAnalytics();
+        initializeArchiver();
         initializeHttpServer();
     }
 
@@ -54,29 +68,101 @@ class Main {
         materializer = Materializer.createMaterializer(system);
     }
 
+    private static void initializeMetrics() {
+        orderMetrics = new CinnamonOrderMetrics(system);
+    }
+
     private static void initializeRepository() {
-        Executor blockingExecutor = system.dispatchers().lookup("blocking-dispatcher");
-        orderRepository = new SQLOrderRepository(blockingExecutor);
+        Config config = system.settings().config().getConfig("orders.archive");
+        blockingExecutor = system.dispatchers().lookup("blocking-dispatcher");
+        sqlOrderRepository = new SQLOrderRepository(blockingExecutor);
+
+        if (config.getBoolean("enabled")) {
+            orderArchive = new OrderArchive(Paths.get(config.getString("directory")), config.getInt("cached-segments"));
+            orderRepository = new InstrumentedOrderRepository(
+                new ArchivedOrderRepository(sqlOrderRepository, orderArchive, blockingExecutor),
+                "sql",
+                orderMetrics
+            );
+        } else {
+            orderRepository = new InstrumentedOrderRepository(sqlOrderRepository, "sql", orderMetrics);
+        }
     }
 
     private static void initializeActors() {
-        int maxShards = system.settings().config().getInt("orders.max-shards");
-        ClusterShardingSettings settings = ClusterShardingSettings.create(system);
-        orders = ClusterSharding.get(system).start("orders",
-                OrderActor.props(orderRepository),
-                settings,
-                OrderActor.messageExtractor(maxShards));
+        Map<String, Tenant> tenants = Tenant.fromConfig(system.settings().config().getConfig("orders.tenants"));
+        tenantRegions = TenantRegions.start(system, tenants.values(), tenant ->
+                OrderActor.props(orderRepository, orderMetrics, tenant.getId()).withMailbox("orders-mailbox"));
+        orders = tenantRegions.region(tenants.get(Tenant.DEFAULT));
+
+        Duration shardActivityInterval = system.settings().config().getDuration("orders.shard-activity-interval");
+
+        for (Tenant tenant : tenants.values()) {
+            system.actorOf(
+                ShardActivity.props(tenantRegions.region(tenant), tenant.getRegionName(), orderMetrics, shardActivityInterval),
+                "shard-activity-" + tenant.getRegionName()
+            );
+        }
     }
 
-    private static void initializeHttpServer() {
-        OrderRoutes routes = new OrderRoutes(orders);
+    private static void initializeAnalytics() {
+        Config config = system.settings().config().getConfig("orders.analytics");
+        analyticsStore = new OrderAnalyticsStore(system, Duration.ofSeconds(5));
+        system.actorOf(OrderAnalyticsProjection.props(
+            analyticsStore,
+            config.getDuration("flush-interval"),
+            config.getInt("max-batch-size")
+        ), "order-analytics");
+    }
+
+    private static void initializeArchiver() {
+        if (orderArchive == null)
+            return;
 
+        Config config = system.settings().config().getConfig("orders.archive");
+        system.actorOf(ClusterSingletonManager.props(
+            OrderArchiver.props(
+                sqlOrderRepository,
+                orderArchive,
+                blockingExecutor,
+                config.getDuration("closed-for"),
+                config.getDuration("interval"),
+                config.getInt("batch-size")
+            ),
+            PoisonPill.getInstance(),
+            ClusterSingletonManagerSettings.create(system)
+        ), "order-archiver");
+    }
+
+    private static void initializeHttpServer() {
+        int responseCacheSize = system.settings().config().getInt("orders.response-cache.max-entries");
+        AdmissionController admissionController = AdmissionController.fromConfig(
+            system.settings().config().getConfig("orders.admission")
+        );
         int httpPort = system.settings()
             .config()
             .getInt("akka.http.server.default-http-port");
 
+        LocalShards localShards = new LocalShards(
+            orders,
+            "http://localhost:" + httpPort,
+            system.settings().config().getInt("orders.max-shards"),
+            Duration.ofSeconds(5)
+        );
+
+        OrderRoutes routes = new OrderRoutes(
+            tenantRegions,
+            new OrderResponseCache(responseCacheSize),
+            admissionController,
+            orderMetrics,
+            localShards::current,
+            OrderIdGenerator.fromConfig(system.settings().config().getString("orders.id-generator"))
+        );
+
+        OrderAnalyticsRoutes analyticsRoutes = new OrderAnalyticsRoutes(tenantRegions, analyticsStore::read);
+
         Http.get(system).bindAndHandle(
-            routes.createRoutes().flow(system, materializer),
+            routes.createRoutes().orElse(analyticsRoutes.createRoutes()).flow(system, materializer),
             ConnectHttp.toHost("localhost", httpPort),
             materializer
         );
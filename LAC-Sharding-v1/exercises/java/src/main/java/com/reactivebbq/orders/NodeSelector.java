@@ -0,0 +1,140 @@
+package com.reactivebbq.orders;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Chooses which node of the orders service a request is sent to. Nodes are used round-robin, but a node that fails
+ * several requests in a row is ejected for a cooldown period. Once the cooldown has passed the node is given one
+ * more chance; a success restores it, a failure ejects it again.
+ */
+class NodeSelector {
+
+    private final List<Node> nodes;
+    private final int failureThreshold;
+    private final long cooldownNanos;
+    private final LongSupplier clock;
+    private final AtomicInteger next = new AtomicInteger();
+
+    NodeSelector(List<String> addresses, int failureThreshold, Duration cooldown) {
+        this(addresses, failureThreshold, cooldown, System::nanoTime);
+    }
+
+    NodeSelector(List<String> addresses, int failureThreshold, Duration cooldown, LongSupplier clock) {
+        if (addresses.isEmpty())
+            throw new IllegalArgumentException("At least one node is required");
+
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("The failure threshold must be at least 1");
+
+        this.nodes = new ArrayList<>();
+        for (String address : addresses) {
+            nodes.add(new Node(address));
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.cooldownNanos = cooldown.toNanos();
+        this.clock = clock;
+    }
+
+    String select() {
+        return select(null);
+    }
+
+    /**
+     * Picks the next healthy node, avoiding the excluded node whenever another healthy node exists. If every node
+     * has been ejected, the one whose cooldown ends first is returned so requests still have somewhere to go.
+     */
+    String select(String exclude) {
+        long now = clock.getAsLong();
+        int start = Math.floorMod(next.getAndIncrement(), nodes.size());
+        Node fallback = null;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((start + i) % nodes.size());
+
+            if (node.isHealthy(now)) {
+                if (!node.address.equals(exclude))
+                    return node.address;
+
+                fallback = node;
+            }
+        }
+
+        if (fallback != null)
+            return fallback.address;
+
+        Node soonest = nodes.get(0);
+        for (Node node : nodes) {
+            if (node.retryAt() - soonest.retryAt() < 0)
+                soonest = node;
+        }
+
+        return soonest.address;
+    }
+
+    void recordSuccess(String address) {
+        find(address).recordSuccess();
+    }
+
+    void recordFailure(String address) {
+        find(address).recordFailure(clock.getAsLong());
+    }
+
+    boolean isHealthy(String address) {
+        return find(address).isHealthy(clock.getAsLong());
+    }
+
+    List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>();
+        for (Node node : nodes) {
+            addresses.add(node.address);
+        }
+        return addresses;
+    }
+
+    private Node find(String address) {
+        for (Node node : nodes) {
+            if (node.address.equals(address))
+                return node;
+        }
+
+        throw new IllegalArgumentException("Unknown node: " + address);
+    }
+
+    private final class Node {
+        private final String address;
+        private int consecutiveFailures = 0;
+        private boolean ejected = false;
+        private long retryAt = 0;
+
+        private Node(String address) {
+            this.address = address;
+        }
+
+        private synchronized boolean isHealthy(long now) {
+            return !ejected || now - retryAt >= 0;
+        }
+
+        private synchronized long retryAt() {
+            return retryAt;
+        }
+
+        private synchronized void recordSuccess() {
+            consecutiveFailures = 0;
+            ejected = false;
+        }
+
+        private synchronized void recordFailure(long now) {
+            consecutiveFailures++;
+
+            if (consecutiveFailures >= failureThreshold) {
+                ejected = true;
+                retryAt = now + cooldownNanos;
+            }
+        }
+    }
+}
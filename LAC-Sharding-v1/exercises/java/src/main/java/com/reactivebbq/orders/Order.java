@@ -1,23 +1,59 @@
 package com.reactivebbq.orders;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Objects;
 import java.util.Vector;
 
 public class Order implements SerializableMessage {
+    /**
+     * Only the most recent idempotency keys are remembered. Retries arrive shortly after the original request, so a
+     * small window is enough and keeps the order (and its row) from growing with every command.
+     */
+    static final int MAX_IDEMPOTENCY_KEYS = 16;
+
     private final OrderId id;
     private final Server server;
     private final Table table;
     private final Vector<OrderItem> items;
+    private final long version;
+    private final Vector<String> idempotencyKeys;
+    private final Long closedAt;
+    private final String tenant;
+
+    public Order(OrderId id, Server server, Table table, Vector<OrderItem> items) {
+        this(id, server, table, items, 0);
+    }
+
+    public Order(OrderId id, Server server, Table table, Vector<OrderItem> items, long version) {
+        this(id, server, table, items, version, new Vector<>());
+    }
+
+    public Order(OrderId id, Server server, Table table, Vector<OrderItem> items, long version, Vector<String> idempotencyKeys) {
+        this(id, server, table, items, version, idempotencyKeys, null);
+    }
 
+    public Order(OrderId id, Server server, Table table, Vector<OrderItem> items, long version, Vector<String> idempotencyKeys, Long closedAt) {
+        this(id, server, table, items, version, idempotencyKeys, closedAt, Tenant.DEFAULT);
+    }
+
+    /**
+     * @param closedAt when the order was closed, in epoch milliseconds, or null while it is open.
+     * @param tenant the tenant that opened the order. Orders written before tenants existed belong to the default one.
+     */
     @JsonCreator
-    public Order(@JsonProperty("id") OrderId id, @JsonProperty("server") Server server, @JsonProperty("table") Table table, @JsonProperty("items") Vector<OrderItem> items) {
+    public Order(@JsonProperty("id") OrderId id, @JsonProperty("server") Server server, @JsonProperty("table") Table table, @JsonProperty("items") Vector<OrderItem> items, @JsonProperty("version") long version, @JsonProperty("idempotencyKeys") Vector<String> idempotencyKeys, @JsonProperty("closedAt") Long closedAt, @JsonProperty("tenant") String tenant) {
         this.id = id;
         this.server = server;
         this.table = table;
         this.items = new Vector<>(items);
+        this.version = version;
+        this.idempotencyKeys = idempotencyKeys == null ? new Vector<>() : new Vector<>(idempotencyKeys);
+        this.closedAt = closedAt;
+        this.tenant = tenant == null ? Tenant.DEFAULT : tenant;
     }
 
     public OrderId getId() {
@@ -36,20 +72,50 @@ public class Order implements SerializableMessage {
         return new Vector<>(items);
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public Vector<String> getIdempotencyKeys() {
+        return new Vector<>(idempotencyKeys);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getClosedAt() {
+        return closedAt;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    @JsonIgnore
+    public boolean isClosed() {
+        return closedAt != null;
+    }
+
+    public boolean hasProcessed(String idempotencyKey) {
+        return idempotencyKey != null && idempotencyKeys.contains(idempotencyKey);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Order order = (Order) o;
-        return Objects.equals(id, order.id) &&
+        return version == order.version &&
+                Objects.equals(id, order.id) &&
                 Objects.equals(server, order.server) &&
                 Objects.equals(table, order.table) &&
-                Objects.equals(items, order.items);
+                Objects.equals(items, order.items) &&
+                Objects.equals(idempotencyKeys, order.idempotencyKeys) &&
+                Objects.equals(closedAt, order.closedAt) &&
+                Objects.equals(tenant, order.tenant);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, server, table, items);
+        return Objects.hash(id, server, table, items, version, idempotencyKeys, closedAt, tenant);
     }
 
     @Override
@@ -59,6 +125,10 @@ public class Order implements SerializableMessage {
                 ", server=" + server +
                 ", table=" + table +
                 ", items=" + items +
+                ", version=" + version +
+                ", idempotencyKeys=" + idempotencyKeys +
+                ", closedAt=" + closedAt +
+                ", tenant='" + tenant + '\'' +
                 '}';
     }
 
@@ -66,8 +136,37 @@ public class Order implements SerializableMessage {
         Vector<OrderItem> updatedItems = new Vector<>(items);
         updatedItems.add(item);
 
-        return new Order(id, server, table, updatedItems);
+        return new Order(id, server, table, updatedItems, version + 1, idempotencyKeys, closedAt, tenant);
+    }
+
+    /**
+     * Closing an order that is already closed keeps the original closing time.
+     */
+    public Order closed(long closedAt) {
+        if (isClosed())
+            return this;
+
+        return new Order(id, server, table, items, version + 1, idempotencyKeys, closedAt, tenant);
     }
 
+    /**
+     * Remembers the key of the command that produced this order, evicting the oldest key once the window is full.
+     */
+    public Order withIdempotencyKey(String idempotencyKey) {
+        if (idempotencyKey == null || hasProcessed(idempotencyKey))
+            return this;
+
+        Vector<String> updatedKeys = new Vector<>(idempotencyKeys);
+        updatedKeys.add(idempotencyKey);
+
+        while (updatedKeys.size() > MAX_IDEMPOTENCY_KEYS) {
+            updatedKeys.remove(0);
+        }
 
+        return new Order(id, server, table, items, version, updatedKeys, closedAt, tenant);
+    }
+
+    public Order withTenant(String tenant) {
+        return new Order(id, server, table, items, version, idempotencyKeys, closedAt, tenant);
+    }
 }
@@ -2,17 +2,20 @@ package com.reactivebbq.orders;
 
 import akka.actor.AbstractActorWithStash;
 import akka.actor.Props;
+import akka.actor.StashOverflowException;
 import akka.actor.Status;
 import akka.cluster.sharding.ShardRegion;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Vector;
 import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 
 import static akka.pattern.Patterns.pipe;
 
@@ -20,20 +23,42 @@ public class OrderActor extends AbstractActorWithStash {
     private final OrderRepository repository;
     private final LoggingAdapter log;
     private final OrderId orderId;
+    private final OrderMetrics metrics;
+    private final String tenant;
     private Optional<Order> state = Optional.empty();
+    private int backlog = 0;
+    private Optional<Table> backlogTable = Optional.empty();
 
     static Props props(OrderRepository repository) {
-        return Props.create(OrderActor.class, repository);
+        return props(repository, OrderMetrics.NONE);
     }
 
-    public OrderActor(OrderRepository repository) {
+    static Props props(OrderRepository repository, OrderMetrics metrics) {
+        return props(repository, metrics, Tenant.DEFAULT);
+    }
+
+    static Props props(OrderRepository repository, OrderMetrics metrics, String tenant) {
+        return Props.create(OrderActor.class, repository, metrics, tenant);
+    }
+
+    public OrderActor(OrderRepository repository, OrderMetrics metrics, String tenant) {
         log = Logging.getLogger(getContext().getSystem(), this);
         this.repository = repository;
+        this.metrics = metrics;
+        this.tenant = tenant;
         orderId = OrderId.fromString(getSelf().path().name());
+        metrics.entityActivated(orderId);
         CompletableFuture<OrderLoaded> orderLoadedCompletableFuture = repository.find(orderId).thenApply(OrderLoaded::new);
         pipe(orderLoadedCompletableFuture, getContext().getDispatcher()).to(getSelf());
     }
 
+    @Override
+    public void postStop() throws Exception {
+        releaseBacklog();
+        metrics.entityPassivated(orderId);
+        super.postStop();
+    }
+
     @Override
     public Receive createReceive() {
         return loading();
@@ -43,7 +68,7 @@ public class OrderActor extends AbstractActorWithStash {
         return receiveBuilder()
                 .match(OrderLoaded.class,
                         orderLoaded -> {
-                            unstashAll();
+                            unstashBacklog();
                             state = orderLoaded.getOrder();
                             getContext().become(running());
                         })
@@ -52,7 +77,7 @@ public class OrderActor extends AbstractActorWithStash {
                             log.error(failure.cause(), "[" + orderId + "] FAILURE: " + failure.cause().getMessage());
                             throw new RuntimeException(failure.cause());
                         })
-                .matchAny(ignore -> stash())
+                .matchAny(this::stashOrReject)
                 .build();
     }
 
@@ -63,13 +88,19 @@ public class OrderActor extends AbstractActorWithStash {
                             Server server = openOrder.getServer();
                             Table table = openOrder.getTable();
                             log.info("[" + orderId + "] OpenOrder(" + server + ", " + table + ")");
-                            state.ifPresentOrElse(order ->
+                            state.ifPresentOrElse(order -> {
+                                        if (isOwned(order) && order.hasProcessed(openOrder.getIdempotencyKey())) {
+                                            log.info("[" + orderId + "] OpenOrder already processed. Replying without an update.");
+                                            getSender().tell(new OrderOpened(order), getSelf());
+                                        } else {
                                             pipe(duplicateOrder(orderId),
                                                     getContext().getDispatcher())
-                                                    .to(getSender()),
+                                                    .to(getSender());
+                                        }
+                                    },
                                     () -> {
                                         getContext().become(waiting());
-                                        pipe(openOrder(orderId, server, table),
+                                        pipe(openOrder(orderId, server, table, openOrder.getIdempotencyKey()),
                                                 getContext().getDispatcher())
                                                 .to(getSelf(), getSender());
                                     }
@@ -79,11 +110,40 @@ public class OrderActor extends AbstractActorWithStash {
                         addItemToOrder -> {
                             OrderItem item = addItemToOrder.getItem();
                             log.info("[" + orderId + "] AddItemToOrder(" + item + ")");
-                            state.ifPresentOrElse(order -> {
-                                        getContext().become(waiting());
-                                        pipe(addItem(state.get(), item),
-                                                getContext().getDispatcher())
-                                                .to(getSelf(), getSender());
+                            ownedState().ifPresentOrElse(order -> {
+                                        if (order.hasProcessed(addItemToOrder.getIdempotencyKey())) {
+                                            log.info("[" + orderId + "] AddItemToOrder already processed. Replying without an update.");
+                                            getSender().tell(new ItemAddedToOrder(order), getSelf());
+                                        } else if (order.isClosed()) {
+                                            pipe(orderClosed(orderId),
+                                                    getContext().getDispatcher())
+                                                    .to(getSender());
+                                        } else {
+                                            getContext().become(waiting());
+                                            pipe(addItem(order, item, addItemToOrder.getIdempotencyKey()),
+                                                    getContext().getDispatcher())
+                                                    .to(getSelf(), getSender());
+                                        }
+                                    },
+                                    () ->
+                                            pipe(orderNotFound(orderId),
+                                                    getContext().getDispatcher())
+                                                    .to(getSender())
+                            );
+                        })
+                .match(CloseOrder.class,
+                        closeOrder -> {
+                            log.info("[" + orderId + "] CloseOrder()");
+                            ownedState().ifPresentOrElse(order -> {
+                                        if (order.isClosed()) {
+                                            log.info("[" + orderId + "] Order already closed. Replying without an update.");
+                                            getSender().tell(new OrderClosed(order), getSelf());
+                                        } else {
+                                            getContext().become(waiting());
+                                            pipe(closeOrder(order),
+                                                    getContext().getDispatcher())
+                                                    .to(getSelf(), getSender());
+                                        }
                                     },
                                     () ->
                                             pipe(orderNotFound(orderId),
@@ -94,7 +154,7 @@ public class OrderActor extends AbstractActorWithStash {
                 .match(GetOrder.class,
                         getOrder -> {
                             log.info("[" + orderId + "] getOrder()");
-                            state.ifPresentOrElse(order ->
+                            ownedState().ifPresentOrElse(order ->
                                             pipe(CompletableFuture.completedFuture(order),
                                                     getContext().getDispatcher()).to(getSender()),
                                     () -> pipe(orderNotFound(orderId),
@@ -109,42 +169,107 @@ public class OrderActor extends AbstractActorWithStash {
                 .match(OrderOpened.class,
                         orderOpened -> {
                             state = Optional.of(orderOpened.getOrder());
-                            unstashAll();
+                            metrics.orderOpened(orderOpened.getOrder());
+                            getContext().getSystem().getEventStream().publish(orderOpened);
+                            unstashBacklog();
                             getSender().tell(orderOpened, getSelf());
                             getContext().become(running());
                         })
                 .match(ItemAddedToOrder.class,
                         itemAddedToOrder -> {
                             state = Optional.of(itemAddedToOrder.getOrder());
-                            unstashAll();
+                            metrics.itemAdded(itemAddedToOrder.getOrder());
+                            getContext().getSystem().getEventStream().publish(itemAddedToOrder);
+                            unstashBacklog();
                             getSender().tell(itemAddedToOrder, getSelf());
                             getContext().become(running());
                         })
+                .match(OrderClosed.class,
+                        orderClosed -> {
+                            state = Optional.of(orderClosed.getOrder());
+                            getContext().getSystem().getEventStream().publish(orderClosed);
+                            unstashBacklog();
+                            getSender().tell(orderClosed, getSelf());
+                            getContext().become(running());
+                        })
                 .match(Status.Failure.class,
                         failure -> {
                             log.error(failure.cause(), "[" + orderId + "] FAILURE: " + failure.cause().getMessage());
                             getSender().tell(failure, getSelf());
                             throw new RuntimeException(failure.cause());
                         })
-                .matchAny(ignore -> stash())
+                .matchAny(this::stashOrReject)
                 .build();
     }
 
-    private CompletableFuture<OrderOpened> openOrder(OrderId orderId, Server server, Table table) {
+    /**
+     * Another tenant's order is treated as if it didn't exist, except that it can't be opened over.
+     */
+    private Optional<Order> ownedState() {
+        return state.filter(this::isOwned);
+    }
+
+    private boolean isOwned(Order order) {
+        return order.getTenant().equals(tenant);
+    }
+
+    /**
+     * The stash is bounded by the stash-capacity of the actor's mailbox. Once an entity's backlog is full, further
+     * commands are rejected immediately rather than queued behind a slow repository.
+     *
+     * The backlog is reported against the table the order had when the backlog started, so it is released from the
+     * same table even if the order is loaded in the meantime.
+     */
+    private void stashOrReject(Object message) {
+        try {
+            stash();
+
+            if (backlog == 0) {
+                backlogTable = state.map(Order::getTable);
+            }
+
+            backlog++;
+            metrics.entityBacklog(orderId, backlogTable, backlog, 1);
+        } catch (StashOverflowException ex) {
+            log.warning("[" + orderId + "] OVERLOADED: Rejecting " + message.getClass().getSimpleName());
+            metrics.entityOverloaded(orderId, state.map(Order::getTable));
+            getSender().tell(new Status.Failure(new OrderOverloadedException(orderId)), getSelf());
+        }
+    }
+
+    private void unstashBacklog() {
+        unstashAll();
+        releaseBacklog();
+    }
+
+    private void releaseBacklog() {
+        if (backlog > 0) {
+            int released = backlog;
+            backlog = 0;
+            metrics.entityBacklog(orderId, backlogTable, backlog, -released);
+        }
+    }
+
+    private CompletableFuture<OrderOpened> openOrder(OrderId orderId, Server server, Table table, String idempotencyKey) {
         Vector<OrderItem> items = new Vector<>();
-        Order order = new Order(orderId, server, table, items);
+        Order order = new Order(orderId, server, table, items).withTenant(tenant).withIdempotencyKey(idempotencyKey);
         CompletableFuture<Order> update = repository.update(order);
         CompletableFuture<OrderOpened> orderOpenedCompletableFuture = update.thenApply(OrderOpened::new);
         return orderOpenedCompletableFuture;
     }
 
-    private CompletableFuture<ItemAddedToOrder> addItem(Order order, OrderItem orderItem) {
-        Order newOrder = order.withItem(orderItem);
+    private CompletableFuture<ItemAddedToOrder> addItem(Order order, OrderItem orderItem, String idempotencyKey) {
+        Order newOrder = order.withItem(orderItem).withIdempotencyKey(idempotencyKey);
         CompletableFuture<Order> update = repository.update(newOrder);
         CompletableFuture<ItemAddedToOrder> itemAddedToOrderCompletableFuture = update.thenApply(ItemAddedToOrder::new);
         return itemAddedToOrderCompletableFuture;
     }
 
+    private CompletableFuture<OrderClosed> closeOrder(Order order) {
+        CompletableFuture<Order> update = repository.update(order.closed(System.currentTimeMillis()));
+        return update.thenApply(OrderClosed::new);
+    }
+
     private <T> CompletableFuture<T> duplicateOrder(OrderId orderId) {
         return CompletableFuture.failedFuture(new DuplicateOrderException(orderId));
     }
@@ -153,12 +278,23 @@ public class OrderActor extends AbstractActorWithStash {
         return CompletableFuture.failedFuture(new OrderNotFoundException(orderId));
     }
 
+    private <T> CompletableFuture<T> orderClosed(OrderId orderId) {
+        return CompletableFuture.failedFuture(new OrderClosedException(orderId));
+    }
+
+    /**
+     * Shared with clients so they can send a request straight to the node that owns the order's shard.
+     */
+    static String shardId(OrderId orderId, int maxShards) {
+        return String.valueOf(Math.abs(orderId.hashCode() % maxShards));
+    }
+
     static ShardRegion.MessageExtractor messageExtractor(int maxShards) {
         return new ShardRegion.MessageExtractor() {
             @Override
             public String entityId(Object message) {
                 if (message instanceof Envelope) {
-                    return ((Envelope) message).getOrderId().getValue().toString();
+                    return ((Envelope) message).getOrderId().asString();
                 }
                 return null;
             }
@@ -174,10 +310,10 @@ public class OrderActor extends AbstractActorWithStash {
             @Override
             public String shardId(Object message) {
                 if (message instanceof Envelope) {
-                    return String.valueOf(Math.abs(((Envelope) message).getOrderId().hashCode() % maxShards));
+                    return OrderActor.shardId(((Envelope) message).getOrderId(), maxShards);
                 } else if (message instanceof ShardRegion.StartEntity) {
                     OrderId orderId = OrderId.fromString(((ShardRegion.StartEntity) message).entityId());
-                    return String.valueOf(Math.abs(orderId.hashCode() % maxShards));
+                    return OrderActor.shardId(orderId, maxShards);
                 }
                 return null;
             }
@@ -208,14 +344,34 @@ public class OrderActor extends AbstractActorWithStash {
     interface Event extends SerializableMessage {
     }
 
+    private static final Pattern IDEMPOTENCY_KEY_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * Idempotency keys are optional and chosen by the client. A retry carrying the same key is answered from the
+     * order's remembered keys instead of being applied (and written) a second time.
+     */
+    static String validateIdempotencyKey(String idempotencyKey) {
+        if (idempotencyKey != null && !IDEMPOTENCY_KEY_PATTERN.matcher(idempotencyKey).matches())
+            throw new IllegalArgumentException("Idempotency keys must be 1 to 64 characters of [A-Za-z0-9_-]");
+
+        return idempotencyKey;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     static class OpenOrder implements Command {
         private final Server server;
         private final Table table;
+        private final String idempotencyKey;
+
+        public OpenOrder(Server server, Table table) {
+            this(server, table, null);
+        }
 
         @JsonCreator
-        public OpenOrder(@JsonProperty("server") Server server, @JsonProperty("table") Table table) {
+        public OpenOrder(@JsonProperty("server") Server server, @JsonProperty("table") Table table, @JsonProperty("idempotencyKey") String idempotencyKey) {
             this.server = server;
             this.table = table;
+            this.idempotencyKey = validateIdempotencyKey(idempotencyKey);
         }
 
         public Server getServer() {
@@ -226,18 +382,23 @@ public class OrderActor extends AbstractActorWithStash {
             return table;
         }
 
+        public String getIdempotencyKey() {
+            return idempotencyKey;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             OpenOrder openOrder = (OpenOrder) o;
             return Objects.equals(server, openOrder.server) &&
-                    Objects.equals(table, openOrder.table);
+                    Objects.equals(table, openOrder.table) &&
+                    Objects.equals(idempotencyKey, openOrder.idempotencyKey);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(server, table);
+            return Objects.hash(server, table, idempotencyKey);
         }
     }
 
@@ -267,29 +428,41 @@ public class OrderActor extends AbstractActorWithStash {
         }
     }
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     static class AddItemToOrder implements Command {
         private final OrderItem item;
+        private final String idempotencyKey;
+
+        public AddItemToOrder(OrderItem item) {
+            this(item, null);
+        }
 
         @JsonCreator
-        public AddItemToOrder(@JsonProperty("item") OrderItem item) {
+        public AddItemToOrder(@JsonProperty("item") OrderItem item, @JsonProperty("idempotencyKey") String idempotencyKey) {
             this.item = item;
+            this.idempotencyKey = validateIdempotencyKey(idempotencyKey);
         }
 
         public OrderItem getItem() {
             return item;
         }
 
+        public String getIdempotencyKey() {
+            return idempotencyKey;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             AddItemToOrder that = (AddItemToOrder) o;
-            return Objects.equals(item, that.item);
+            return Objects.equals(item, that.item) &&
+                    Objects.equals(idempotencyKey, that.idempotencyKey);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(item);
+            return Objects.hash(item, idempotencyKey);
         }
     }
 
@@ -322,6 +495,38 @@ public class OrderActor extends AbstractActorWithStash {
     static class GetOrder implements Command {
     }
 
+    /**
+     * Closed orders no longer accept items, and become eligible for archiving once they have been closed for a while.
+     */
+    static class CloseOrder implements Command {
+    }
+
+    static class OrderClosed implements Event {
+        private final Order order;
+
+        @JsonCreator
+        public OrderClosed(@JsonProperty Order order) {
+            this.order = order;
+        }
+
+        public Order getOrder() {
+            return order;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            OrderClosed that = (OrderClosed) o;
+            return Objects.equals(order, that.order);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(order);
+        }
+    }
+
     private static class OrderLoaded {
         private final Optional<Order> order;
 
@@ -369,6 +574,28 @@ public class OrderActor extends AbstractActorWithStash {
         }
     }
 
+    static class OrderOverloadedException extends IllegalStateException {
+        private final OrderId orderId;
+
+        public OrderOverloadedException(OrderId orderId) {
+            super("Order Overloaded: " + orderId);
+            this.orderId = orderId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            OrderOverloadedException that = (OrderOverloadedException) o;
+            return Objects.equals(orderId, that.orderId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orderId);
+        }
+    }
+
     static class DuplicateOrderException extends IllegalStateException {
         private final OrderId orderId;
 
@@ -390,4 +617,26 @@ public class OrderActor extends AbstractActorWithStash {
             return Objects.hash(orderId);
         }
     }
+
+    static class OrderClosedException extends IllegalStateException {
+        private final OrderId orderId;
+
+        public OrderClosedException(OrderId orderId) {
+            super("Order Closed: " + orderId);
+            this.orderId = orderId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            OrderClosedException that = (OrderClosedException) o;
+            return Objects.equals(orderId, that.orderId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orderId);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+package com.reactivebbq.orders;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Pre-aggregated counts of orders and items per server, per table and per item name for one tenant, as maintained
+ * by the {@link OrderAnalyticsProjection}. The counts of every tenant are kept in a single counter map whose keys
+ * combine the tenant, the name of the count and the server, table or item it counts. Tenant ids can't contain the
+ * separator, so one tenant's counts are never read as another's.
+ */
+public class OrderAnalytics {
+    static final String ORDERS_BY_SERVER = "orders-by-server";
+    static final String ITEMS_BY_SERVER = "items-by-server";
+    static final String ORDERS_BY_TABLE = "orders-by-table";
+    static final String ITEMS_BY_TABLE = "items-by-table";
+    static final String ITEMS_BY_NAME = "items-by-name";
+
+    private static final String SEPARATOR = "/";
+
+    private final Map<String, Long> ordersByServer;
+    private final Map<String, Long> itemsByServer;
+    private final Map<Integer, Long> ordersByTable;
+    private final Map<Integer, Long> itemsByTable;
+    private final Map<String, Long> itemsByName;
+
+    @JsonCreator
+    public OrderAnalytics(@JsonProperty("ordersByServer") Map<String, Long> ordersByServer,
+                          @JsonProperty("itemsByServer") Map<String, Long> itemsByServer,
+                          @JsonProperty("ordersByTable") Map<Integer, Long> ordersByTable,
+                          @JsonProperty("itemsByTable") Map<Integer, Long> itemsByTable,
+                          @JsonProperty("itemsByName") Map<String, Long> itemsByName) {
+        this.ordersByServer = new TreeMap<>(ordersByServer);
+        this.itemsByServer = new TreeMap<>(itemsByServer);
+        this.ordersByTable = new TreeMap<>(ordersByTable);
+        this.itemsByTable = new TreeMap<>(itemsByTable);
+        this.itemsByName = new TreeMap<>(itemsByName);
+    }
+
+    static OrderAnalytics empty() {
+        return fromCounters(Tenant.DEFAULT, new TreeMap<>());
+    }
+
+    /**
+     * The counts of the given tenant. Counters of other tenants are ignored.
+     */
+    static OrderAnalytics fromCounters(String tenant, Map<String, BigInteger> counters) {
+        Map<String, Long> ordersByServer = new TreeMap<>();
+        Map<String, Long> itemsByServer = new TreeMap<>();
+        Map<Integer, Long> ordersByTable = new TreeMap<>();
+        Map<Integer, Long> itemsByTable = new TreeMap<>();
+        Map<String, Long> itemsByName = new TreeMap<>();
+
+        for (Map.Entry<String, BigInteger> counter : counters.entrySet()) {
+            String[] parts = counter.getKey().split(SEPARATOR, 3);
+            long count = counter.getValue().longValue();
+
+            if (parts.length < 3 || !parts[0].equals(tenant))
+                continue;
+
+            switch (parts[1]) {
+                case ORDERS_BY_SERVER:
+                    ordersByServer.put(parts[2], count);
+                    break;
+                case ITEMS_BY_SERVER:
+                    itemsByServer.put(parts[2], count);
+                    break;
+                case ORDERS_BY_TABLE:
+                    ordersByTable.put(Integer.valueOf(parts[2]), count);
+                    break;
+                case ITEMS_BY_TABLE:
+                    itemsByTable.put(Integer.valueOf(parts[2]), count);
+                    break;
+                case ITEMS_BY_NAME:
+                    itemsByName.put(parts[2], count);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return new OrderAnalytics(ordersByServer, itemsByServer, ordersByTable, itemsByTable, itemsByName);
+    }
+
+    static String counterKey(String tenant, String count, Object key) {
+        return tenant + SEPARATOR + count + SEPARATOR + key;
+    }
+
+    public Map<String, Long> getOrdersByServer() {
+        return new TreeMap<>(ordersByServer);
+    }
+
+    public Map<String, Long> getItemsByServer() {
+        return new TreeMap<>(itemsByServer);
+    }
+
+    public Map<Integer, Long> getOrdersByTable() {
+        return new TreeMap<>(ordersByTable);
+    }
+
+    public Map<Integer, Long> getItemsByTable() {
+        return new TreeMap<>(itemsByTable);
+    }
+
+    public Map<String, Long> getItemsByName() {
+        return new TreeMap<>(itemsByName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OrderAnalytics that = (OrderAnalytics) o;
+        return Objects.equals(ordersByServer, that.ordersByServer) &&
+                Objects.equals(itemsByServer, that.itemsByServer) &&
+                Objects.equals(ordersByTable, that.ordersByTable) &&
+                Objects.equals(itemsByTable, that.itemsByTable) &&
+                Objects.equals(itemsByName, that.itemsByName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ordersByServer, itemsByServer, ordersByTable, itemsByTable, itemsByName);
+    }
+
+    @Override
+    public String toString() {
+        return "OrderAnalytics{" +
+                "ordersByServer=" + ordersByServer +
+                ", itemsByServer=" + itemsByServer +
+                ", ordersByTable=" + ordersByTable +
+                ", itemsByTable=" + itemsByTable +
+                ", itemsByName=" + itemsByName +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+package com.reactivebbq.orders;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.Props;
+import akka.cluster.ddata.Replicator;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Maintains the order analytics from the events published by the OrderActors on this node. The OrderActors of every
+ * tenant publish to the same event stream, so events are counted under the tenant of their order. Events are
+ * counted into a batch, and the batch is written to the {@link OrderAnalyticsStore} once it is full or once the flush interval
+ * has passed, whichever comes first.
+ *
+ * The events are not persisted, so counts for events that had not been flushed when a node stops are lost. The
+ * analytics are meant for reporting, not for reconciliation.
+ */
+class OrderAnalyticsProjection extends AbstractActorWithTimers {
+
+    static Props props(OrderAnalyticsStore store, Duration flushInterval, int maxBatchSize) {
+        return Props.create(OrderAnalyticsProjection.class, store, flushInterval, maxBatchSize);
+    }
+
+    private static final class Flush {
+        private static final Flush INSTANCE = new Flush();
+    }
+
+    private final OrderAnalyticsStore store;
+    private final Duration flushInterval;
+    private final int maxBatchSize;
+    private final LoggingAdapter log;
+    private Batch batch = new Batch();
+
+    public OrderAnalyticsProjection(OrderAnalyticsStore store, Duration flushInterval, int maxBatchSize) {
+        this.store = store;
+        this.flushInterval = flushInterval;
+        this.maxBatchSize = maxBatchSize;
+        this.log = Logging.getLogger(getContext().getSystem(), this);
+    }
+
+    @Override
+    public void preStart() {
+        getContext().getSystem().getEventStream().subscribe(getSelf(), OrderActor.OrderOpened.class);
+        getContext().getSystem().getEventStream().subscribe(getSelf(), OrderActor.ItemAddedToOrder.class);
+        getTimers().startTimerWithFixedDelay(Flush.INSTANCE, Flush.INSTANCE, flushInterval);
+    }
+
+    @Override
+    public void postStop() {
+        flush();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(OrderActor.OrderOpened.class, orderOpened -> {
+                    batch.orderOpened(orderOpened.getOrder());
+                    flushIfFull();
+                })
+                .match(OrderActor.ItemAddedToOrder.class, itemAdded -> {
+                    batch.itemAdded(itemAdded.getOrder());
+                    flushIfFull();
+                })
+                .match(Flush.class, flush -> flush())
+                .match(Replicator.UpdateSuccess.class, success -> {})
+                .match(Replicator.UpdateFailure.class, failure ->
+                        log.warning("Failed to update the order analytics: " + failure)
+                )
+                .build();
+    }
+
+    private void flushIfFull() {
+        if (batch.size() >= maxBatchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (batch.size() > 0) {
+            store.increment(batch.getIncrements(), getSelf());
+            batch = new Batch();
+        }
+    }
+
+    /**
+     * The increments accumulated from a number of events. Events for the same tenant and server, table or item
+     * collapse into a single increment.
+     */
+    static final class Batch {
+        private final Map<String, Long> increments = new HashMap<>();
+        private int size = 0;
+
+        void orderOpened(Order order) {
+            add(order, OrderAnalytics.ORDERS_BY_SERVER, order.getServer().getName());
+            add(order, OrderAnalytics.ORDERS_BY_TABLE, order.getTable().getNumber());
+            size++;
+        }
+
+        /**
+         * Items are appended to an order, so the item that was added is the last one.
+         */
+        void itemAdded(Order order) {
+            Vector<OrderItem> items = order.getItems();
+
+            if (!items.isEmpty()) {
+                add(order, OrderAnalytics.ITEMS_BY_SERVER, order.getServer().getName());
+                add(order, OrderAnalytics.ITEMS_BY_TABLE, order.getTable().getNumber());
+                add(order, OrderAnalytics.ITEMS_BY_NAME, items.lastElement().getName());
+            }
+
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Map<String, Long> getIncrements() {
+            return new HashMap<>(increments);
+        }
+
+        private void add(Order order, String count, Object key) {
+            increments.merge(OrderAnalytics.counterKey(order.getTenant(), count, key), 1L, Long::sum);
+        }
+    }
+}
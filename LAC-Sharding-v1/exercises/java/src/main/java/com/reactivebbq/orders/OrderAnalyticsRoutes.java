@@ -0,0 +1,49 @@
+package com.reactivebbq.orders;
+
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static akka.http.javadsl.server.PathMatchers.segment;
+
+/**
+ * Serves the order analytics read model. Queries are answered from the analytics store, never from the orders
+ * database. Each tenant only sees its own analytics: the default tenant's are served without a tenant prefix, as the
+ * order routes are, and the others' under the same /tenant prefix as their orders.
+ */
+class OrderAnalyticsRoutes extends AllDirectives {
+
+    private final TenantRegions tenants;
+    private final Function<String, CompletionStage<OrderAnalytics>> analytics;
+
+    OrderAnalyticsRoutes(TenantRegions tenants, Function<String, CompletionStage<OrderAnalytics>> analytics) {
+        this.tenants = tenants;
+        this.analytics = analytics;
+    }
+
+    public Route createRoutes() {
+        return concat(
+                analyticsRoutes(Tenant.DEFAULT),
+                pathPrefix("tenant", () ->
+                        pathPrefix(segment(), this::analyticsRoutes)
+                )
+        );
+    }
+
+    private Route analyticsRoutes(String tenantId) {
+        return path("analytics", () ->
+                get(() ->
+                        tenants.tenant(tenantId)
+                                .map(tenant ->
+                                        onSuccess(analytics.apply(tenant.getId()), result ->
+                                                complete(StatusCodes.OK, result, OrderMarshalling.<OrderAnalytics>marshaller())
+                                        )
+                                )
+                                .orElseGet(() -> complete(StatusCodes.NOT_FOUND, "Unknown Tenant: " + tenantId))
+                )
+        );
+    }
+}
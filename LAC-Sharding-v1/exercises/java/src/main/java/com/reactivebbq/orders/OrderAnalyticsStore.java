@@ -0,0 +1,66 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.ddata.DistributedData;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.PNCounterMap;
+import akka.cluster.ddata.PNCounterMapKey;
+import akka.cluster.ddata.Replicator;
+import akka.cluster.ddata.SelfUniqueAddress;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+import static akka.pattern.Patterns.ask;
+
+/**
+ * Keeps the analytics counters in Distributed Data rather than in the orders database, so reporting queries never
+ * compete with order writes. Every node updates its own replica and the replicas are merged in the background, so
+ * any node can answer a query from memory.
+ */
+class OrderAnalyticsStore {
+    private static final Key<PNCounterMap<String>> KEY = PNCounterMapKey.create("order-analytics");
+
+    private final ActorRef replicator;
+    private final SelfUniqueAddress node;
+    private final Duration timeout;
+
+    OrderAnalyticsStore(ActorSystem system, Duration timeout) {
+        this.replicator = DistributedData.get(system).replicator();
+        this.node = DistributedData.get(system).selfUniqueAddress();
+        this.timeout = timeout;
+    }
+
+    /**
+     * Applies a whole batch of increments as a single update of the local replica.
+     */
+    void increment(Map<String, Long> increments, ActorRef replyTo) {
+        replicator.tell(
+            new Replicator.Update<>(KEY, PNCounterMap.create(), Replicator.writeLocal(), counters -> {
+                PNCounterMap<String> updated = counters;
+                for (Map.Entry<String, Long> increment : increments.entrySet()) {
+                    updated = updated.increment(node, increment.getKey(), increment.getValue());
+                }
+                return updated;
+            }),
+            replyTo
+        );
+    }
+
+    /**
+     * The analytics of the given tenant, read from the local replica.
+     */
+    CompletionStage<OrderAnalytics> read(String tenant) {
+        return ask(replicator, new Replicator.Get<>(KEY, Replicator.readLocal()), timeout).thenApply(reply -> {
+            if (reply instanceof Replicator.GetSuccess) {
+                return OrderAnalytics.fromCounters(tenant, ((Replicator.GetSuccess<?>) reply).get(KEY).getEntries());
+            } else if (reply instanceof Replicator.NotFound) {
+                return OrderAnalytics.empty();
+            } else {
+                throw new IllegalStateException("Unable to read the order analytics: " + reply);
+            }
+        });
+    }
+}
@@ -0,0 +1,373 @@
+package com.reactivebbq.orders;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Closed orders that have been moved out of the orders table. Each archiving run writes its batch of orders as one
+ * immutable segment file. A segment is gzipped and laid out column by column rather than order by order: all of the
+ * ids, then all of the versions, and so on. Similar values end up next to each other, which compresses far better
+ * than rows, and server names, item names and special instructions are dictionary encoded because a menu only has
+ * so many of them.
+ *
+ * The ids come first, so the index of which segment holds which order is built by reading the start of each
+ * segment. Decoded segments are kept in a small LRU cache, since orders archived together tend to be read together.
+ *
+ * Segments are written to a temporary file and moved into place, so readers never see a partial segment. Other
+ * nodes may add segments to a shared directory, so a lookup that misses the index rescans the directory if it has
+ * been modified since it was last scanned.
+ */
+class OrderArchive {
+    private static final int MAGIC = 0x4F524441;
+    private static final int FORMAT_VERSION = 2;
+    private static final String SEGMENT_SUFFIX = ".orders.gz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final Map<OrderId, Path> index = new HashMap<>();
+    private final Set<Path> indexedSegments = new HashSet<>();
+    private final Map<Path, Map<OrderId, Order>> cachedSegments;
+    private FileTime indexedAt = FileTime.fromMillis(Long.MIN_VALUE);
+
+    OrderArchive(Path directory, int cachedSegments) {
+        this.directory = directory;
+        this.cachedSegments = new LinkedHashMap<Path, Map<OrderId, Order>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Map<OrderId, Order>> eldest) {
+                return size() > cachedSegments;
+            }
+        };
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to create the order archive at " + directory, ex);
+        }
+    }
+
+    /**
+     * Writes the orders as a new segment. Only closed orders can be archived.
+     */
+    synchronized Path write(List<Order> orders) {
+        for (Order order : orders) {
+            if (!order.isClosed())
+                throw new IllegalArgumentException("Only closed orders can be archived: " + order.getId());
+        }
+
+        Path segment = directory.resolve(System.currentTimeMillis() + "-" + UUID.randomUUID() + SEGMENT_SUFFIX);
+        Path temporary = directory.resolve(segment.getFileName() + TEMPORARY_SUFFIX);
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+                writeSegment(out, orders);
+            }
+
+            Files.move(temporary, segment, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write the order archive segment " + segment, ex);
+        }
+
+        for (Order order : orders) {
+            index.put(order.getId(), segment);
+        }
+        indexedSegments.add(segment);
+
+        return segment;
+    }
+
+    synchronized Optional<Order> find(OrderId orderId) {
+        Path segment = index.get(orderId);
+
+        if (segment == null && refreshIndex())
+            segment = index.get(orderId);
+
+        if (segment == null)
+            return Optional.empty();
+
+        Map<OrderId, Order> orders = cachedSegments.get(segment);
+
+        if (orders == null) {
+            orders = new HashMap<>();
+            for (Order order : readSegment(segment)) {
+                orders.put(order.getId(), order);
+            }
+            cachedSegments.put(segment, orders);
+        }
+
+        return Optional.ofNullable(orders.get(orderId));
+    }
+
+    synchronized int size() {
+        refreshIndex();
+        return index.size();
+    }
+
+    /**
+     * The modification time is read before listing the directory, so a segment added while the directory is being
+     * listed is picked up by the next refresh.
+     */
+    private boolean refreshIndex() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(directory);
+
+            if (modified.equals(indexedAt))
+                return false;
+
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (Path segment : segments) {
+                    if (indexedSegments.add(segment)) {
+                        for (OrderId orderId : readSegmentIds(segment)) {
+                            index.put(orderId, segment);
+                        }
+                    }
+                }
+            }
+
+            indexedAt = modified;
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to index the order archive at " + directory, ex);
+        }
+    }
+
+    private static void writeSegment(DataOutputStream out, List<Order> orders) throws IOException {
+        List<String> servers = new ArrayList<>();
+        List<String> tenants = new ArrayList<>();
+        List<String> itemNames = new ArrayList<>();
+        List<String> specialInstructions = new ArrayList<>();
+        List<String> idempotencyKeys = new ArrayList<>();
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(orders.size());
+
+        for (Order order : orders) {
+            UUID id = order.getId().getValue();
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+        for (Order order : orders) {
+            out.writeLong(order.getVersion());
+        }
+        for (Order order : orders) {
+            out.writeLong(order.getClosedAt());
+        }
+        for (Order order : orders) {
+            out.writeInt(order.getTable().getNumber());
+            servers.add(order.getServer().getName());
+        }
+        writeDictionaryColumn(out, servers);
+
+        for (Order order : orders) {
+            tenants.add(order.getTenant());
+        }
+        writeDictionaryColumn(out, tenants);
+
+        for (Order order : orders) {
+            out.writeInt(order.getItems().size());
+            for (OrderItem item : order.getItems()) {
+                itemNames.add(item.getName());
+                specialInstructions.add(item.getSpecialInstructions());
+            }
+        }
+        writeDictionaryColumn(out, itemNames);
+        writeDictionaryColumn(out, specialInstructions);
+
+        for (Order order : orders) {
+            out.writeInt(order.getIdempotencyKeys().size());
+            idempotencyKeys.addAll(order.getIdempotencyKeys());
+        }
+        for (String idempotencyKey : idempotencyKeys) {
+            writeString(out, idempotencyKey);
+        }
+    }
+
+    private static List<Order> readSegment(Path segment) {
+        try (DataInputStream in = openSegment(segment)) {
+            int formatVersion = readHeader(in, segment);
+            int count = in.readInt();
+
+            long[] mostSignificantBits = new long[count];
+            long[] leastSignificantBits = new long[count];
+            for (int i = 0; i < count; i++) {
+                mostSignificantBits[i] = in.readLong();
+                leastSignificantBits[i] = in.readLong();
+            }
+
+            long[] versions = new long[count];
+            for (int i = 0; i < count; i++) {
+                versions[i] = in.readLong();
+            }
+
+            long[] closedAt = new long[count];
+            for (int i = 0; i < count; i++) {
+                closedAt[i] = in.readLong();
+            }
+
+            int[] tables = new int[count];
+            for (int i = 0; i < count; i++) {
+                tables[i] = in.readInt();
+            }
+            String[] servers = readDictionaryColumn(in, count);
+
+            String[] tenants;
+            if (formatVersion >= 2) {
+                tenants = readDictionaryColumn(in, count);
+            } else {
+                tenants = new String[count];
+                Arrays.fill(tenants, Tenant.DEFAULT);
+            }
+
+            int[] itemCounts = new int[count];
+            int totalItems = 0;
+            for (int i = 0; i < count; i++) {
+                itemCounts[i] = in.readInt();
+                totalItems += itemCounts[i];
+            }
+            String[] itemNames = readDictionaryColumn(in, totalItems);
+            String[] specialInstructions = readDictionaryColumn(in, totalItems);
+
+            int[] keyCounts = new int[count];
+            for (int i = 0; i < count; i++) {
+                keyCounts[i] = in.readInt();
+            }
+
+            List<Order> orders = new ArrayList<>(count);
+            int item = 0;
+
+            for (int i = 0; i < count; i++) {
+                Vector<OrderItem> items = new Vector<>(itemCounts[i]);
+                for (int j = 0; j < itemCounts[i]; j++, item++) {
+                    items.add(new OrderItem(itemNames[item], specialInstructions[item]));
+                }
+
+                Vector<String> idempotencyKeys = new Vector<>(keyCounts[i]);
+                for (int j = 0; j < keyCounts[i]; j++) {
+                    idempotencyKeys.add(readString(in));
+                }
+
+                orders.add(new Order(
+                    new OrderId(mostSignificantBits[i], leastSignificantBits[i]),
+                    new Server(servers[i]),
+                    new Table(tables[i]),
+                    items,
+                    versions[i],
+                    idempotencyKeys,
+                    closedAt[i],
+                    tenants[i]
+                ));
+            }
+
+            return orders;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read the order archive segment " + segment, ex);
+        }
+    }
+
+    private static List<OrderId> readSegmentIds(Path segment) {
+        try (DataInputStream in = openSegment(segment)) {
+            readHeader(in, segment);
+            int count = in.readInt();
+            List<OrderId> orderIds = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                orderIds.add(new OrderId(in.readLong(), in.readLong()));
+            }
+
+            return orderIds;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read the order archive segment " + segment, ex);
+        }
+    }
+
+    private static DataInputStream openSegment(Path segment) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(segment))));
+    }
+
+    /**
+     * Returns the format version. Version 1 segments were written before orders had a tenant.
+     */
+    private static int readHeader(DataInputStream in, Path segment) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not an order archive segment: " + segment);
+
+        int formatVersion = in.readInt();
+        if (formatVersion < 1 || formatVersion > FORMAT_VERSION)
+            throw new IOException("Unsupported order archive format " + formatVersion + ": " + segment);
+
+        return formatVersion;
+    }
+
+    /**
+     * The distinct values, followed by the position of each row's value among them.
+     */
+    private static void writeDictionaryColumn(DataOutputStream out, List<String> values) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+        for (String value : values) {
+            dictionary.putIfAbsent(value, dictionary.size());
+        }
+
+        out.writeInt(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            writeString(out, value);
+        }
+        for (String value : values) {
+            out.writeInt(dictionary.get(value));
+        }
+    }
+
+    private static String[] readDictionaryColumn(DataInputStream in, int count) throws IOException {
+        String[] dictionary = new String[in.readInt()];
+
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(in);
+        }
+
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dictionary[in.readInt()];
+        }
+
+        return values;
+    }
+
+    /**
+     * Unlike writeUTF, strings are not limited to 64KB once encoded.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
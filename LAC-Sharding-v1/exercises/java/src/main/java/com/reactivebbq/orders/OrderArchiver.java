@@ -0,0 +1,119 @@
+package com.reactivebbq.orders;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+import static akka.pattern.Patterns.pipe;
+
+/**
+ * Periodically moves orders that have been closed for a while from the repository to the {@link OrderArchive}.
+ * Orders are written to the archive before they are deleted, so an order is always in at least one of them. If a
+ * run fails part way, the orders it wrote are archived again by the next run. Closed orders never change, so both
+ * copies are the same.
+ *
+ * Runs as a cluster singleton, so only one node archives at a time. When a run archives a full batch, the next one
+ * starts straight away rather than waiting for the interval, so a backlog is worked off quickly.
+ */
+class OrderArchiver extends AbstractActorWithTimers {
+
+    static Props props(ArchivableOrderRepository repository, OrderArchive archive, Executor executor,
+                       Duration closedFor, Duration interval, int batchSize) {
+        return Props.create(OrderArchiver.class, repository, archive, executor, closedFor, interval, batchSize);
+    }
+
+    static final class Tick {
+        static final Tick INSTANCE = new Tick();
+    }
+
+    static final class Archived {
+        private final int count;
+
+        Archived(int count) {
+            this.count = count;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+    private final ArchivableOrderRepository repository;
+    private final OrderArchive archive;
+    private final Executor executor;
+    private final Duration closedFor;
+    private final Duration interval;
+    private final int batchSize;
+    private final LoggingAdapter log;
+
+    public OrderArchiver(ArchivableOrderRepository repository, OrderArchive archive, Executor executor,
+                         Duration closedFor, Duration interval, int batchSize) {
+        this.repository = repository;
+        this.archive = archive;
+        this.executor = executor;
+        this.closedFor = closedFor;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.log = Logging.getLogger(getContext().getSystem(), this);
+    }
+
+    @Override
+    public void preStart() {
+        getTimers().startTimerWithFixedDelay(Tick.INSTANCE, Tick.INSTANCE, interval);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return idle();
+    }
+
+    private Receive idle() {
+        return receiveBuilder()
+                .match(Tick.class, tick -> {
+                    getContext().become(archiving());
+                    pipe(archiveBatch(), getContext().getDispatcher()).to(getSelf());
+                })
+                .build();
+    }
+
+    private Receive archiving() {
+        return receiveBuilder()
+                .match(Archived.class, archived -> {
+                    if (archived.getCount() > 0)
+                        log.info("Archived " + archived.getCount() + " closed orders");
+
+                    getContext().become(idle());
+
+                    if (archived.getCount() == batchSize)
+                        getSelf().tell(Tick.INSTANCE, getSelf());
+                })
+                .match(Status.Failure.class, failure -> {
+                    log.error(failure.cause(), "Failed to archive closed orders");
+                    getContext().become(idle());
+                })
+                .match(Tick.class, tick -> {})
+                .build();
+    }
+
+    private CompletableFuture<Archived> archiveBatch() {
+        long closedBefore = System.currentTimeMillis() - closedFor.toMillis();
+
+        return repository.findClosedBefore(closedBefore, batchSize).thenComposeAsync(orders -> {
+            if (orders.isEmpty())
+                return CompletableFuture.completedFuture(new Archived(0));
+
+            archive.write(orders);
+
+            List<OrderId> orderIds = orders.stream().map(Order::getId).collect(Collectors.toList());
+            return repository.delete(orderIds).thenApply(deleted -> new Archived(orders.size()));
+        }, executor);
+    }
+}
@@ -1,22 +1,112 @@
 package com.reactivebbq.orders;
 
-import java.util.Objects;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.UUID;
 
+/**
+ * An order id is a UUID, but it is held as its two halves rather than as a {@link UUID}. Ids are parsed, hashed and
+ * printed for every sharded message, so the canonical string is cached and parsing avoids UUID.fromString.
+ */
 public class OrderId {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int CANONICAL_LENGTH = 36;
+
+    // The value of each ASCII hex digit, -1 for anything else. Upper case letters are flagged with 0x10 so the
+    // parser can tell whether the string it was given is already the canonical lower case form.
+    private static final byte[] HEX_VALUES = new byte[128];
+    private static final int UPPER_CASE = 0x10 << 12;
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+
+        for (int i = 0; i < HEX_DIGITS.length; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+
+            if (Character.isLetter(HEX_DIGITS[i])) {
+                HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) (i | 0x10);
+            }
+        }
+    }
+
     public static OrderId fromString(String value) throws IllegalArgumentException {
-        return new OrderId(UUID.fromString(value));
+        if (value == null)
+            throw new IllegalArgumentException("An OrderId requires a value");
+
+        if (value.length() != CANONICAL_LENGTH)
+            return new OrderId(UUID.fromString(value));
+
+        if (value.charAt(8) != '-' || value.charAt(13) != '-' || value.charAt(18) != '-' || value.charAt(23) != '-')
+            throw invalid(value);
+
+        int group0 = parseGroup(value, 0);
+        int group1 = parseGroup(value, 4);
+        int group2 = parseGroup(value, 9);
+        int group3 = parseGroup(value, 14);
+        int group4 = parseGroup(value, 19);
+        int group5 = parseGroup(value, 24);
+        int group6 = parseGroup(value, 28);
+        int group7 = parseGroup(value, 32);
+        int flags = group0 | group1 | group2 | group3 | group4 | group5 | group6 | group7;
+
+        if (flags < 0)
+            throw invalid(value);
+
+        long mostSignificantBits = (long) (group0 & 0xFFFF) << 48 | (long) (group1 & 0xFFFF) << 32 |
+                (long) (group2 & 0xFFFF) << 16 | (group3 & 0xFFFF);
+        long leastSignificantBits = (long) (group4 & 0xFFFF) << 48 | (long) (group5 & 0xFFFF) << 32 |
+                (long) (group6 & 0xFFFF) << 16 | (group7 & 0xFFFF);
+
+        OrderId orderId = new OrderId(mostSignificantBits, leastSignificantBits);
+
+        if ((flags & UPPER_CASE) == 0) {
+            orderId.canonical = value;
+        }
+
+        return orderId;
+    }
+
+    /**
+     * The value is written as a UUID, which CBOR and Smile store as 16 bytes rather than as a string, so it has to be
+     * read back as one.
+     */
+    @JsonCreator
+    static OrderId fromValue(@JsonProperty("value") UUID value) {
+        if (value == null)
+            throw new IllegalArgumentException("An OrderId requires a value");
+
+        return new OrderId(value);
     }
 
-    private UUID value;
+    /**
+     * Retries of an OpenOrder must reach the same entity, so an order opened with an idempotency key gets an id
+     * derived from that key rather than a random one.
+     */
+    public static OrderId fromIdempotencyKey(String idempotencyKey) {
+        return new OrderId(UUID.nameUUIDFromBytes(("order:" + idempotencyKey).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private final long mostSignificantBits;
+    private final long leastSignificantBits;
+
+    // Racy but safe, like String.hash: every thread computes the same immutable string.
+    private String canonical;
 
     public OrderId() {
-        this.value = UUID.randomUUID();
+        this(UUID.randomUUID());
     }
 
     public OrderId(UUID value) {
-        this.value = value;
+        this(value.getMostSignificantBits(), value.getLeastSignificantBits());
+    }
+
+    OrderId(long mostSignificantBits, long leastSignificantBits) {
+        this.mostSignificantBits = mostSignificantBits;
+        this.leastSignificantBits = leastSignificantBits;
     }
 
     @Override
@@ -24,23 +114,87 @@ public class OrderId {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         OrderId orderId = (OrderId) o;
-        return Objects.equals(value, orderId.value);
+        return mostSignificantBits == orderId.mostSignificantBits &&
+                leastSignificantBits == orderId.leastSignificantBits;
     }
 
+    /**
+     * Mixes all 128 bits, so ids whose high bits barely change (time ordered ids, for example) still spread evenly
+     * across hash buckets and shards.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        long hash = mostSignificantBits * 0x9E3779B97F4A7C15L ^ leastSignificantBits;
+        hash = (hash ^ (hash >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (int) (hash ^ (hash >>> 32));
     }
 
     @Override
     public String toString() {
         return "OrderId{" +
-                "value=" + value.toString() +
+                "value=" + asString() +
                 '}';
     }
 
     public UUID getValue() {
-        return value;
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * The canonical form of the id, the same as {@code getValue().toString()}.
+     */
+    public String asString() {
+        String result = canonical;
+
+        if (result == null) {
+            char[] chars = new char[CANONICAL_LENGTH];
+            writeHex(chars, 0, 8, mostSignificantBits >>> 32);
+            chars[8] = '-';
+            writeHex(chars, 9, 13, mostSignificantBits >>> 16);
+            chars[13] = '-';
+            writeHex(chars, 14, 18, mostSignificantBits);
+            chars[18] = '-';
+            writeHex(chars, 19, 23, leastSignificantBits >>> 48);
+            chars[23] = '-';
+            writeHex(chars, 24, 36, leastSignificantBits);
+
+            result = new String(chars);
+            canonical = result;
+        }
+
+        return result;
     }
 
+    /**
+     * Parses four hex digits into the low 16 bits. The result is negative if any of them is not a hex digit, and
+     * has the UPPER_CASE bit set if any of them is an upper case letter. Both are checked once for the whole id
+     * rather than digit by digit, which keeps the parser free of unpredictable branches.
+     */
+    private static int parseGroup(String value, int offset) {
+        char c0 = value.charAt(offset);
+        char c1 = value.charAt(offset + 1);
+        char c2 = value.charAt(offset + 2);
+        char c3 = value.charAt(offset + 3);
+
+        if ((c0 | c1 | c2 | c3) >= HEX_VALUES.length)
+            return -1;
+
+        int h0 = HEX_VALUES[c0];
+        int h1 = HEX_VALUES[c1];
+        int h2 = HEX_VALUES[c2];
+        int h3 = HEX_VALUES[c3];
+
+        return ((h0 | h1 | h2 | h3) & ~0xF) << 12 | (h0 & 0xF) << 12 | (h1 & 0xF) << 8 | (h2 & 0xF) << 4 | (h3 & 0xF);
+    }
+
+    private static void writeHex(char[] chars, int from, int to, long bits) {
+        for (int i = to - 1; i >= from; i--) {
+            chars[i] = HEX_DIGITS[(int) (bits & 0xF)];
+            bits >>>= 4;
+        }
+    }
+
+    private static IllegalArgumentException invalid(String value) {
+        return new IllegalArgumentException("Invalid OrderId: " + value);
+    }
 }
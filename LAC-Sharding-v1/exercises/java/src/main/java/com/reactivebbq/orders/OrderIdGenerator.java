@@ -0,0 +1,73 @@
+package com.reactivebbq.orders;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Generates the ids of orders opened without an idempotency key.
+ *
+ * Random ids are spread across the whole key space, so every insert lands on a different page of the orders
+ * table's primary key index. Time ordered ids are laid out like a version 7 UUID: 48 bits of unix time in
+ * milliseconds, a 12 bit counter, then 62 random bits. Ids opened one after the other are therefore close together
+ * in the index. The shard of an order is computed from a hash that mixes all of its bits, so time ordered ids still
+ * spread evenly across shards.
+ */
+class OrderIdGenerator {
+
+    static Supplier<OrderId> fromConfig(String name) {
+        switch (name) {
+            case "random":
+                return OrderId::new;
+            case "time-ordered":
+                return new TimeOrdered();
+            default:
+                throw new IllegalArgumentException("Unknown order id generator: " + name);
+        }
+    }
+
+    /**
+     * Lock free and monotonic: the timestamp and counter are claimed together with a compare and set. When more than
+     * 4096 ids are generated within a millisecond, or the clock moves backwards, the counter carries into the
+     * timestamp, so ids keep increasing and run slightly ahead of the clock until it catches up.
+     */
+    static final class TimeOrdered implements Supplier<OrderId> {
+        private static final int COUNTER_BITS = 12;
+        private static final long VERSION = 0x7000L;
+        private static final long VARIANT = 0x8000000000000000L;
+
+        private final LongSupplier clock;
+        private final AtomicLong lastTimestampAndCounter = new AtomicLong();
+
+        TimeOrdered() {
+            this(System::currentTimeMillis);
+        }
+
+        TimeOrdered(LongSupplier clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public OrderId get() {
+            long timestampAndCounter = next();
+
+            long timestamp = timestampAndCounter >>> COUNTER_BITS;
+            long counter = timestampAndCounter & ((1L << COUNTER_BITS) - 1);
+            long mostSignificantBits = timestamp << 16 | VERSION | counter;
+            long leastSignificantBits = VARIANT | ThreadLocalRandom.current().nextLong() >>> 2;
+
+            return new OrderId(mostSignificantBits, leastSignificantBits);
+        }
+
+        private long next() {
+            while (true) {
+                long last = lastTimestampAndCounter.get();
+                long next = Math.max(clock.getAsLong() << COUNTER_BITS, last + 1);
+
+                if (lastTimestampAndCounter.compareAndSet(last, next))
+                    return next;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.reactivebbq.orders;
+
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+
+/**
+ * Content negotiation for the orders API. JSON remains the default, while internal callers can ask for
+ * CBOR or Smile through the Accept and Content-Type headers.
+ */
+class OrderMarshalling {
+
+    static final MediaType.Binary APPLICATION_CBOR =
+        MediaTypes.applicationBinary("cbor", MediaTypes.NOT_COMPRESSIBLE);
+
+    static final MediaType.Binary APPLICATION_SMILE =
+        MediaTypes.applicationBinary("x-jackson-smile", MediaTypes.NOT_COMPRESSIBLE);
+
+    enum Format {
+        JSON(ContentTypes.APPLICATION_JSON, new JsonFactory()),
+        CBOR(APPLICATION_CBOR.toContentType(), new CBORFactory()),
+        SMILE(APPLICATION_SMILE.toContentType(), new SmileFactory());
+
+        private final ContentType contentType;
+        private final ObjectMapper objectMapper;
+
+        Format(ContentType contentType, JsonFactory factory) {
+            this.contentType = contentType;
+            this.objectMapper = new ObjectMapper(factory);
+        }
+
+        ContentType getContentType() {
+            return contentType;
+        }
+
+        ObjectMapper getObjectMapper() {
+            return objectMapper;
+        }
+
+        ByteString write(Object value) {
+            try {
+                return ByteString.fromArray(objectMapper.writeValueAsBytes(value));
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Cannot marshal to " + name() + ": " + value, ex);
+            }
+        }
+
+        <T> T read(ByteString bytes, Class<T> expectedType) {
+            try {
+                return objectMapper.readValue(bytes.toArray(), expectedType);
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Cannot unmarshal " + name() + " as " + expectedType.getSimpleName(), ex);
+            }
+        }
+    }
+
+    /**
+     * The first format is used when the client does not express a preference, which keeps JSON the default.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Marshaller<T, RequestEntity> marshaller() {
+        return Marshaller.oneOf(
+            marshaller(Format.JSON),
+            marshaller(Format.CBOR),
+            marshaller(Format.SMILE)
+        );
+    }
+
+    static <T> Marshaller<T, RequestEntity> marshaller(Format format) {
+        return Marshaller.byteStringMarshaller(format.getContentType())
+            .compose((T value) -> format.write(value));
+    }
+
+    /**
+     * Negotiates like {@link #marshaller()}, but serves previously serialized versions of an order from the cache.
+     */
+    @SuppressWarnings("unchecked")
+    static Marshaller<Order, RequestEntity> marshaller(OrderResponseCache cache) {
+        return Marshaller.oneOf(
+            marshaller(Format.JSON, cache),
+            marshaller(Format.CBOR, cache),
+            marshaller(Format.SMILE, cache)
+        );
+    }
+
+    static Marshaller<Order, RequestEntity> marshaller(Format format, OrderResponseCache cache) {
+        return Marshaller.byteStringMarshaller(format.getContentType())
+            .compose((Order order) -> cache.get(order, format));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Unmarshaller<HttpEntity, T> unmarshaller(Class<T> expectedType) {
+        return Unmarshaller.firstOf(
+            unmarshaller(Format.JSON, expectedType),
+            unmarshaller(Format.CBOR, expectedType),
+            unmarshaller(Format.SMILE, expectedType)
+        );
+    }
+
+    static <T> Unmarshaller<HttpEntity, T> unmarshaller(Format format, Class<T> expectedType) {
+        return Unmarshaller.forMediaType(
+            format.getContentType().mediaType(),
+            Unmarshaller.entityToByteString().thenApply(bytes -> format.read(bytes, expectedType))
+        );
+    }
+}
@@ -0,0 +1,33 @@
+package com.reactivebbq.orders;
+
+import java.util.Optional;
+
+public interface OrderMetrics {
+    OrderMetrics NONE = new OrderMetrics() {};
+
+    default void requestAdmitted(String endpoint) {}
+    default void requestRejected(String endpoint) {}
+    default void requestCompleted(String endpoint, long latencyNanos, boolean success) {}
+    default void concurrencyLimit(int limit, int inFlight) {}
+
+    default void tenantRequestThrottled(String tenant, String endpoint) {}
+    default void tenantRequestCompleted(String tenant, String endpoint, long latencyNanos, boolean success) {}
+
+    /**
+     * The entity's backlog after it changed by change commands, so a total can be kept from the changes alone.
+     */
+    default void entityBacklog(OrderId orderId, Optional<Table> table, int depth, int change) {}
+    default void entityOverloaded(OrderId orderId, Optional<Table> table) {}
+
+    default void entityActivated(OrderId orderId) {}
+    default void entityPassivated(OrderId orderId) {}
+
+    default void shardStarted(String region, String shardId) {}
+    default void shardStopped(String region, String shardId) {}
+
+    default void orderOpened(Order order) {}
+    default void itemAdded(Order order) {}
+
+    default void repositoryFind(String repository, long latencyNanos, boolean success) {}
+    default void repositoryUpdate(String repository, long latencyNanos, boolean success) {}
+}
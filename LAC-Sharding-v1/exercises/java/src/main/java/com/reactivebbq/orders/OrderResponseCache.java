@@ -0,0 +1,79 @@
+package com.reactivebbq.orders;
+
+import akka.util.ByteString;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A node-local cache of serialized orders. An order never changes without its version changing, so entries
+ * are keyed by (id, version, format) and never need to be invalidated; old versions simply age out.
+ */
+class OrderResponseCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, ByteString> entries;
+
+    OrderResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, ByteString>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ByteString> eldest) {
+                return size() > OrderResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    ByteString get(Order order, OrderMarshalling.Format format) {
+        Key key = new Key(order.getId(), order.getVersion(), format);
+
+        synchronized (entries) {
+            ByteString cached = entries.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ByteString serialized = format.write(order);
+
+        synchronized (entries) {
+            entries.put(key, serialized);
+        }
+
+        return serialized;
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Key {
+        private final OrderId orderId;
+        private final long version;
+        private final OrderMarshalling.Format format;
+
+        private Key(OrderId orderId, long version, OrderMarshalling.Format format) {
+            this.orderId = orderId;
+            this.version = version;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return version == key.version &&
+                    Objects.equals(orderId, key.orderId) &&
+                    format == key.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orderId, version, format);
+        }
+    }
+}
@@ -1,15 +1,21 @@
 package com.reactivebbq.orders;
 
 import akka.actor.ActorRef;
-import akka.http.javadsl.marshallers.jackson.Jackson;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.RetryAfter;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.ExceptionHandler;
 import akka.http.javadsl.server.Route;
+import akka.pattern.AskTimeoutException;
 
 import java.time.Duration;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static akka.pattern.Patterns.ask;
 
@@ -17,16 +23,67 @@ import static akka.http.javadsl.server.PathMatchers.segment;
 
 class OrderRoutes extends AllDirectives {
 
-    private final ActorRef orderActors;
+    private final TenantRegions tenants;
     private final Duration timeout = Duration.ofSeconds(5);
     private final ExceptionHandler handleExceptions;
+    private final OrderResponseCache responseCache;
+    private final AdmissionController admissionController;
+    private final OrderMetrics metrics;
+    private final Supplier<CompletionStage<ShardAllocation>> shardAllocation;
+    private final Supplier<OrderId> newOrderId;
 
     public OrderRoutes(ActorRef orderActors) {
-        this.orderActors = orderActors;
+        this(orderActors, new OrderResponseCache(1000), AdmissionController.unlimited(), OrderMetrics.NONE);
+    }
+
+    public OrderRoutes(ActorRef orderActors,
+                       OrderResponseCache responseCache,
+                       AdmissionController admissionController,
+                       OrderMetrics metrics) {
+        this(orderActors, responseCache, admissionController, metrics, () ->
+                CompletableFuture.failedFuture(new IllegalStateException("Shard allocation is not available"))
+        );
+    }
+
+    public OrderRoutes(ActorRef orderActors,
+                       OrderResponseCache responseCache,
+                       AdmissionController admissionController,
+                       OrderMetrics metrics,
+                       Supplier<CompletionStage<ShardAllocation>> shardAllocation) {
+        this(orderActors, responseCache, admissionController, metrics, shardAllocation, OrderId::new);
+    }
+
+    public OrderRoutes(ActorRef orderActors,
+                       OrderResponseCache responseCache,
+                       AdmissionController admissionController,
+                       OrderMetrics metrics,
+                       Supplier<CompletionStage<ShardAllocation>> shardAllocation,
+                       Supplier<OrderId> newOrderId) {
+        this(TenantRegions.single(orderActors), responseCache, admissionController, metrics, shardAllocation, newOrderId);
+    }
+
+    public OrderRoutes(TenantRegions tenants,
+                       OrderResponseCache responseCache,
+                       AdmissionController admissionController,
+                       OrderMetrics metrics,
+                       Supplier<CompletionStage<ShardAllocation>> shardAllocation,
+                       Supplier<OrderId> newOrderId) {
+        this.tenants = tenants;
+        this.responseCache = responseCache;
+        this.admissionController = admissionController;
+        this.metrics = metrics;
+        this.shardAllocation = shardAllocation;
+        this.newOrderId = newOrderId;
         this.handleExceptions = ExceptionHandler.newBuilder()
                 .match(OrderActor.OrderNotFoundException.class, ex ->
                         complete(StatusCodes.NOT_FOUND, ex.getMessage())
                 )
+                .match(OrderActor.OrderOverloadedException.class, ex ->
+                        overloaded()
+                )
+                .match(OrderActor.OrderClosedException.class, ex ->
+                        complete(StatusCodes.CONFLICT, ex.getMessage())
+                )
                 .matchAny(ex ->
                         complete(StatusCodes.INTERNAL_SERVER_ERROR, ex.getMessage())
                 )
@@ -35,12 +92,35 @@ class OrderRoutes extends AllDirectives {
 
     public Route createRoutes() {
         return handleExceptions(handleExceptions, () ->
-                pathPrefix("order", () ->
+                concat(
+                        path("shards", () ->
+                                get(() ->
+                                        onSuccess(shardAllocation.get(), allocation ->
+                                                complete(StatusCodes.OK, allocation, OrderMarshalling.<ShardAllocation>marshaller())
+                                        )
+                                )
+                        ),
+                        orderRoutes(Tenant.DEFAULT),
+                        pathPrefix("tenant", () ->
+                                pathPrefix(segment(), tenantId ->
+                                        orderRoutes(tenantId)
+                                )
+                        )
+                )
+        );
+    }
+
+    /**
+     * Routes of the default tenant are served without a tenant prefix.
+     */
+    private Route orderRoutes(String tenantId) {
+        return pathPrefix("order", () ->
+                withTenant(tenantId, tenant ->
                         concat(
                                 pathEndOrSingleSlash(() ->
                                         post(() ->
-                                                entity(Jackson.unmarshaller(OrderActor.OpenOrder.class), cmd ->
-                                                        openOrder(cmd)
+                                                entity(OrderMarshalling.unmarshaller(OrderActor.OpenOrder.class), cmd ->
+                                                        openOrder(tenant, cmd)
                                                 )
                                         )
                                 ),
@@ -50,18 +130,24 @@ class OrderRoutes extends AllDirectives {
                                                         pathEndOrSingleSlash(() ->
                                                                 post(() ->
                                                                         entity(
-                                                                                Jackson.unmarshaller(OrderActor.AddItemToOrder.class), cmd ->
-                                                                                        addItemToOrder(OrderId.fromString(orderId), cmd)
+                                                                                OrderMarshalling.unmarshaller(OrderActor.AddItemToOrder.class), cmd ->
+                                                                                        addItemToOrder(tenant, OrderId.fromString(orderId), cmd)
                                                                         )
                                                                 )
                                                         )
                                                 ),
+                                                pathPrefix("close", () ->
+                                                        pathEndOrSingleSlash(() ->
+                                                                post(() ->
+                                                                        closeOrder(tenant, OrderId.fromString(orderId))
+                                                                )
+                                                        )
+                                                ),
                                                 pathEndOrSingleSlash(() ->
                                                         get(() ->
-                                                                findOrder(OrderId.fromString(orderId))
+                                                                findOrder(tenant, OrderId.fromString(orderId))
                                                         )
                                                 )
-
                                         )
                                 )
                         )
@@ -69,37 +155,124 @@ class OrderRoutes extends AllDirectives {
         );
     }
 
+    private Route withTenant(String tenantId, Function<Tenant, Route> inner) {
+        return tenants.tenant(tenantId)
+                .map(inner)
+                .orElseGet(() -> complete(StatusCodes.NOT_FOUND, "Unknown Tenant: " + tenantId));
+    }
+
     private Route onComplete(CompletionStage<Order> result) {
         return onComplete(result, maybeResult ->
                 maybeResult.map(order ->
-                        complete(StatusCodes.OK, order, Jackson.<Order>marshaller())
+                        respondWithHeader(ETag.create(entityTag(order)), () ->
+                                complete(StatusCodes.OK, order, OrderMarshalling.marshaller(responseCache))
+                        )
                 ).get()
         );
     }
 
-    private Route openOrder(OrderActor.OpenOrder cmd) {
-        OrderId orderId = new OrderId();
+    /**
+     * Answers If-None-Match with a 304 before the order is marshalled.
+     */
+    private Route onCompleteConditional(CompletionStage<Order> result) {
+        return onComplete(result, maybeResult ->
+                maybeResult.map(order ->
+                        conditional(entityTag(order), () ->
+                                complete(StatusCodes.OK, order, OrderMarshalling.marshaller(responseCache))
+                        )
+                ).get()
+        );
+    }
+
+    /**
+     * The tag is weak because every negotiated format of the same order version shares it.
+     */
+    static EntityTag entityTag(Order order) {
+        return EntityTag.create(order.getId().asString() + "-" + order.getVersion(), true);
+    }
+
+    /**
+     * Turns the request away with a 429 when the tenant is over its quota, and sheds it with a 503 when the admission
+     * controller is over its limit. Otherwise asks the tenant's order actors and feeds the observed latency back into
+     * the controller. The quota is checked first, so a tenant over its quota doesn't use up the shared limit.
+     */
+    private Route admit(Tenant tenant, String endpoint, OrderActor.Envelope envelope, Function<CompletionStage<Object>, Route> respond) {
+        if (!tenant.getQuota().tryAcquire()) {
+            metrics.tenantRequestThrottled(tenant.getId(), endpoint);
+            return throttled(tenant);
+        }
+
+        if (!admissionController.tryAcquire()) {
+            metrics.requestRejected(endpoint);
+            return overloaded();
+        }
+
+        metrics.requestAdmitted(endpoint);
+
+        long start = System.nanoTime();
+        CompletionStage<Object> objectCompletionStage = ask(tenants.region(tenant), envelope, timeout).whenComplete((result, ex) -> {
+            long latency = System.nanoTime() - start;
+            boolean overloaded = ex instanceof AskTimeoutException || ex instanceof OrderActor.OrderOverloadedException;
+            admissionController.release(latency, overloaded);
+            metrics.requestCompleted(endpoint, latency, ex == null);
+            metrics.tenantRequestCompleted(tenant.getId(), endpoint, latency, ex == null);
+            metrics.concurrencyLimit(admissionController.getLimit(), admissionController.getInFlight());
+        });
+
+        return respond.apply(objectCompletionStage);
+    }
+
+    private Route overloaded() {
+        long retryAfterSeconds = Math.max(1, admissionController.getRetryAfter().getSeconds());
+
+        return respondWithHeader(RetryAfter.create(retryAfterSeconds), () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE, "Service Overloaded")
+        );
+    }
+
+    private Route throttled(Tenant tenant) {
+        long retryAfterSeconds = Math.max(1, (tenant.getQuota().getRetryAfter().toMillis() + 999) / 1000);
+
+        return respondWithHeader(RetryAfter.create(retryAfterSeconds), () ->
+                complete(StatusCodes.TOO_MANY_REQUESTS, "Tenant Quota Exceeded: " + tenant.getId())
+        );
+    }
+
+    private Route openOrder(Tenant tenant, OrderActor.OpenOrder cmd) {
+        OrderId orderId = cmd.getIdempotencyKey() == null ? newOrderId.get() : tenant.orderIdFor(cmd.getIdempotencyKey());
         OrderActor.Envelope envelope = new OrderActor.Envelope(orderId, cmd);
-        CompletionStage<Object> objectCompletionStage = ask(orderActors, envelope, timeout);
-        CompletionStage<OrderActor.OrderOpened> orderOpenedCompletionStage = objectCompletionStage.thenApply(object -> (OrderActor.OrderOpened) object);
-        CompletionStage<Order> orderCompletionStage = orderOpenedCompletionStage.thenApply(orderOpened -> orderOpened.getOrder());
-        return onComplete(orderCompletionStage);
+        return admit(tenant, "open-order", envelope, objectCompletionStage -> {
+            CompletionStage<OrderActor.OrderOpened> orderOpenedCompletionStage = objectCompletionStage.thenApply(object -> (OrderActor.OrderOpened) object);
+            CompletionStage<Order> orderCompletionStage = orderOpenedCompletionStage.thenApply(orderOpened -> orderOpened.getOrder());
+            return onComplete(orderCompletionStage);
+        });
     }
 
-    private Route findOrder(OrderId orderId) {
+    private Route findOrder(Tenant tenant, OrderId orderId) {
         OrderActor.GetOrder getOrder = new OrderActor.GetOrder();
         OrderActor.Envelope envelope = new OrderActor.Envelope(orderId, getOrder);
-        CompletionStage<Object> objectCompletionStage = ask(orderActors, envelope, timeout);
-        CompletionStage<Order> orderCompletionStage = objectCompletionStage.thenApply(object -> (Order) object);
-        return onComplete(orderCompletionStage);
+        return admit(tenant, "find-order", envelope, objectCompletionStage -> {
+            CompletionStage<Order> orderCompletionStage = objectCompletionStage.thenApply(object -> (Order) object);
+            return onCompleteConditional(orderCompletionStage);
+        });
     }
 
-    private Route addItemToOrder(OrderId orderId, OrderActor.AddItemToOrder cmd) {
+    private Route addItemToOrder(Tenant tenant, OrderId orderId, OrderActor.AddItemToOrder cmd) {
         OrderActor.Envelope envelope = new OrderActor.Envelope(orderId, cmd);
-        CompletionStage<Object> objectCompletionStage = ask(orderActors, envelope, timeout);
-        CompletionStage<OrderActor.ItemAddedToOrder> itemAddedCompletionStage = objectCompletionStage.thenApply(object -> (OrderActor.ItemAddedToOrder) object);
-        CompletionStage<Order> orderCompletionStage = itemAddedCompletionStage.thenApply(itemAddedToOrder -> itemAddedToOrder.getOrder());
-        return onComplete(orderCompletionStage);
+        return admit(tenant, "add-item", envelope, objectCompletionStage -> {
+            CompletionStage<OrderActor.ItemAddedToOrder> itemAddedCompletionStage = objectCompletionStage.thenApply(object -> (OrderActor.ItemAddedToOrder) object);
+            CompletionStage<Order> orderCompletionStage = itemAddedCompletionStage.thenApply(itemAddedToOrder -> itemAddedToOrder.getOrder());
+            return onComplete(orderCompletionStage);
+        });
+    }
+
+    private Route closeOrder(Tenant tenant, OrderId orderId) {
+        OrderActor.Envelope envelope = new OrderActor.Envelope(orderId, new OrderActor.CloseOrder());
+        return admit(tenant, "close-order", envelope, objectCompletionStage -> {
+            CompletionStage<OrderActor.OrderClosed> orderClosedCompletionStage = objectCompletionStage.thenApply(object -> (OrderActor.OrderClosed) object);
+            CompletionStage<Order> orderCompletionStage = orderClosedCompletionStage.thenApply(orderClosed -> orderClosed.getOrder());
+            return onComplete(orderCompletionStage);
+        });
     }
 
 }
@@ -0,0 +1,342 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.event.LoggingAdapter;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.StatusCode;
+import akka.stream.Materializer;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A client for the orders API.
+ *
+ * Requests go through Akka HTTP's pooled connections to a node chosen by a {@link NodeSelector}. Failed requests are
+ * retried on another node after an exponential {@link Backoff}. Reads can additionally be hedged: if a find has not
+ * answered within the recent p95 latency, a second request is sent to another node and the first answer wins.
+ *
+ * Writes are only retried because they carry an idempotency key, which the service uses to ignore duplicates.
+ *
+ * When shard routing is enabled, requests for an order go straight to the node that owns its shard, saving the hop
+ * from a random node to the owner. The {@link ShardMap} is refreshed from every node's /shards endpoint whenever a
+ * request misses it.
+ */
+public class OrdersClient {
+
+    private final ActorSystem system;
+    private final Http http;
+    private final Materializer materializer;
+    private final Executor executor;
+    private final LoggingAdapter log;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final NodeSelector nodes;
+    private final Backoff backoff;
+    private final int maxAttempts;
+    private final Duration requestTimeout;
+
+    private final boolean hedgingEnabled;
+    private final double hedgingPercentile;
+    private final Duration initialHedgeDelay;
+    private final Duration minHedgeDelay;
+    private final LatencyWindow findLatencies;
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final ShardMap shardMap = new ShardMap();
+    private final boolean shardRoutingEnabled;
+    private final long minRefreshNanos;
+    private final AtomicLong lastRefresh = new AtomicLong(NEVER);
+
+    public OrdersClient(ActorSystem system) {
+        this(system, system.settings().config().getConfig("orders-client"));
+    }
+
+    public OrdersClient(ActorSystem system, Config config) {
+        this.system = system;
+        this.http = Http.get(system);
+        this.materializer = Materializer.createMaterializer(system);
+        this.executor = system.dispatcher();
+        this.log = system.log();
+
+        List<String> addresses = config.getStringList("nodes");
+
+        this.nodes = new NodeSelector(
+            addresses,
+            config.getInt("health.failure-threshold"),
+            config.getDuration("health.cooldown")
+        );
+        this.backoff = new Backoff(
+            config.getDuration("retry.min-backoff"),
+            config.getDuration("retry.max-backoff")
+        );
+        this.maxAttempts = config.getInt("retry.max-attempts");
+        this.requestTimeout = config.getDuration("request-timeout");
+
+        this.hedgingEnabled = config.getBoolean("hedging.enabled") && addresses.size() > 1;
+        this.hedgingPercentile = config.getDouble("hedging.percentile");
+        this.initialHedgeDelay = config.getDuration("hedging.initial-delay");
+        this.minHedgeDelay = config.getDuration("hedging.min-delay");
+        this.findLatencies = new LatencyWindow(
+            config.getInt("hedging.window-size"),
+            config.getInt("hedging.min-samples")
+        );
+
+        this.shardRoutingEnabled = config.getBoolean("shard-routing.enabled");
+        this.minRefreshNanos = config.getDuration("shard-routing.min-refresh-interval").toNanos();
+
+        if (shardRoutingEnabled) {
+            refreshShardMap();
+        }
+    }
+
+    public CompletableFuture<Order> openOrder(Server server, Table table) {
+        OrderActor.OpenOrder command = new OrderActor.OpenOrder(server, table, newIdempotencyKey());
+        OrderId orderId = OrderId.fromIdempotencyKey(command.getIdempotencyKey());
+        String json = toJson(command);
+
+        return withRetries(() -> send(nodeFor(orderId), node ->
+            HttpRequest.POST(node + "/order").withEntity(ContentTypes.APPLICATION_JSON, json)
+        ), 0);
+    }
+
+    public CompletableFuture<Order> addItem(OrderId orderId, OrderItem item) {
+        OrderActor.AddItemToOrder command = new OrderActor.AddItemToOrder(item, newIdempotencyKey());
+        String json = toJson(command);
+
+        return withRetries(() -> send(nodeFor(orderId), node ->
+            HttpRequest.POST(node + "/order/" + orderId.asString() + "/items").withEntity(ContentTypes.APPLICATION_JSON, json)
+        ), 0);
+    }
+
+    /**
+     * Closing an order is idempotent, so it is safe to retry without an idempotency key.
+     */
+    public CompletableFuture<Order> closeOrder(OrderId orderId) {
+        return withRetries(() -> send(nodeFor(orderId), node ->
+            HttpRequest.POST(node + "/order/" + orderId.asString() + "/close")
+        ), 0);
+    }
+
+    public CompletableFuture<Order> findOrder(OrderId orderId) {
+        Function<String, HttpRequest> request = node -> HttpRequest.GET(node + "/order/" + orderId.asString());
+
+        return withRetries(() -> hedgingEnabled ? hedged(nodeFor(orderId), request) : find(nodeFor(orderId), request), 0);
+    }
+
+    public void close() {
+        materializer.shutdown();
+    }
+
+    private static String newIdempotencyKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    private String toJson(OrderActor.Command command) {
+        try {
+            return objectMapper.writeValueAsString(command);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Failed to serialize command: " + command, ex);
+        }
+    }
+
+    private <T> T parse(StatusCode status, ByteString body, Class<T> expectedType) {
+        if (!status.isSuccess())
+            throw new OrdersClientException(status.intValue(), body.utf8String());
+
+        try {
+            return objectMapper.readValue(body.toArray(), expectedType);
+        } catch (IOException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    private String nodeFor(OrderId orderId) {
+        if (shardRoutingEnabled) {
+            Optional<String> owner = shardMap.ownerOf(orderId).filter(nodes::isHealthy);
+
+            if (owner.isPresent())
+                return owner.get();
+
+            refreshShardMap();
+        }
+
+        return nodes.select();
+    }
+
+    /**
+     * Asks every node which shards it hosts. Refreshes are rate limited, so a burst of misses (for example while
+     * shards are rebalancing) results in a single refresh.
+     */
+    private void refreshShardMap() {
+        long now = System.nanoTime();
+        long last = lastRefresh.get();
+
+        if (last != NEVER && now - last < minRefreshNanos)
+            return;
+
+        if (!lastRefresh.compareAndSet(last, now))
+            return;
+
+        for (String node : nodes.getAddresses()) {
+            http.singleRequest(HttpRequest.GET(node + "/shards"))
+                .thenComposeAsync(response ->
+                    response.entity()
+                        .toStrict(requestTimeout.toMillis(), materializer)
+                        .thenApply(entity -> parse(response.status(), entity.getData(), ShardAllocation.class)),
+                    executor
+                )
+                .whenComplete((allocation, ex) -> {
+                    if (ex == null) {
+                        shardMap.update(allocation);
+                    } else {
+                        log.debug("Unable to refresh the shards of " + node + ": " + unwrap(ex).getMessage());
+                        shardMap.forget(node);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Sends a single request and feeds the outcome into the health of the node. Any answer other than a server
+     * error means the node is healthy, even if the answer is a 404.
+     */
+    private CompletableFuture<Order> send(String node, Function<String, HttpRequest> request) {
+        return http.singleRequest(request.apply(node))
+            .thenComposeAsync(response ->
+                response.entity()
+                    .toStrict(requestTimeout.toMillis(), materializer)
+                    .thenApply(entity -> parse(response.status(), entity.getData(), Order.class)),
+                executor
+            )
+            .toCompletableFuture()
+            .orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+            .whenComplete((order, ex) -> {
+                if (ex == null || !isRetryable(unwrap(ex))) {
+                    nodes.recordSuccess(node);
+                } else {
+                    nodes.recordFailure(node);
+                    shardMap.forget(node);
+                }
+            });
+    }
+
+    private CompletableFuture<Order> find(String node, Function<String, HttpRequest> request) {
+        long start = System.nanoTime();
+
+        return send(node, request).whenComplete((order, ex) -> {
+            if (ex == null) {
+                findLatencies.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * Completes with the first successful answer, or with a failure once every request that was sent has failed.
+     * The hedge is not sent at all if the primary request finishes first.
+     */
+    private CompletableFuture<Order> hedged(String primary, Function<String, HttpRequest> request) {
+        CompletableFuture<Order> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+
+        BiConsumer<Order, Throwable> completeResult = (order, ex) -> {
+            if (ex == null) {
+                result.complete(order);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(unwrap(ex));
+            }
+        };
+
+        find(primary, request).whenComplete(completeResult);
+
+        Cancellable hedge = system.scheduler().scheduleOnce(hedgeDelay(), () -> {
+            if (!result.isDone()) {
+                pending.incrementAndGet();
+                String secondary = nodes.select(primary);
+                log.debug("Hedging find on " + secondary + " after no answer from " + primary);
+                find(secondary, request).whenComplete(completeResult);
+            }
+        }, system.dispatcher());
+
+        result.whenComplete((order, ex) -> hedge.cancel());
+
+        return result;
+    }
+
+    private Duration hedgeDelay() {
+        Duration delay = findLatencies.percentile(hedgingPercentile).orElse(initialHedgeDelay);
+        return delay.compareTo(minHedgeDelay) < 0 ? minHedgeDelay : delay;
+    }
+
+    private CompletableFuture<Order> withRetries(Supplier<CompletableFuture<Order>> attempt, int failedAttempts) {
+        return attempt.get()
+            .handle((order, ex) -> {
+                if (ex == null)
+                    return CompletableFuture.completedFuture(order);
+
+                Throwable cause = unwrap(ex);
+
+                if (!isRetryable(cause) || failedAttempts + 1 >= maxAttempts)
+                    return CompletableFuture.<Order>failedFuture(cause);
+
+                Duration delay = backoff.delay(failedAttempts);
+                log.warning("Request failed (" + cause.getMessage() + "). Retrying in " + delay.toMillis() + " ms.");
+
+                return after(delay, () -> withRetries(attempt, failedAttempts + 1));
+            })
+            .thenCompose(future -> future);
+    }
+
+    private <T> CompletableFuture<T> after(Duration delay, Supplier<CompletableFuture<T>> next) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        system.scheduler().scheduleOnce(delay, () ->
+            next.get().whenComplete((value, ex) -> {
+                if (ex == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            }), system.dispatcher());
+
+        return result;
+    }
+
+    private static boolean isRetryable(Throwable ex) {
+        if (ex instanceof OrdersClientException)
+            return ((OrdersClientException) ex).isRetryable();
+
+        return !(ex instanceof IllegalArgumentException);
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        Throwable cause = ex;
+
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        return cause;
+    }
+}
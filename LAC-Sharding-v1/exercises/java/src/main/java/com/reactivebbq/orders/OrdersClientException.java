@@ -0,0 +1,38 @@
+package com.reactivebbq.orders;
+
+import java.util.Objects;
+
+/**
+ * A response from the orders service that was not a success. Server errors (including 503 Service Overloaded) are
+ * worth retrying on another node, client errors are not.
+ */
+public class OrdersClientException extends RuntimeException {
+    private final int statusCode;
+
+    public OrdersClientException(int statusCode, String message) {
+        super(statusCode + ": " + message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isRetryable() {
+        return statusCode >= 500;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OrdersClientException that = (OrdersClientException) o;
+        return statusCode == that.statusCode &&
+                Objects.equals(getMessage(), that.getMessage());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(statusCode, getMessage());
+    }
+}
@@ -0,0 +1,82 @@
+package com.reactivebbq.orders;
+
+import akka.util.ByteString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Vector;
+
+public class PayloadBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(PayloadBenchmark.class);
+
+    private static final int warmupIterations = 20000;
+    private static final int measuredIterations = 100000;
+
+    public static void main(String[] args) {
+        Order order = typicalOrder();
+
+        logger.info(String.format("%-6s %10s %14s %14s", "FORMAT", "BYTES", "ENCODE ns/op", "DECODE ns/op"));
+
+        for (OrderMarshalling.Format format : OrderMarshalling.Format.values()) {
+            ByteString encoded = format.write(order);
+
+            run(format, order, encoded, warmupIterations);
+
+            long encodeNanos = timeEncode(format, order, measuredIterations);
+            long decodeNanos = timeDecode(format, encoded, measuredIterations);
+
+            logger.info(String.format("%-6s %10d %14d %14d",
+                format.name(),
+                encoded.size(),
+                encodeNanos / measuredIterations,
+                decodeNanos / measuredIterations));
+        }
+    }
+
+    private static Order typicalOrder() {
+        Vector<OrderItem> items = new Vector<>();
+        items.add(new OrderItem("Steak", "Medium Rare"));
+        items.add(new OrderItem("Salad", "No Croutons"));
+        items.add(new OrderItem("Milk", "None"));
+        items.add(new OrderItem("Cheesecake", "Extra Strawberries"));
+
+        return new Order(new OrderId(), new Server("Server"), new Table(5), items);
+    }
+
+    private static void run(OrderMarshalling.Format format, Order order, ByteString encoded, int iterations) {
+        timeEncode(format, order, iterations);
+        timeDecode(format, encoded, iterations);
+    }
+
+    private static long timeEncode(OrderMarshalling.Format format, Order order, int iterations) {
+        long size = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            size += format.write(order).size();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        consume(size);
+        return elapsed;
+    }
+
+    private static long timeDecode(OrderMarshalling.Format format, ByteString encoded, int iterations) {
+        long items = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            items += format.read(encoded, Order.class).getItems().size();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        consume(items);
+        return elapsed;
+    }
+
+    private static void consume(long value) {
+        if (value == Long.MIN_VALUE) {
+            logger.debug("Unexpected benchmark result");
+        }
+    }
+}
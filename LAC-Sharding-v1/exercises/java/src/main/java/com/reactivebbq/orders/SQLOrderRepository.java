@@ -1,6 +1,7 @@
 package com.reactivebbq.orders;
 
 import javax.persistence.*;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -10,7 +11,7 @@ import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-public class SQLOrderRepository implements OrderRepository {
+public class SQLOrderRepository implements ArchivableOrderRepository {
 
     private EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory("reactivebbq.Orders");
     private ThreadLocal<EntityManager> threadLocalEntityManager = new ThreadLocal<>();
@@ -33,10 +34,41 @@ public class SQLOrderRepository implements OrderRepository {
     public CompletableFuture<Optional<Order>> find(OrderId orderId) {
         return CompletableFuture.supplyAsync(() -> transaction(em -> Optional.ofNullable(
             em.find(OrderDBO.class, orderId.getValue())
-        ).map(this::dboToOrder)), executor);
+        ).map(SQLOrderRepository::dboToOrder)), executor);
     }
 
-    private Order dboToOrder(OrderDBO dbo) {
+    @Override
+    public CompletableFuture<List<Order>> findClosedBefore(long closedBeforeMillis, int limit) {
+        return CompletableFuture.supplyAsync(() -> transaction(em -> em
+            .createQuery("SELECT o FROM OrderDBO o WHERE o.closedAt < :closedBefore ORDER BY o.closedAt", OrderDBO.class)
+            .setParameter("closedBefore", closedBeforeMillis)
+            .setMaxResults(limit)
+            .getResultList()
+            .stream()
+            .map(SQLOrderRepository::dboToOrder)
+            .collect(Collectors.toList())
+        ), executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(List<OrderId> orderIds) {
+        return CompletableFuture.supplyAsync(() -> transaction(em -> {
+            int deleted = 0;
+
+            for (OrderId orderId : orderIds) {
+                OrderDBO dbo = em.find(OrderDBO.class, orderId.getValue());
+
+                if (dbo != null) {
+                    em.remove(dbo);
+                    deleted++;
+                }
+            }
+
+            return deleted;
+        }), executor);
+    }
+
+    static Order dboToOrder(OrderDBO dbo) {
         OrderId orderId = new OrderId(dbo.getId());
         Server server = new Server(dbo.getServerName());
         Table table = new Table(dbo.getTableNumber());
@@ -46,7 +78,7 @@ public class SQLOrderRepository implements OrderRepository {
             items.add(new OrderItem(item.getName(), item.getSpecialInstructions()));
         }
 
-        return new Order(orderId, server, table, items);
+        return new Order(orderId, server, table, items, dbo.getVersion(), dbo.getIdempotencyKeys(), dbo.getClosedAt(), dbo.getTenant());
     }
 
     private EntityManager getEntityManager() {
@@ -89,7 +121,7 @@ class OrderItemDBO {
 }
 
 @Entity
-@javax.persistence.Table(name = "orders")
+@javax.persistence.Table(name = "orders", indexes = @Index(name = "orders_closed_at", columnList = "closedAt"))
 class OrderDBO {
 
     @Id
@@ -97,6 +129,12 @@ class OrderDBO {
 
     private String serverName;
     private int tableNumber;
+    private Long version;
+    private Long closedAt;
+    private String tenant;
+
+    @Column(length = 2048)
+    private String idempotencyKeys;
 
     @ElementCollection(targetClass = OrderItemDBO.class)
     private List<OrderItemDBO> items;
@@ -105,6 +143,10 @@ class OrderDBO {
         id = order.getId().getValue();
         serverName = order.getServer().getName();
         tableNumber = order.getTable().getNumber();
+        version = order.getVersion();
+        closedAt = order.getClosedAt();
+        tenant = order.getTenant();
+        idempotencyKeys = String.join(",", order.getIdempotencyKeys());
         items = order
                 .getItems()
                 .stream()
@@ -126,6 +168,25 @@ class OrderDBO {
         return tableNumber;
     }
 
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    public Long getClosedAt() {
+        return closedAt;
+    }
+
+    public String getTenant() {
+        return tenant == null ? Tenant.DEFAULT : tenant;
+    }
+
+    public Vector<String> getIdempotencyKeys() {
+        if (idempotencyKeys == null || idempotencyKeys.isEmpty())
+            return new Vector<>();
+
+        return new Vector<>(Arrays.asList(idempotencyKeys.split(",")));
+    }
+
     public List<OrderItemDBO> getItems() {
         return items;
     }
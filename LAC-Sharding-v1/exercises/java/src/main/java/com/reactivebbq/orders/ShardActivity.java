@@ -0,0 +1,72 @@
+package com.reactivebbq.orders;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reports the shards of a region that start and stop on this node. OrderActors are started and stopped as orders are
+ * used and passivated, so their activations don't show rebalancing; the shards do.
+ *
+ * The region is asked for its shards every interval, and the shards that appeared or disappeared since the previous
+ * answer are reported. A shard that moves away and back within one interval is not seen.
+ */
+class ShardActivity extends AbstractActorWithTimers {
+
+    static Props props(ActorRef region, String regionName, OrderMetrics metrics, Duration interval) {
+        return Props.create(ShardActivity.class, region, regionName, metrics, interval);
+    }
+
+    static final class Tick {
+        static final Tick INSTANCE = new Tick();
+    }
+
+    private final ActorRef region;
+    private final String regionName;
+    private final OrderMetrics metrics;
+    private final Duration interval;
+    private Set<String> shards = new HashSet<>();
+
+    public ShardActivity(ActorRef region, String regionName, OrderMetrics metrics, Duration interval) {
+        this.region = region;
+        this.regionName = regionName;
+        this.metrics = metrics;
+        this.interval = interval;
+    }
+
+    @Override
+    public void preStart() {
+        getTimers().startTimerWithFixedDelay(Tick.INSTANCE, Tick.INSTANCE, interval);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Tick.class, tick -> region.tell(ShardRegion.getShardRegionStateInstance(), getSelf()))
+                .match(ShardRegion.CurrentShardRegionState.class, state -> {
+                    Set<String> current = new HashSet<>();
+
+                    for (ShardRegion.ShardState shard : state.getShards()) {
+                        current.add(shard.shardId());
+                    }
+
+                    for (String shardId : current) {
+                        if (!shards.contains(shardId))
+                            metrics.shardStarted(regionName, shardId);
+                    }
+
+                    for (String shardId : shards) {
+                        if (!current.contains(shardId))
+                            metrics.shardStopped(regionName, shardId);
+                    }
+
+                    shards = current;
+                })
+                .build();
+    }
+}
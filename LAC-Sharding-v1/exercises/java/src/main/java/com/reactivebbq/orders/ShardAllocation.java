@@ -0,0 +1,60 @@
+package com.reactivebbq.orders;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The shards of the orders region hosted by one node, along with the HTTP address clients can reach that node on.
+ */
+public class ShardAllocation {
+    private final String node;
+    private final int maxShards;
+    private final List<String> shards;
+
+    @JsonCreator
+    public ShardAllocation(@JsonProperty("node") String node, @JsonProperty("maxShards") int maxShards, @JsonProperty("shards") List<String> shards) {
+        this.node = node;
+        this.maxShards = maxShards;
+        this.shards = new ArrayList<>(shards);
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public int getMaxShards() {
+        return maxShards;
+    }
+
+    public List<String> getShards() {
+        return new ArrayList<>(shards);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ShardAllocation that = (ShardAllocation) o;
+        return maxShards == that.maxShards &&
+                Objects.equals(node, that.node) &&
+                Objects.equals(shards, that.shards);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(node, maxShards, shards);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardAllocation{" +
+                "node='" + node + '\'' +
+                ", maxShards=" + maxShards +
+                ", shards=" + shards +
+                '}';
+    }
+}
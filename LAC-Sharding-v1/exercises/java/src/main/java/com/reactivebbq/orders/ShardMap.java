@@ -0,0 +1,47 @@
+package com.reactivebbq.orders;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The client's view of which node owns each shard, built from the {@link ShardAllocation} of every node. The view
+ * can be stale after a rebalance, so it is only a routing hint: a request sent to the wrong node is still forwarded
+ * to the owner by the shard region.
+ */
+class ShardMap {
+
+    private final ConcurrentHashMap<String, String> owners = new ConcurrentHashMap<>();
+    private volatile int maxShards = 0;
+
+    Optional<String> ownerOf(OrderId orderId) {
+        int shards = maxShards;
+
+        if (shards == 0)
+            return Optional.empty();
+
+        return Optional.ofNullable(owners.get(OrderActor.shardId(orderId, shards)));
+    }
+
+    void update(ShardAllocation allocation) {
+        maxShards = allocation.getMaxShards();
+
+        Set<String> hosted = new HashSet<>(allocation.getShards());
+        owners.entrySet().removeIf(entry ->
+            entry.getValue().equals(allocation.getNode()) && !hosted.contains(entry.getKey())
+        );
+
+        for (String shard : hosted) {
+            owners.put(shard, allocation.getNode());
+        }
+    }
+
+    void forget(String node) {
+        owners.values().removeIf(owner -> owner.equals(node));
+    }
+
+    int size() {
+        return owners.size();
+    }
+}
@@ -0,0 +1,108 @@
+package com.reactivebbq.orders;
+
+import com.typesafe.config.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A restaurant sharing the cluster. Every tenant has its own shard region, so its orders never share shards with
+ * another tenant's, and its own request quota.
+ *
+ * The default tenant serves the routes without a tenant prefix and keeps the original "orders" region, so its
+ * existing shards and order ids are unchanged.
+ */
+class Tenant {
+    static final String DEFAULT = "default";
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final String id;
+    private final int maxShards;
+    private final TenantQuota quota;
+
+    Tenant(String id, int maxShards, TenantQuota quota) {
+        this.id = validateId(id);
+        this.maxShards = maxShards;
+        this.quota = quota;
+    }
+
+    static Tenant unlimited(String id, int maxShards) {
+        return new Tenant(id, maxShards, TenantQuota.unlimited());
+    }
+
+    /**
+     * Reads one tenant per entry of the config object. The default tenant is required.
+     */
+    static Map<String, Tenant> fromConfig(Config config) {
+        Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+        for (String id : config.root().keySet()) {
+            Config tenant = config.getConfig(id);
+            tenants.put(id, new Tenant(
+                id,
+                tenant.getInt("max-shards"),
+                new TenantQuota(tenant.getDouble("requests-per-second"), tenant.getInt("burst"))
+            ));
+        }
+
+        if (!tenants.containsKey(DEFAULT))
+            throw new IllegalArgumentException("The " + DEFAULT + " tenant must be configured");
+
+        return tenants;
+    }
+
+    static String validateId(String id) {
+        if (id == null || !ID_PATTERN.matcher(id).matches())
+            throw new IllegalArgumentException("Tenant ids must be 1 to 64 characters of [A-Za-z0-9_-]");
+
+        return id;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    int getMaxShards() {
+        return maxShards;
+    }
+
+    TenantQuota getQuota() {
+        return quota;
+    }
+
+    String getRegionName() {
+        return DEFAULT.equals(id) ? "orders" : "orders-" + id;
+    }
+
+    /**
+     * Two tenants using the same idempotency key still open different orders.
+     */
+    OrderId orderIdFor(String idempotencyKey) {
+        return OrderId.fromIdempotencyKey(DEFAULT.equals(id) ? idempotencyKey : id + "/" + idempotencyKey);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Tenant tenant = (Tenant) o;
+        return maxShards == tenant.maxShards &&
+                Objects.equals(id, tenant.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, maxShards);
+    }
+
+    @Override
+    public String toString() {
+        return "Tenant{" +
+                "id='" + id + '\'' +
+                ", maxShards=" + maxShards +
+                '}';
+    }
+}
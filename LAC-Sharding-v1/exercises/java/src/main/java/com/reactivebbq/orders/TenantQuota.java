@@ -0,0 +1,72 @@
+package com.reactivebbq.orders;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of a tenant's requests on this node, so a surge from one restaurant is turned away before it can
+ * queue up in front of everyone else's. Requests are admitted at a steady rate, with bursts of up to the burst size
+ * above it.
+ *
+ * Implemented as a generic cell rate algorithm, which behaves like a token bucket but keeps its whole state in a
+ * single timestamp: the time at which the bucket would be full again. Admitting a request moves that time forward
+ * by one request's share of a second, with a compare and set.
+ */
+class TenantQuota {
+    private final boolean enabled;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final LongSupplier clock;
+    private final AtomicLong fullAt;
+
+    TenantQuota(double requestsPerSecond, int burst) {
+        this(requestsPerSecond, burst, System::nanoTime);
+    }
+
+    /**
+     * A rate of zero or less disables the quota.
+     */
+    TenantQuota(double requestsPerSecond, int burst, LongSupplier clock) {
+        if (requestsPerSecond > 0 && burst < 1)
+            throw new IllegalArgumentException("The burst of a tenant quota must be at least 1");
+
+        this.enabled = requestsPerSecond > 0;
+        this.intervalNanos = enabled ? (long) (Duration.ofSeconds(1).toNanos() / requestsPerSecond) : 0;
+        this.toleranceNanos = intervalNanos * burst;
+        this.clock = clock;
+        this.fullAt = new AtomicLong(clock.getAsLong());
+    }
+
+    static TenantQuota unlimited() {
+        return new TenantQuota(0, 0);
+    }
+
+    boolean tryAcquire() {
+        if (!enabled)
+            return true;
+
+        while (true) {
+            long now = clock.getAsLong();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+
+            if (next - now > toleranceNanos)
+                return false;
+
+            if (fullAt.compareAndSet(current, next))
+                return true;
+        }
+    }
+
+    /**
+     * How long until the next request would be admitted.
+     */
+    Duration getRetryAfter() {
+        if (!enabled)
+            return Duration.ZERO;
+
+        long now = clock.getAsLong();
+        return Duration.ofNanos(Math.max(0, fullAt.get() + intervalNanos - toleranceNanos - now));
+    }
+}
@@ -0,0 +1,62 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * The shard region of every tenant. Each region has its own coordinator and shards, so a tenant's surge only
+ * competes with other tenants for the nodes, not for the shards and their actors.
+ */
+class TenantRegions {
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final Map<String, ActorRef> regions = new HashMap<>();
+
+    TenantRegions(Map<Tenant, ActorRef> regions) {
+        for (Map.Entry<Tenant, ActorRef> region : regions.entrySet()) {
+            this.tenants.put(region.getKey().getId(), region.getKey());
+            this.regions.put(region.getKey().getId(), region.getValue());
+        }
+    }
+
+    static TenantRegions start(ActorSystem system, Collection<Tenant> tenants, Function<Tenant, Props> entityProps) {
+        ClusterShardingSettings settings = ClusterShardingSettings.create(system);
+        Map<Tenant, ActorRef> regions = new HashMap<>();
+
+        for (Tenant tenant : tenants) {
+            regions.put(tenant, ClusterSharding.get(system).start(
+                tenant.getRegionName(),
+                entityProps.apply(tenant),
+                settings,
+                OrderActor.messageExtractor(tenant.getMaxShards())
+            ));
+        }
+
+        return new TenantRegions(regions);
+    }
+
+    /**
+     * A single region serving the default tenant without a quota.
+     */
+    static TenantRegions single(ActorRef region) {
+        Map<Tenant, ActorRef> regions = new HashMap<>();
+        regions.put(Tenant.unlimited(Tenant.DEFAULT, 0), region);
+        return new TenantRegions(regions);
+    }
+
+    Optional<Tenant> tenant(String id) {
+        return Optional.ofNullable(tenants.get(id));
+    }
+
+    ActorRef region(Tenant tenant) {
+        return regions.get(tenant.getId());
+    }
+}
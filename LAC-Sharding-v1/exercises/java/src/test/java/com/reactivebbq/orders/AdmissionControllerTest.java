@@ -0,0 +1,102 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    private final long fast = Duration.ofMillis(10).toNanos();
+    private final long slow = Duration.ofSeconds(1).toNanos();
+
+    private AdmissionController createController(int initialLimit) {
+        return new AdmissionController(true, initialLimit, 2, 10, Duration.ofMillis(100), 0.5, Duration.ofSeconds(1));
+    }
+
+    @Test
+    void tryAcquire_shouldAdmitRequestsUpToTheLimit() {
+        AdmissionController controller = createController(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(controller.tryAcquire());
+        }
+
+        assertFalse(controller.tryAcquire());
+        assertEquals(4, controller.getInFlight());
+    }
+
+    @Test
+    void tryAcquire_shouldAdmitAgainOnceARequestIsReleased() {
+        AdmissionController controller = createController(2);
+
+        controller.tryAcquire();
+        controller.tryAcquire();
+        controller.release(fast, false);
+
+        assertTrue(controller.tryAcquire());
+    }
+
+    @Test
+    void release_shouldIncreaseTheLimitForFastRequestsWhenTheLimitIsUsed() {
+        AdmissionController controller = createController(4);
+
+        controller.tryAcquire();
+        controller.tryAcquire();
+        controller.release(fast, false);
+
+        assertEquals(5, controller.getLimit());
+    }
+
+    @Test
+    void release_shouldNotIncreaseTheLimitWhenItIsMostlyUnused() {
+        AdmissionController controller = createController(8);
+
+        controller.tryAcquire();
+        controller.release(fast, false);
+
+        assertEquals(8, controller.getLimit());
+    }
+
+    @Test
+    void release_shouldDecreaseTheLimitForSlowRequests() {
+        AdmissionController controller = createController(8);
+
+        controller.tryAcquire();
+        controller.release(slow, false);
+
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    void release_shouldDecreaseTheLimitForTimeouts() {
+        AdmissionController controller = createController(8);
+
+        controller.tryAcquire();
+        controller.release(fast, true);
+
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    void release_shouldNeverGoBelowTheMinimumLimit() {
+        AdmissionController controller = createController(4);
+
+        for (int i = 0; i < 10; i++) {
+            controller.tryAcquire();
+            controller.release(slow, false);
+        }
+
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    void unlimited_shouldAlwaysAdmit() {
+        AdmissionController controller = AdmissionController.unlimited();
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(controller.tryAcquire());
+        }
+    }
+}
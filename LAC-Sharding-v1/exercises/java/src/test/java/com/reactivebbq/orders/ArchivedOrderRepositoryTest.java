@@ -0,0 +1,52 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.reactivebbq.orders.OrderHelpers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchivedOrderRepositoryTest extends OrderRepositoryTest {
+    private Executor executor;
+    private InMemoryOrderRepository repository;
+    private OrderArchive archive;
+
+    @Override
+    public OrderRepository createOrderRepository() {
+        executor = Executors.newFixedThreadPool(100);
+        repository = new InMemoryOrderRepository(executor);
+
+        try {
+            archive = new OrderArchive(Files.createTempDirectory("order-archive"), 2);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        return new ArchivedOrderRepository(repository, archive, executor);
+    }
+
+    @Override
+    public void destroyOrderRepository() {
+        ((ExecutorService) executor).shutdown();
+    }
+
+    @Test
+    public void find_shouldFallBackToTheArchive() {
+        OrderRepository archived = new ArchivedOrderRepository(repository, archive, executor);
+        Order order = generateOrder().closed(1000L);
+
+        archived.update(order).join();
+        archive.write(Collections.singletonList(order));
+        repository.delete(Collections.singletonList(order.getId())).join();
+
+        assertEquals(Optional.empty(), repository.find(order.getId()).join());
+        assertEquals(Optional.of(order), archived.find(order.getId()).join());
+    }
+}
@@ -0,0 +1,43 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackoffTest {
+
+    private final Duration min = Duration.ofMillis(100);
+    private final Duration max = Duration.ofSeconds(1);
+
+    @Test
+    void delay_shouldDoubleWithEveryAttempt() {
+        Backoff backoff = new Backoff(min, max, () -> 1.0);
+
+        assertEquals(Duration.ofMillis(100), backoff.delay(0));
+        assertEquals(Duration.ofMillis(200), backoff.delay(1));
+        assertEquals(Duration.ofMillis(400), backoff.delay(2));
+    }
+
+    @Test
+    void delay_shouldNotExceedTheMaximum() {
+        Backoff backoff = new Backoff(min, max, () -> 1.0);
+
+        assertEquals(max, backoff.delay(10));
+        assertEquals(max, backoff.delay(100));
+    }
+
+    @Test
+    void delay_shouldBeJitteredDownToHalfTheExponentialDelay() {
+        Backoff backoff = new Backoff(min, max, () -> 0.0);
+
+        assertEquals(Duration.ofMillis(50), backoff.delay(0));
+        assertEquals(Duration.ofMillis(200), backoff.delay(2));
+    }
+
+    @Test
+    void backoff_shouldRejectAMaximumBelowTheMinimum() {
+        assertThrows(IllegalArgumentException.class, () -> new Backoff(max, min));
+    }
+}
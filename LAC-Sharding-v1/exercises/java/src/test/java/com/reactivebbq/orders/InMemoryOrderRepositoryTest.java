@@ -1,9 +1,17 @@
 package com.reactivebbq.orders;
 
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static com.reactivebbq.orders.OrderHelpers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
 public class InMemoryOrderRepositoryTest extends OrderRepositoryTest {
     private Executor executor;
 
@@ -17,4 +25,32 @@ public class InMemoryOrderRepositoryTest extends OrderRepositoryTest {
     public void destroyOrderRepository() {
         ((ExecutorService) executor).shutdown();
     }
+
+    @Test
+    public void findClosedBefore_shouldReturnTheOldestClosedOrdersFirst() {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository(executor);
+        Order open = generateOrder();
+        Order closedFirst = generateOrder().closed(1000L);
+        Order closedSecond = generateOrder().closed(2000L);
+        Order closedRecently = generateOrder().closed(5000L);
+
+        for (Order order : Arrays.asList(open, closedSecond, closedRecently, closedFirst)) {
+            repository.update(order).join();
+        }
+
+        assertEquals(Arrays.asList(closedFirst, closedSecond), repository.findClosedBefore(3000L, 10).join());
+        assertEquals(Collections.singletonList(closedFirst), repository.findClosedBefore(3000L, 1).join());
+    }
+
+    @Test
+    public void delete_shouldRemoveTheOrders() {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository(executor);
+        Order order = generateOrder();
+        repository.update(order).join();
+
+        List<OrderId> orderIds = Arrays.asList(order.getId(), generateOrderId());
+
+        assertEquals(Integer.valueOf(1), repository.delete(orderIds).join());
+        assertFalse(repository.find(order.getId()).join().isPresent());
+    }
 }
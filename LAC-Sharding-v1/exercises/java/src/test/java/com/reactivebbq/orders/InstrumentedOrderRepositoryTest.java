@@ -0,0 +1,53 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.reactivebbq.orders.OrderHelpers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstrumentedOrderRepositoryTest extends OrderRepositoryTest {
+    private Executor executor;
+    private final List<String> recorded = new Vector<>();
+
+    private final OrderMetrics metrics = new OrderMetrics() {
+        @Override
+        public void repositoryFind(String repository, long latencyNanos, boolean success) {
+            recorded.add(repository + "-find-" + success);
+        }
+
+        @Override
+        public void repositoryUpdate(String repository, long latencyNanos, boolean success) {
+            recorded.add(repository + "-update-" + success);
+        }
+    };
+
+    @Override
+    public OrderRepository createOrderRepository() {
+        executor = Executors.newFixedThreadPool(100);
+        return new InstrumentedOrderRepository(new InMemoryOrderRepository(executor), "in-memory", metrics);
+    }
+
+    @Override
+    public void destroyOrderRepository() {
+        ((ExecutorService) executor).shutdown();
+    }
+
+    @Test
+    public void operations_shouldBeRecordedWithTheRepositoryName() {
+        OrderRepository repository = new InstrumentedOrderRepository(new InMemoryOrderRepository(executor), "in-memory", metrics);
+        Order order = generateOrder();
+
+        recorded.clear();
+        repository.update(order).join();
+        repository.find(order.getId()).join();
+
+        assertEquals(Arrays.asList("in-memory-update-true", "in-memory-find-true"), recorded);
+    }
+}
@@ -0,0 +1,44 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyWindowTest {
+
+    @Test
+    void percentile_shouldBeEmptyUntilEnoughSamplesAreRecorded() {
+        LatencyWindow window = new LatencyWindow(10, 3);
+
+        window.record(1);
+        window.record(2);
+
+        assertEquals(Optional.empty(), window.percentile(0.95));
+    }
+
+    @Test
+    void percentile_shouldReturnTheRequestedPercentile() {
+        LatencyWindow window = new LatencyWindow(100, 1);
+
+        for (int i = 100; i >= 1; i--) {
+            window.record(i);
+        }
+
+        assertEquals(Optional.of(Duration.ofNanos(95)), window.percentile(0.95));
+        assertEquals(Optional.of(Duration.ofNanos(50)), window.percentile(0.5));
+    }
+
+    @Test
+    void percentile_shouldOnlyConsiderTheMostRecentSamples() {
+        LatencyWindow window = new LatencyWindow(2, 1);
+
+        window.record(1000);
+        window.record(1);
+        window.record(2);
+
+        assertEquals(Optional.of(Duration.ofNanos(2)), window.percentile(1.0));
+    }
+}
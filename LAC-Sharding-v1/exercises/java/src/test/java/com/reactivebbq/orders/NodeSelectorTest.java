@@ -0,0 +1,93 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeSelectorTest {
+
+    private final List<String> addresses = Arrays.asList("node-1", "node-2", "node-3");
+    private final AtomicLong clock = new AtomicLong(0);
+
+    private NodeSelector createSelector() {
+        return new NodeSelector(addresses, 2, Duration.ofNanos(100), clock::get);
+    }
+
+    @Test
+    void select_shouldRotateThroughHealthyNodes() {
+        NodeSelector selector = createSelector();
+
+        Set<String> selected = new HashSet<>();
+        for (int i = 0; i < addresses.size(); i++) {
+            selected.add(selector.select());
+        }
+
+        assertEquals(new HashSet<>(addresses), selected);
+    }
+
+    @Test
+    void select_shouldSkipANodeThatFailedTooOften() {
+        NodeSelector selector = createSelector();
+
+        selector.recordFailure("node-1");
+        assertTrue(selector.isHealthy("node-1"));
+
+        selector.recordFailure("node-1");
+        assertFalse(selector.isHealthy("node-1"));
+
+        for (int i = 0; i < 10; i++) {
+            assertNotEquals("node-1", selector.select());
+        }
+    }
+
+    @Test
+    void select_shouldReturnANodeAgainAfterItsCooldown() {
+        NodeSelector selector = createSelector();
+
+        selector.recordFailure("node-1");
+        selector.recordFailure("node-1");
+        clock.addAndGet(100);
+
+        assertTrue(selector.isHealthy("node-1"));
+    }
+
+    @Test
+    void recordSuccess_shouldResetTheFailures() {
+        NodeSelector selector = createSelector();
+
+        selector.recordFailure("node-1");
+        selector.recordSuccess("node-1");
+        selector.recordFailure("node-1");
+
+        assertTrue(selector.isHealthy("node-1"));
+    }
+
+    @Test
+    void select_shouldAvoidTheExcludedNode() {
+        NodeSelector selector = createSelector();
+
+        for (int i = 0; i < 10; i++) {
+            assertNotEquals("node-2", selector.select("node-2"));
+        }
+    }
+
+    @Test
+    void select_shouldReturnTheNodeThatRecoversFirstIfAllAreUnhealthy() {
+        NodeSelector selector = createSelector();
+
+        for (String address : Arrays.asList("node-2", "node-3", "node-1")) {
+            selector.recordFailure(address);
+            selector.recordFailure(address);
+            clock.addAndGet(10);
+        }
+
+        assertEquals("node-2", selector.select());
+    }
+}
@@ -9,16 +9,20 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Vector;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 import static com.reactivebbq.orders.OrderHelpers.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class OrderActorTest extends AkkaTest {
@@ -131,6 +135,16 @@ public class OrderActorTest extends AkkaTest {
         assertEquals(expectedShardId, startEntityShardId);
     }
 
+    @Test
+    public void shardId_shouldMatchTheMessageExtractor() {
+        int maxShards = system.settings().config().getInt("orders.max-shards");
+
+        OrderId orderId = generateOrderId();
+        OrderActor.Envelope envelope = new OrderActor.Envelope(orderId, new OrderActor.GetOrder());
+
+        assertEquals(OrderActor.messageExtractor(maxShards).shardId(envelope), OrderActor.shardId(orderId, maxShards));
+    }
+
     @Test
     public void theActor_shouldLoadItsStateFromTheRepositoryWhenCreated() {
         Order order = generateOrder();
@@ -175,6 +189,30 @@ public class OrderActorTest extends AkkaTest {
         assertEquals(table, order.getTable());
     }
 
+    @Test
+    public void openOrder_shouldPublishTheOrderOpenedEvent() {
+        TestKit events = new TestKit(system);
+        system.getEventStream().subscribe(events.getRef(), OrderActor.OrderOpened.class);
+
+        Order order = openOrder();
+
+        assertEquals(order, events.expectMsgClass(OrderActor.OrderOpened.class).getOrder());
+        system.getEventStream().unsubscribe(events.getRef());
+    }
+
+    @Test
+    public void addItemToOrder_shouldPublishTheItemAddedEvent() {
+        TestKit events = new TestKit(system);
+        system.getEventStream().subscribe(events.getRef(), OrderActor.ItemAddedToOrder.class);
+
+        openOrder();
+        sender.send(orderActor, new OrderActor.AddItemToOrder(generateOrderItem()));
+        Order order = sender.expectMsgClass(OrderActor.ItemAddedToOrder.class).getOrder();
+
+        assertEquals(order, events.expectMsgClass(OrderActor.ItemAddedToOrder.class).getOrder());
+        system.getEventStream().unsubscribe(events.getRef());
+    }
+
     @Test
     public void openOrder_shouldReturnAnErrorIfTheOrderIsAlreadyOpen() {
         Server server = generateServer();
@@ -331,4 +369,197 @@ public class OrderActorTest extends AkkaTest {
         sender.expectMsg(order.withItem(item));
     }
 
+    @Test
+    public void theActor_shouldRejectCommandsOnceItsStashIsFull() {
+        OrderId orderId = generateOrderId();
+        CompletableFuture<Optional<Order>> neverLoads = new CompletableFuture<>();
+
+        MockRepo mockRepo = new MockRepo(system.getDispatcher());
+        mockRepo.mockFind(ignore -> neverLoads);
+
+        ActorRef actor = parent
+                .childActorOf(
+                        OrderActor.props(mockRepo).withMailbox("test-orders-mailbox"),
+                        orderId.getValue().toString());
+
+        sender.send(actor, new OrderActor.GetOrder());
+        sender.send(actor, new OrderActor.GetOrder());
+        sender.send(actor, new OrderActor.GetOrder());
+
+        Throwable ex = sender.expectMsgClass(Status.Failure.class).cause();
+        assertEquals(new OrderActor.OrderOverloadedException(orderId), ex);
+    }
+
+    @Test
+    public void theActor_shouldReleaseItsBacklogFromTheTableItWasReportedAgainst() {
+        OrderId orderId = generateOrderId();
+        Order order = generateOrder(orderId, new Vector<>());
+        CompletableFuture<Optional<Order>> load = new CompletableFuture<>();
+        Map<Optional<Table>, Integer> backlogs = new ConcurrentHashMap<>();
+
+        OrderMetrics metrics = new OrderMetrics() {
+            @Override
+            public void entityBacklog(OrderId orderId, Optional<Table> table, int depth, int change) {
+                backlogs.merge(table, change, Integer::sum);
+            }
+        };
+
+        MockRepo mockRepo = new MockRepo(system.getDispatcher());
+        mockRepo.mockFind(ignore -> load);
+
+        ActorRef actor = parent.childActorOf(OrderActor.props(mockRepo, metrics), orderId.getValue().toString());
+
+        sender.send(actor, new OrderActor.GetOrder());
+        sender.send(actor, new OrderActor.GetOrder());
+
+        sender.awaitAssert(timeout, () -> {
+            assertEquals(Integer.valueOf(2), backlogs.get(Optional.empty()));
+            return null;
+        });
+
+        load.complete(Optional.of(order));
+
+        sender.expectMsg(order);
+        sender.expectMsg(order);
+
+        assertEquals(Integer.valueOf(0), backlogs.get(Optional.empty()));
+        assertFalse(backlogs.containsKey(Optional.of(order.getTable())));
+    }
+
+    @Test
+    public void openOrder_shouldReplyToARetryWithTheSameIdempotencyKeyWithoutAnUpdate() {
+        Server server = generateServer();
+        Table table = generateTable();
+
+        sender.send(orderActor, new OrderActor.OpenOrder(server, table, "open-key"));
+        Order order = sender.expectMsgClass(OrderActor.OrderOpened.class).getOrder();
+
+        repo.mockUpdate(ignore -> CompletableFuture.failedFuture(new RuntimeException("Unexpected Update")));
+
+        sender.send(orderActor, new OrderActor.OpenOrder(server, table, "open-key"));
+        sender.expectMsg(new OrderActor.OrderOpened(order));
+    }
+
+    @Test
+    public void addItemToOrder_shouldReplyToARetryWithTheSameIdempotencyKeyWithoutAnUpdate() {
+        Order order = openOrder();
+        OrderItem item = generateOrderItem();
+
+        sender.send(orderActor, new OrderActor.AddItemToOrder(item, "add-key"));
+        Order updated = sender.expectMsgClass(OrderActor.ItemAddedToOrder.class).getOrder();
+
+        repo.mockUpdate(ignore -> CompletableFuture.failedFuture(new RuntimeException("Unexpected Update")));
+
+        sender.send(orderActor, new OrderActor.AddItemToOrder(item, "add-key"));
+        sender.expectMsg(new OrderActor.ItemAddedToOrder(updated));
+
+        assertEquals(order.getItems().size() + 1, updated.getItems().size());
+        assertEquals(Optional.of(updated), repo.find(orderId).join());
+    }
+
+    @Test
+    public void closeOrder_shouldReturnAnOrderNotFoundExceptionIfTheOrderHasntBeenOpened() {
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        Throwable ex = sender.expectMsgClass(Status.Failure.class).cause();
+        assertEquals(new OrderActor.OrderNotFoundException(orderId), ex);
+    }
+
+    @Test
+    public void closeOrder_shouldCloseTheOrder() {
+        Order order = openOrder();
+
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        Order closed = sender.expectMsgClass(OrderActor.OrderClosed.class).getOrder();
+
+        assertTrue(closed.isClosed());
+        assertEquals(order.getVersion() + 1, closed.getVersion());
+        assertEquals(Optional.of(closed), repo.find(orderId).join());
+    }
+
+    @Test
+    public void closeOrder_shouldReplyToASecondCloseWithoutAnUpdate() {
+        openOrder();
+
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        Order closed = sender.expectMsgClass(OrderActor.OrderClosed.class).getOrder();
+
+        repo.mockUpdate(ignore -> CompletableFuture.failedFuture(new RuntimeException("Unexpected Update")));
+
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        sender.expectMsg(new OrderActor.OrderClosed(closed));
+    }
+
+    @Test
+    public void closeOrder_shouldPublishTheOrderClosedEvent() {
+        TestKit events = new TestKit(system);
+        system.getEventStream().subscribe(events.getRef(), OrderActor.OrderClosed.class);
+
+        openOrder();
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        Order order = sender.expectMsgClass(OrderActor.OrderClosed.class).getOrder();
+
+        assertEquals(order, events.expectMsgClass(OrderActor.OrderClosed.class).getOrder());
+        system.getEventStream().unsubscribe(events.getRef());
+    }
+
+    @Test
+    public void addItemToOrder_shouldReturnAnOrderClosedExceptionIfTheOrderIsClosed() {
+        openOrder();
+
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        sender.expectMsgClass(OrderActor.OrderClosed.class);
+
+        sender.send(orderActor, new OrderActor.AddItemToOrder(generateOrderItem()));
+        Throwable ex = sender.expectMsgClass(Status.Failure.class).cause();
+        assertEquals(new OrderActor.OrderClosedException(orderId), ex);
+    }
+
+    @Test
+    public void addItemToOrder_shouldReplyToARetryOfAnItemAddedBeforeTheOrderWasClosed() {
+        openOrder();
+        OrderItem item = generateOrderItem();
+
+        sender.send(orderActor, new OrderActor.AddItemToOrder(item, "add-key"));
+        sender.expectMsgClass(OrderActor.ItemAddedToOrder.class);
+
+        sender.send(orderActor, new OrderActor.CloseOrder());
+        Order closed = sender.expectMsgClass(OrderActor.OrderClosed.class).getOrder();
+
+        sender.send(orderActor, new OrderActor.AddItemToOrder(item, "add-key"));
+        sender.expectMsg(new OrderActor.ItemAddedToOrder(closed));
+    }
+
+    @Test
+    public void getOrder_shouldReturnAnOrderNotFoundExceptionForAnotherTenantsOrder() {
+        repo.update(generateOrder(orderId, new Vector<>()).withTenant("restaurant")).join();
+
+        ActorRef actor = new TestKit(system).childActorOf(OrderActor.props(repo, OrderMetrics.NONE, "other-restaurant"), orderId.getValue().toString());
+
+        sender.send(actor, new OrderActor.GetOrder());
+        Throwable ex = sender.expectMsgClass(Status.Failure.class).cause();
+        assertEquals(new OrderActor.OrderNotFoundException(orderId), ex);
+    }
+
+    @Test
+    public void openOrder_shouldReturnAnErrorIfAnotherTenantHasTheOrder() {
+        Order order = generateOrder(orderId, new Vector<>()).withTenant("restaurant");
+        repo.update(order).join();
+
+        ActorRef actor = new TestKit(system).childActorOf(OrderActor.props(repo, OrderMetrics.NONE, "other-restaurant"), orderId.getValue().toString());
+
+        sender.send(actor, new OrderActor.OpenOrder(order.getServer(), order.getTable()));
+        Throwable ex = sender.expectMsgClass(Status.Failure.class).cause();
+        assertEquals(new OrderActor.DuplicateOrderException(orderId), ex);
+        assertEquals(Optional.of(order), repo.find(orderId).join());
+    }
+
+    @Test
+    public void openOrder_shouldOpenTheOrderForTheActorsTenant() {
+        ActorRef actor = parent.childActorOf(OrderActor.props(repo, OrderMetrics.NONE, "restaurant"), generateOrderId().getValue().toString());
+
+        sender.send(actor, new OrderActor.OpenOrder(generateServer(), generateTable()));
+
+        assertEquals("restaurant", sender.expectMsgClass(OrderActor.OrderOpened.class).getOrder().getTenant());
+    }
+
 }
@@ -0,0 +1,65 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorRef;
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.testkit.JUnitRouteTest;
+import akka.http.javadsl.testkit.TestRoute;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+class OrderAnalyticsRoutesTest extends JUnitRouteTest {
+
+    private Map<String, BigInteger> counters;
+    private TestRoute route;
+
+    @BeforeEach
+    void setup() {
+        systemResource().before();
+
+        counters = new HashMap<>();
+        counters.put(OrderAnalytics.counterKey(Tenant.DEFAULT, OrderAnalytics.ORDERS_BY_SERVER, "Alice"), BigInteger.valueOf(7));
+        counters.put(OrderAnalytics.counterKey("restaurant", OrderAnalytics.ORDERS_BY_SERVER, "Bob"), BigInteger.valueOf(3));
+
+        Map<Tenant, ActorRef> regions = new HashMap<>();
+        regions.put(Tenant.unlimited(Tenant.DEFAULT, 30), system().deadLetters());
+        regions.put(Tenant.unlimited("restaurant", 10), system().deadLetters());
+
+        route = testRoute(new OrderAnalyticsRoutes(
+            new TenantRegions(regions),
+            tenant -> CompletableFuture.completedFuture(OrderAnalytics.fromCounters(tenant, counters))
+        ).createRoutes());
+    }
+
+    @Test
+    void get_to_analytics_shouldReturnTheReadModel() {
+        route.run(HttpRequest.GET("/analytics"))
+            .assertStatusCode(StatusCodes.OK)
+            .assertEntityAs(Jackson.unmarshaller(OrderAnalytics.class), OrderAnalytics.fromCounters(Tenant.DEFAULT, counters));
+    }
+
+    @Test
+    void get_to_tenant_analytics_shouldReturnTheTenantsReadModel() {
+        route.run(HttpRequest.GET("/tenant/restaurant/analytics"))
+            .assertStatusCode(StatusCodes.OK)
+            .assertEntityAs(Jackson.unmarshaller(OrderAnalytics.class), OrderAnalytics.fromCounters("restaurant", counters));
+    }
+
+    @Test
+    void get_to_tenant_analytics_shouldReturnNotFoundForAnUnknownTenant() {
+        route.run(HttpRequest.GET("/tenant/unknown/analytics"))
+            .assertStatusCode(StatusCodes.NOT_FOUND);
+    }
+
+    @AfterEach
+    void teardown() {
+        systemResource().after();
+    }
+}
@@ -0,0 +1,108 @@
+package com.reactivebbq.orders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.reactivebbq.orders.OrderHelpers.*;
+
+class OrderAnalyticsTest {
+
+    private Map<String, BigInteger> counters(Map<String, Long> increments) {
+        Map<String, BigInteger> counters = new HashMap<>();
+        increments.forEach((key, value) -> counters.put(key, BigInteger.valueOf(value)));
+        return counters;
+    }
+
+    @Test
+    void fromCounters_shouldReturnEmptyAnalyticsForNoCounters() {
+        OrderAnalytics analytics = OrderAnalytics.fromCounters(Tenant.DEFAULT, new HashMap<>());
+
+        assertEquals(OrderAnalytics.empty(), analytics);
+        assertTrue(analytics.getOrdersByServer().isEmpty());
+        assertTrue(analytics.getItemsByName().isEmpty());
+    }
+
+    @Test
+    void fromCounters_shouldGroupTheCountsOfABatch() {
+        Order order = new Order(generateOrderId(), new Server("Alice"), new Table(5), new Vector<>());
+        Order withSteak = order.withItem(new OrderItem("Steak", "Medium Rare"));
+        Order withSalad = withSteak.withItem(new OrderItem("Salad", "None"));
+
+        OrderAnalyticsProjection.Batch batch = new OrderAnalyticsProjection.Batch();
+        batch.orderOpened(order);
+        batch.itemAdded(withSteak);
+        batch.itemAdded(withSalad);
+
+        OrderAnalytics analytics = OrderAnalytics.fromCounters(Tenant.DEFAULT, counters(batch.getIncrements()));
+
+        assertEquals(3, batch.size());
+        assertEquals(Long.valueOf(1), analytics.getOrdersByServer().get("Alice"));
+        assertEquals(Long.valueOf(2), analytics.getItemsByServer().get("Alice"));
+        assertEquals(Long.valueOf(1), analytics.getOrdersByTable().get(5));
+        assertEquals(Long.valueOf(2), analytics.getItemsByTable().get(5));
+        assertEquals(Long.valueOf(1), analytics.getItemsByName().get("Steak"));
+        assertEquals(Long.valueOf(1), analytics.getItemsByName().get("Salad"));
+    }
+
+    @Test
+    void fromCounters_shouldOnlyReturnTheCountsOfTheGivenTenant() {
+        OrderAnalyticsProjection.Batch batch = new OrderAnalyticsProjection.Batch();
+        batch.orderOpened(new Order(generateOrderId(), new Server("Alice"), new Table(5), new Vector<>()));
+        batch.orderOpened(new Order(generateOrderId(), new Server("Alice"), new Table(5), new Vector<>()).withTenant("restaurant"));
+        batch.orderOpened(new Order(generateOrderId(), new Server("Bob"), new Table(7), new Vector<>()).withTenant("restaurant"));
+
+        OrderAnalytics defaultAnalytics = OrderAnalytics.fromCounters(Tenant.DEFAULT, counters(batch.getIncrements()));
+        OrderAnalytics restaurantAnalytics = OrderAnalytics.fromCounters("restaurant", counters(batch.getIncrements()));
+
+        assertEquals(Long.valueOf(1), defaultAnalytics.getOrdersByServer().get("Alice"));
+        assertNull(defaultAnalytics.getOrdersByServer().get("Bob"));
+        assertEquals(Long.valueOf(1), restaurantAnalytics.getOrdersByServer().get("Alice"));
+        assertEquals(Long.valueOf(1), restaurantAnalytics.getOrdersByServer().get("Bob"));
+        assertEquals(Long.valueOf(1), restaurantAnalytics.getOrdersByTable().get(7));
+        assertTrue(OrderAnalytics.fromCounters("other", counters(batch.getIncrements())).getOrdersByServer().isEmpty());
+    }
+
+    @Test
+    void fromCounters_shouldKeepNamesContainingTheSeparator() {
+        Map<String, Long> increments = new HashMap<>();
+        increments.put(OrderAnalytics.counterKey(Tenant.DEFAULT, OrderAnalytics.ITEMS_BY_NAME, "Fish/Chips"), 3L);
+
+        OrderAnalytics analytics = OrderAnalytics.fromCounters(Tenant.DEFAULT, counters(increments));
+
+        assertEquals(Long.valueOf(3), analytics.getItemsByName().get("Fish/Chips"));
+    }
+
+    @Test
+    void batch_shouldCollapseEventsForTheSameServer() {
+        OrderAnalyticsProjection.Batch batch = new OrderAnalyticsProjection.Batch();
+
+        for (int i = 0; i < 10; i++) {
+            batch.orderOpened(new Order(generateOrderId(), new Server("Bob"), new Table(i % 2), new Vector<>()));
+        }
+
+        Map<String, Long> increments = batch.getIncrements();
+
+        assertEquals(10, batch.size());
+        assertEquals(3, increments.size());
+        assertEquals(Long.valueOf(10), increments.get(OrderAnalytics.counterKey(Tenant.DEFAULT, OrderAnalytics.ORDERS_BY_SERVER, "Bob")));
+    }
+
+    @Test
+    void json_shouldRoundTrip() throws Exception {
+        Map<String, Long> increments = new HashMap<>();
+        increments.put(OrderAnalytics.counterKey(Tenant.DEFAULT, OrderAnalytics.ORDERS_BY_TABLE, 12), 4L);
+        increments.put(OrderAnalytics.counterKey(Tenant.DEFAULT, OrderAnalytics.ITEMS_BY_NAME, "Milk"), 2L);
+        OrderAnalytics analytics = OrderAnalytics.fromCounters(Tenant.DEFAULT, counters(increments));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = objectMapper.writeValueAsString(analytics);
+
+        assertEquals(analytics, objectMapper.readValue(json, OrderAnalytics.class));
+    }
+}
@@ -0,0 +1,126 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Vector;
+import java.util.stream.Stream;
+
+import static com.reactivebbq.orders.OrderHelpers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderArchiveTest {
+    private Path directory;
+    private OrderArchive archive;
+
+    @BeforeEach
+    void setup() throws IOException {
+        directory = Files.createTempDirectory("order-archive");
+        archive = new OrderArchive(directory, 2);
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private List<Order> generateClosedOrders(int count) {
+        List<Order> orders = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            orders.add(generateOrder(generateOrderItems(i % 5))
+                .withTenant(i % 2 == 0 ? Tenant.DEFAULT : "restaurant")
+                .withIdempotencyKey("key-" + i)
+                .closed(1000L + i));
+        }
+
+        return orders;
+    }
+
+    @Test
+    void find_shouldReturnEmptyIfTheArchiveIsEmpty() {
+        assertEquals(Optional.empty(), archive.find(generateOrderId()));
+    }
+
+    @Test
+    void find_shouldReturnEveryArchivedOrder() {
+        List<Order> orders = generateClosedOrders(20);
+
+        archive.write(orders);
+
+        for (Order order : orders) {
+            assertEquals(Optional.of(order), archive.find(order.getId()));
+        }
+        assertEquals(Optional.empty(), archive.find(generateOrderId()));
+    }
+
+    @Test
+    void find_shouldReturnOrdersFromEverySegment() {
+        List<Order> first = generateClosedOrders(3);
+        List<Order> second = generateClosedOrders(3);
+        List<Order> third = generateClosedOrders(3);
+
+        archive.write(first);
+        archive.write(second);
+        archive.write(third);
+
+        for (List<Order> orders : Arrays.asList(first, second, third, first)) {
+            for (Order order : orders) {
+                assertEquals(Optional.of(order), archive.find(order.getId()));
+            }
+        }
+    }
+
+    @Test
+    void find_shouldReturnOrdersArchivedByAnotherInstance() {
+        List<Order> orders = generateClosedOrders(5);
+
+        assertEquals(Optional.empty(), archive.find(orders.get(0).getId()));
+
+        new OrderArchive(directory, 2).write(orders);
+
+        for (Order order : orders) {
+            assertEquals(Optional.of(order), archive.find(order.getId()));
+        }
+    }
+
+    @Test
+    void find_shouldPreserveStringsThatRepeatAcrossOrders() {
+        Vector<OrderItem> items = new Vector<>(Arrays.asList(
+            new OrderItem("Brisket", "Extra sauce"),
+            new OrderItem("Brisket", ""),
+            new OrderItem("Ribs", "Extra sauce")
+        ));
+        Order first = generateOrder(items).closed(1000L);
+        Order second = generateOrder(items).closed(2000L);
+
+        archive.write(Arrays.asList(first, second));
+
+        assertEquals(Optional.of(first), new OrderArchive(directory, 1).find(first.getId()));
+        assertEquals(Optional.of(second), new OrderArchive(directory, 1).find(second.getId()));
+    }
+
+    @Test
+    void size_shouldCountTheArchivedOrders() {
+        archive.write(generateClosedOrders(4));
+        archive.write(generateClosedOrders(6));
+
+        assertEquals(10, new OrderArchive(directory, 2).size());
+    }
+
+    @Test
+    void write_shouldRejectOrdersThatAreNotClosed() {
+        assertThrows(IllegalArgumentException.class, () -> archive.write(Arrays.asList(generateOrder())));
+    }
+}
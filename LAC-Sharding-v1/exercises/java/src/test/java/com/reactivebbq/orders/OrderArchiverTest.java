@@ -0,0 +1,49 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Optional;
+
+import static com.reactivebbq.orders.OrderHelpers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class OrderArchiverTest extends AkkaTest {
+
+    @Test
+    public void theArchiver_shouldMoveOrdersClosedForLongEnoughToTheArchive() throws IOException {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository(system.getDispatcher());
+        OrderArchive archive = new OrderArchive(Files.createTempDirectory("order-archive"), 2);
+        long now = System.currentTimeMillis();
+
+        Order open = generateOrder();
+        Order closedLongAgo = generateOrder().closed(now - Duration.ofDays(2).toMillis());
+        Order closedRecently = generateOrder().closed(now);
+
+        repository.update(open).join();
+        repository.update(closedLongAgo).join();
+        repository.update(closedRecently).join();
+
+        ActorRef archiver = system.actorOf(OrderArchiver.props(
+            repository, archive, system.getDispatcher(), Duration.ofDays(1), Duration.ofMillis(50), 1
+        ));
+
+        new TestKit(system).awaitAssert(timeout, () -> {
+            assertEquals(Optional.empty(), repository.find(closedLongAgo.getId()).join());
+            return null;
+        });
+
+        assertEquals(Optional.of(closedLongAgo), archive.find(closedLongAgo.getId()));
+        assertEquals(Optional.of(open), repository.find(open.getId()).join());
+        assertEquals(Optional.of(closedRecently), repository.find(closedRecently.getId()).join());
+        assertEquals(Optional.empty(), archive.find(closedRecently.getId()));
+
+        system.stop(archiver);
+    }
+}
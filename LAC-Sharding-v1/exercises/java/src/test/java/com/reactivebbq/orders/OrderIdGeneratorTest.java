@@ -0,0 +1,104 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderIdGeneratorTest {
+
+    private final AtomicLong clock = new AtomicLong(1_600_000_000_000L);
+    private final OrderIdGenerator.TimeOrdered generator = new OrderIdGenerator.TimeOrdered(clock::get);
+
+    @Test
+    void timeOrdered_shouldProduceVersion7Ids() {
+        UUID id = generator.get().getValue();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        assertEquals(clock.get(), id.getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    void timeOrdered_shouldIncreaseWithinTheSameMillisecond() {
+        UUID previous = generator.get().getValue();
+
+        for (int i = 0; i < 10000; i++) {
+            UUID next = generator.get().getValue();
+            assertTrue(next.compareTo(previous) > 0);
+            previous = next;
+        }
+    }
+
+    @Test
+    void timeOrdered_shouldIncreaseWhenTheClockMovesBackwards() {
+        UUID first = generator.get().getValue();
+        clock.addAndGet(-1000);
+        UUID second = generator.get().getValue();
+
+        assertTrue(second.compareTo(first) > 0);
+    }
+
+    @Test
+    void timeOrdered_shouldFollowTheClock() {
+        generator.get();
+        clock.addAndGet(5);
+
+        assertEquals(clock.get(), generator.get().getValue().getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    void timeOrdered_shouldGenerateUniqueIdsAcrossThreads() throws InterruptedException {
+        Set<OrderId> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        OrderIdGenerator.TimeOrdered systemClockGenerator = new OrderIdGenerator.TimeOrdered();
+
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    ids.add(systemClockGenerator.get());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, ids.size());
+    }
+
+    @Test
+    void timeOrdered_shouldSpreadEvenlyAcrossShards() {
+        int maxShards = 30;
+        int idsPerShard = 1000;
+        int[] counts = new int[maxShards];
+
+        for (int i = 0; i < maxShards * idsPerShard; i++) {
+            counts[Integer.parseInt(OrderActor.shardId(generator.get(), maxShards))]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(count > idsPerShard * 0.8 && count < idsPerShard * 1.2, "Uneven shard: " + count);
+        }
+    }
+
+    @Test
+    void fromConfig_shouldSelectTheGenerator() {
+        Supplier<OrderId> random = OrderIdGenerator.fromConfig("random");
+        Supplier<OrderId> timeOrdered = OrderIdGenerator.fromConfig("time-ordered");
+
+        assertEquals(4, random.get().getValue().version());
+        assertEquals(7, timeOrdered.get().getValue().version());
+        assertThrows(IllegalArgumentException.class, () -> OrderIdGenerator.fromConfig("sequential"));
+    }
+}
@@ -1,5 +1,7 @@
 package com.reactivebbq.orders;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashSet;
@@ -7,6 +9,8 @@ import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class OrderIdTest {
 
@@ -39,4 +43,76 @@ public class OrderIdTest {
 
         assertEquals(numIds, ids.size());
     }
+
+    @Test
+    void equals_shouldReturnTrueForTheSameIdParsedFromAString() {
+        UUID baseId = UUID.randomUUID();
+
+        assertEquals(new OrderId(baseId), OrderId.fromString(baseId.toString()));
+        assertEquals(new OrderId(baseId).hashCode(), OrderId.fromString(baseId.toString()).hashCode());
+    }
+
+    @Test
+    void fromString_shouldAcceptUpperCase() {
+        UUID baseId = UUID.randomUUID();
+        OrderId orderId = OrderId.fromString(baseId.toString().toUpperCase());
+
+        assertEquals(baseId, orderId.getValue());
+        assertEquals(baseId.toString(), orderId.asString());
+    }
+
+    @Test
+    void asString_shouldReturnTheParsedString_ifItIsAlreadyCanonical() {
+        String value = UUID.randomUUID().toString();
+
+        assertSame(value, OrderId.fromString(value).asString());
+    }
+
+    @Test
+    void asString_shouldReturnTheCanonicalForm_ifTheParsedStringWasUpperCase() {
+        String value = UUID.randomUUID().toString().toUpperCase();
+
+        assertEquals(value.toLowerCase(), OrderId.fromString(value).asString());
+    }
+
+    @Test
+    void fromString_shouldAcceptTheSameShortFormsAsUUID() {
+        assertEquals(UUID.fromString("1-2-3-4-5"), OrderId.fromString("1-2-3-4-5").getValue());
+    }
+
+    @Test
+    void fromString_shouldRejectInvalidIds() {
+        assertThrows(IllegalArgumentException.class, () -> OrderId.fromString("not-an-order-id"));
+        assertThrows(IllegalArgumentException.class, () -> OrderId.fromString("0000000g-0000-0000-0000-000000000000"));
+        assertThrows(IllegalArgumentException.class, () -> OrderId.fromString("00000000-0000-0000-0000-00000000000\u0660"));
+        assertThrows(IllegalArgumentException.class, () -> OrderId.fromString("00000000+0000-0000-0000-000000000000"));
+    }
+
+    @Test
+    void asString_shouldMatchTheUUID() {
+        for (int i = 0; i < 100; i++) {
+            UUID baseId = UUID.randomUUID();
+
+            assertEquals(baseId.toString(), new OrderId(baseId).asString());
+            assertEquals(baseId, OrderId.fromString(new OrderId(baseId).asString()).getValue());
+        }
+    }
+
+    @Test
+    void json_shouldKeepTheValueFormat() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        UUID baseId = UUID.randomUUID();
+        String json = "{\"value\":\"" + baseId + "\"}";
+
+        assertEquals(json, objectMapper.writeValueAsString(new OrderId(baseId)));
+        assertEquals(new OrderId(baseId), objectMapper.readValue(json, OrderId.class));
+    }
+
+    @Test
+    void cbor_shouldReadBackTheBinaryValue() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper(new CBORFactory());
+        OrderId orderId = new OrderId();
+
+        assertEquals(orderId, objectMapper.readValue(objectMapper.writeValueAsBytes(orderId), OrderId.class));
+    }
 }
@@ -100,4 +100,26 @@ abstract class OrderRepositoryTest {
         assertEquals(updated, findResult.get());
     }
 
+    @Test
+    public void update_shouldPersistTheIdempotencyKeys() {
+        Order order = generateOrder().withIdempotencyKey("key-1").withIdempotencyKey("key-2");
+
+        orderRepository.update(order).join();
+        Optional<Order> findResult = orderRepository.find(order.getId()).join();
+
+        assertTrue(findResult.isPresent());
+        assertEquals(order, findResult.get());
+    }
+
+    @Test
+    public void update_shouldPersistTheClosingTime() {
+        Order order = generateOrder().closed(1000L);
+
+        orderRepository.update(order).join();
+        Optional<Order> findResult = orderRepository.find(order.getId()).join();
+
+        assertTrue(findResult.isPresent());
+        assertEquals(order, findResult.get());
+    }
+
 }
@@ -0,0 +1,56 @@
+package com.reactivebbq.orders;
+
+import akka.util.ByteString;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.reactivebbq.orders.OrderHelpers.*;
+
+class OrderResponseCacheTest {
+
+    @Test
+    void get_shouldReturnTheSerializedOrder() {
+        OrderResponseCache cache = new OrderResponseCache(10);
+        Order order = generateOrder();
+
+        ByteString result = cache.get(order, OrderMarshalling.Format.JSON);
+
+        assertEquals(OrderMarshalling.Format.JSON.write(order), result);
+    }
+
+    @Test
+    void get_shouldReuseTheSerializedOrderForTheSameVersion() {
+        OrderResponseCache cache = new OrderResponseCache(10);
+        Order order = generateOrder();
+
+        ByteString first = cache.get(order, OrderMarshalling.Format.CBOR);
+        ByteString second = cache.get(order, OrderMarshalling.Format.CBOR);
+
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void get_shouldSerializeANewVersionOfTheOrder() {
+        OrderResponseCache cache = new OrderResponseCache(10);
+        Order order = generateOrder();
+        Order updated = order.withItem(generateOrderItem());
+
+        cache.get(order, OrderMarshalling.Format.JSON);
+        ByteString result = cache.get(updated, OrderMarshalling.Format.JSON);
+
+        assertEquals(OrderMarshalling.Format.JSON.write(updated), result);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void get_shouldEvictTheLeastRecentlyUsedEntriesWhenFull() {
+        OrderResponseCache cache = new OrderResponseCache(3);
+
+        for (int i = 0; i < 10; i++) {
+            cache.get(generateOrder(), OrderMarshalling.Format.JSON);
+        }
+
+        assertEquals(3, cache.size());
+    }
+}
@@ -1,10 +1,15 @@
 package com.reactivebbq.orders;
 
+import akka.actor.ActorRef;
 import akka.actor.Status;
 import akka.http.javadsl.marshallers.jackson.Jackson;
 import akka.http.javadsl.model.ContentTypes;
 import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.MediaRanges;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.model.headers.EntityTagRange;
+import akka.http.javadsl.model.headers.IfNoneMatch;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
 import akka.http.javadsl.testkit.TestRouteResult;
@@ -15,6 +20,12 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static com.reactivebbq.orders.OrderHelpers.*;
 
@@ -130,6 +141,302 @@ class OrderRoutesTest extends JUnitRouteTest {
             .assertEntity(expectedError.getMessage());
     }
 
+    @Test
+    void get_to_order_id_shouldReturnCborIfRequested() {
+        Order order = generateOrder();
+
+        TestRouteResult result = route.run(HttpRequest.GET("/order/"+order.getId().getValue().toString())
+            .addHeader(Accept.create(MediaRanges.create(OrderMarshalling.APPLICATION_CBOR))));
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(order);
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertMediaType(OrderMarshalling.APPLICATION_CBOR);
+
+        assertEquals(order, OrderMarshalling.Format.CBOR.read(result.entityBytes(), Order.class));
+    }
+
+    @Test
+    void get_to_order_id_shouldReturnSmileIfRequested() {
+        Order order = generateOrder();
+
+        TestRouteResult result = route.run(HttpRequest.GET("/order/"+order.getId().getValue().toString())
+            .addHeader(Accept.create(MediaRanges.create(OrderMarshalling.APPLICATION_SMILE))));
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(order);
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertMediaType(OrderMarshalling.APPLICATION_SMILE);
+
+        assertEquals(order, OrderMarshalling.Format.SMILE.read(result.entityBytes(), Order.class));
+    }
+
+    @Test
+    void post_to_order_id_items_shouldAcceptCbor() {
+        OrderItem orderItem = generateOrderItem();
+        Order order = generateOrder().withItem(orderItem);
+        OrderActor.AddItemToOrder request = new OrderActor.AddItemToOrder(orderItem);
+
+        byte[] cbor = OrderMarshalling.Format.CBOR.write(request).toArray();
+
+        TestRouteResult result = route.run(HttpRequest.POST("/order/"+order.getId().getValue().toString()+"/items")
+            .withEntity(OrderMarshalling.Format.CBOR.getContentType(), cbor)
+            .addHeader(Accept.create(MediaRanges.create(OrderMarshalling.APPLICATION_CBOR))));
+
+        OrderActor.Envelope msg = orders.expectMsgClass(OrderActor.Envelope.class);
+        assertEquals(request, msg.getCommand());
+
+        orders.reply(new OrderActor.ItemAddedToOrder(order));
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertMediaType(OrderMarshalling.APPLICATION_CBOR);
+
+        assertEquals(order, OrderMarshalling.Format.CBOR.read(result.entityBytes(), Order.class));
+    }
+
+    @Test
+    void get_to_order_id_shouldReturnTheOrderVersionAsAnETag() {
+        Order order = generateOrder().withItem(generateOrderItem());
+
+        TestRouteResult result = route.run(HttpRequest.GET("/order/"+order.getId().getValue().toString()));
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(order);
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertHeaderExists("ETag", "W/\""+order.getId().getValue()+"-"+order.getVersion()+"\"");
+    }
+
+    @Test
+    void get_to_order_id_shouldReturnNotModifiedIfTheVersionMatches() {
+        Order order = generateOrder();
+
+        TestRouteResult result = route.run(HttpRequest.GET("/order/"+order.getId().getValue().toString())
+            .addHeader(IfNoneMatch.create(EntityTagRange.create(OrderRoutes.entityTag(order)))));
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(order);
+
+        result.assertStatusCode(StatusCodes.NOT_MODIFIED);
+    }
+
+    @Test
+    void get_to_order_id_shouldReturnTheOrderIfTheVersionChanged() {
+        Order order = generateOrder();
+        Order updated = order.withItem(generateOrderItem());
+
+        TestRouteResult result = route.run(HttpRequest.GET("/order/"+order.getId().getValue().toString())
+            .addHeader(IfNoneMatch.create(EntityTagRange.create(OrderRoutes.entityTag(order)))));
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(updated);
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertEntityAs(Jackson.unmarshaller(Order.class), updated);
+    }
+
+    @Test
+    void requests_shouldBeRejectedWithRetryAfterWhenOverTheAdmissionLimit() {
+        AdmissionController admissionController =
+            new AdmissionController(true, 1, 1, 1, Duration.ofSeconds(1), 0.9, Duration.ofSeconds(2));
+        TestRoute limitedRoute = testRoute(
+            new OrderRoutes(orders.ref(), new OrderResponseCache(10), admissionController, OrderMetrics.NONE).createRoutes()
+        );
+
+        Order order = generateOrder();
+
+        TestRouteResult admitted = limitedRoute.run(HttpRequest.GET("/order/"+order.getId().getValue().toString()));
+        orders.expectMsgClass(OrderActor.Envelope.class);
+
+        limitedRoute.run(HttpRequest.GET("/order/"+order.getId().getValue().toString()))
+            .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+            .assertHeaderExists("Retry-After", "2");
+
+        orders.reply(order);
+
+        admitted.assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    void get_to_order_id_shouldReturnServiceUnavailableIfTheOrderIsOverloaded() {
+        OrderId orderId = generateOrderId();
+
+        TestRouteResult result = route.run(HttpRequest.GET("/order/"+orderId.getValue().toString()));
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(new Status.Failure(new OrderActor.OrderOverloadedException(orderId)));
+
+        result.assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+            .assertHeaderExists("Retry-After", "1");
+    }
+
+    @Test
+    void post_to_order_shouldSendRetriesWithTheSameIdempotencyKeyToTheSameOrder() throws JsonProcessingException {
+        Order order = generateOrder();
+        OrderActor.OpenOrder request = new OrderActor.OpenOrder(order.getServer(), order.getTable(), "open-key");
+
+        String json = objectMapper.writeValueAsString(request);
+
+        route.run(HttpRequest.POST("/order/").withEntity(ContentTypes.APPLICATION_JSON, json));
+        OrderActor.Envelope first = orders.expectMsgClass(OrderActor.Envelope.class);
+
+        route.run(HttpRequest.POST("/order/").withEntity(ContentTypes.APPLICATION_JSON, json));
+        OrderActor.Envelope retry = orders.expectMsgClass(OrderActor.Envelope.class);
+
+        assertEquals(request, first.getCommand());
+        assertEquals(OrderId.fromIdempotencyKey("open-key"), first.getOrderId());
+        assertEquals(first.getOrderId(), retry.getOrderId());
+    }
+
+    @Test
+    void post_to_order_shouldRejectAnInvalidIdempotencyKey() {
+        String json = "{\"server\":{\"name\":\"Server\"},\"table\":{\"number\":5},\"idempotencyKey\":\"not a key\"}";
+
+        route.run(HttpRequest.POST("/order/").withEntity(ContentTypes.APPLICATION_JSON, json))
+            .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+        orders.expectNoMessage();
+    }
+
+    @Test
+    void get_to_shards_shouldReturnTheShardsHostedByThisNode() {
+        ShardAllocation allocation = new ShardAllocation("http://localhost:8000", 30, Arrays.asList("1", "7"));
+        TestRoute shardRoute = testRoute(
+            new OrderRoutes(orders.ref(), new OrderResponseCache(10), AdmissionController.unlimited(), OrderMetrics.NONE, () ->
+                CompletableFuture.completedFuture(allocation)
+            ).createRoutes()
+        );
+
+        shardRoute.run(HttpRequest.GET("/shards"))
+            .assertStatusCode(StatusCodes.OK)
+            .assertEntityAs(Jackson.unmarshaller(ShardAllocation.class), allocation);
+    }
+
+    @Test
+    void post_to_order_shouldUseTheIdGeneratorWithoutAnIdempotencyKey() throws JsonProcessingException {
+        OrderId generatedId = generateOrderId();
+        TestRoute generatedIdRoute = testRoute(
+            new OrderRoutes(orders.ref(), new OrderResponseCache(10), AdmissionController.unlimited(), OrderMetrics.NONE, () ->
+                CompletableFuture.completedFuture(new ShardAllocation("http://localhost:8000", 30, Arrays.asList())),
+                () -> generatedId
+            ).createRoutes()
+        );
+        Order order = generateOrder();
+        String json = objectMapper.writeValueAsString(new OrderActor.OpenOrder(order.getServer(), order.getTable()));
+
+        generatedIdRoute.run(HttpRequest.POST("/order/").withEntity(ContentTypes.APPLICATION_JSON, json));
+
+        assertEquals(generatedId, orders.expectMsgClass(OrderActor.Envelope.class).getOrderId());
+    }
+
+    @Test
+    void post_to_order_id_close_shouldCloseTheOrder() {
+        Order order = generateOrder().closed(1000L);
+
+        TestRouteResult result = route.run(HttpRequest.POST("/order/"+order.getId().getValue().toString()+"/close"));
+
+        OrderActor.Envelope msg = orders.expectMsgClass(OrderActor.Envelope.class);
+        assertEquals(OrderActor.CloseOrder.class, msg.getCommand().getClass());
+        assertEquals(order.getId(), msg.getOrderId());
+
+        orders.reply(new OrderActor.OrderClosed(order));
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertContentType(ContentTypes.APPLICATION_JSON)
+            .assertEntityAs(Jackson.unmarshaller(Order.class), order);
+    }
+
+    @Test
+    void post_to_order_id_items_shouldReturnAConflictIfTheOrderIsClosed() throws JsonProcessingException {
+        OrderId orderId = generateOrderId();
+        String json = objectMapper.writeValueAsString(new OrderActor.AddItemToOrder(generateOrderItem()));
+
+        TestRouteResult result = route.run(HttpRequest.POST("/order/"+orderId.getValue().toString()+"/items")
+            .withEntity(ContentTypes.APPLICATION_JSON, json));
+
+        OrderActor.OrderClosedException expectedError = new OrderActor.OrderClosedException(orderId);
+
+        orders.expectMsgClass(OrderActor.Envelope.class);
+        orders.reply(new Status.Failure(expectedError));
+
+        result.assertStatusCode(StatusCodes.CONFLICT)
+            .assertEntity(expectedError.getMessage());
+    }
+
+    private TestRoute tenantRoute(TestProbe restaurant, TenantQuota quota) {
+        Map<Tenant, ActorRef> regions = new HashMap<>();
+        regions.put(Tenant.unlimited(Tenant.DEFAULT, 30), orders.ref());
+        regions.put(new Tenant("restaurant", 10, quota), restaurant.ref());
+
+        return testRoute(new OrderRoutes(new TenantRegions(regions), new OrderResponseCache(10), AdmissionController.unlimited(),
+            OrderMetrics.NONE, () -> CompletableFuture.failedFuture(new IllegalStateException()), OrderId::new).createRoutes());
+    }
+
+    @Test
+    void get_to_tenant_order_id_shouldAskTheTenantsRegion() {
+        TestProbe restaurant = new TestProbe(system(), "restaurant");
+        TestRoute tenantRoute = tenantRoute(restaurant, TenantQuota.unlimited());
+        Order order = generateOrder().withTenant("restaurant");
+
+        TestRouteResult result = tenantRoute.run(HttpRequest.GET("/tenant/restaurant/order/"+order.getId().getValue().toString()));
+
+        OrderActor.Envelope msg = restaurant.expectMsgClass(OrderActor.Envelope.class);
+        assertEquals(OrderActor.GetOrder.class, msg.getCommand().getClass());
+        restaurant.reply(order);
+        orders.expectNoMessage();
+
+        result.assertStatusCode(StatusCodes.OK)
+            .assertEntityAs(Jackson.unmarshaller(Order.class), order);
+    }
+
+    @Test
+    void get_to_tenant_order_id_shouldReturnNotFoundForAnUnknownTenant() {
+        TestRoute tenantRoute = tenantRoute(new TestProbe(system(), "restaurant"), TenantQuota.unlimited());
+
+        tenantRoute.run(HttpRequest.GET("/tenant/unknown/order/"+generateOrderId().getValue().toString()))
+            .assertStatusCode(StatusCodes.NOT_FOUND)
+            .assertEntity("Unknown Tenant: unknown");
+
+        orders.expectNoMessage();
+    }
+
+    @Test
+    void post_to_tenant_order_shouldDeriveADifferentIdFromTheSameIdempotencyKey() throws JsonProcessingException {
+        TestProbe restaurant = new TestProbe(system(), "restaurant");
+        TestRoute tenantRoute = tenantRoute(restaurant, TenantQuota.unlimited());
+        Order order = generateOrder();
+        String json = objectMapper.writeValueAsString(new OrderActor.OpenOrder(order.getServer(), order.getTable(), "open-key"));
+
+        tenantRoute.run(HttpRequest.POST("/order/").withEntity(ContentTypes.APPLICATION_JSON, json));
+        tenantRoute.run(HttpRequest.POST("/tenant/restaurant/order/").withEntity(ContentTypes.APPLICATION_JSON, json));
+
+        OrderId defaultId = orders.expectMsgClass(OrderActor.Envelope.class).getOrderId();
+        OrderId restaurantId = restaurant.expectMsgClass(OrderActor.Envelope.class).getOrderId();
+
+        assertEquals(OrderId.fromIdempotencyKey("open-key"), defaultId);
+        assertNotEquals(defaultId, restaurantId);
+    }
+
+    @Test
+    void requests_shouldBeRejectedWithTooManyRequestsWhenOverTheTenantsQuota() {
+        TestProbe restaurant = new TestProbe(system(), "restaurant");
+        TestRoute tenantRoute = tenantRoute(restaurant, new TenantQuota(1, 1, () -> 0L));
+        String orderId = generateOrderId().getValue().toString();
+
+        tenantRoute.run(HttpRequest.GET("/tenant/restaurant/order/"+orderId));
+        restaurant.expectMsgClass(OrderActor.Envelope.class);
+
+        tenantRoute.run(HttpRequest.GET("/tenant/restaurant/order/"+orderId))
+            .assertStatusCode(StatusCodes.TOO_MANY_REQUESTS)
+            .assertHeaderExists("Retry-After", "1");
+        restaurant.expectNoMessage();
+
+        tenantRoute.run(HttpRequest.GET("/order/"+orderId));
+        orders.expectMsgClass(OrderActor.Envelope.class);
+    }
+
     @AfterEach
     void teardown() {
         systemResource().after();
@@ -81,4 +81,83 @@ class OrderTest {
         assertEquals(expected, updated.getItems());
     }
 
+    @Test
+    public void withItem_shouldIncrementTheVersion() {
+        Order order = generateOrder(new Vector<>());
+        Order updated = order.withItem(generateOrderItem()).withItem(generateOrderItem());
+
+        assertEquals(0, order.getVersion());
+        assertEquals(2, updated.getVersion());
+    }
+
+    @Test
+    public void withIdempotencyKey_shouldRememberTheKey() {
+        Order order = generateOrder(new Vector<>());
+        Order updated = order.withIdempotencyKey("key");
+
+        assertFalse(order.hasProcessed("key"));
+        assertTrue(updated.hasProcessed("key"));
+        assertEquals(order.getVersion(), updated.getVersion());
+    }
+
+    @Test
+    public void withIdempotencyKey_shouldOnlyRememberTheMostRecentKeys() {
+        Order order = generateOrder(new Vector<>());
+
+        for (int i = 0; i <= Order.MAX_IDEMPOTENCY_KEYS; i++) {
+            order = order.withIdempotencyKey("key-" + i);
+        }
+
+        assertEquals(Order.MAX_IDEMPOTENCY_KEYS, order.getIdempotencyKeys().size());
+        assertFalse(order.hasProcessed("key-0"));
+        assertTrue(order.hasProcessed("key-" + Order.MAX_IDEMPOTENCY_KEYS));
+    }
+
+    @Test
+    public void withItem_shouldKeepTheIdempotencyKeys() {
+        Order order = generateOrder(new Vector<>()).withIdempotencyKey("key");
+
+        assertTrue(order.withItem(generateOrderItem()).hasProcessed("key"));
+    }
+
+    @Test
+    public void closed_shouldCloseTheOrderAndIncrementTheVersion() {
+        Order order = generateOrder(new Vector<>());
+        Order closed = order.closed(1000L);
+
+        assertFalse(order.isClosed());
+        assertTrue(closed.isClosed());
+        assertEquals(Long.valueOf(1000L), closed.getClosedAt());
+        assertEquals(order.getVersion() + 1, closed.getVersion());
+    }
+
+    @Test
+    public void closed_shouldKeepTheOriginalClosingTime() {
+        Order closed = generateOrder(new Vector<>()).closed(1000L);
+
+        assertSame(closed, closed.closed(2000L));
+    }
+
+    @Test
+    public void withIdempotencyKey_shouldKeepTheClosingTime() {
+        Order closed = generateOrder(new Vector<>()).closed(1000L);
+
+        assertEquals(Long.valueOf(1000L), closed.withIdempotencyKey("key").getClosedAt());
+    }
+
+    @Test
+    public void order_shouldBelongToTheDefaultTenantUnlessGivenOne() {
+        Order order = generateOrder(new Vector<>());
+
+        assertEquals(Tenant.DEFAULT, order.getTenant());
+        assertEquals("restaurant", order.withTenant("restaurant").getTenant());
+    }
+
+    @Test
+    public void withItem_shouldKeepTheTenant() {
+        Order order = generateOrder(new Vector<>()).withTenant("restaurant");
+
+        assertEquals("restaurant", order.withItem(generateOrderItem()).closed(1000L).getTenant());
+    }
+
 }
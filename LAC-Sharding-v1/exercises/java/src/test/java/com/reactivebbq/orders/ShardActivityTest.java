@@ -0,0 +1,70 @@
+package com.reactivebbq.orders;
+
+import akka.actor.ActorRef;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.TestProbe;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ShardActivityTest extends AkkaTest {
+
+    private static ShardRegion.CurrentShardRegionState state(String... shardIds) {
+        Set<ShardRegion.ShardState> shards = new HashSet<>();
+
+        for (String shardId : shardIds) {
+            shards.add(new ShardRegion.ShardState(shardId, CollectionConverters.asScala(new HashSet<String>()).toSet()));
+        }
+
+        return new ShardRegion.CurrentShardRegionState(CollectionConverters.asScala(shards).toSet());
+    }
+
+    @Test
+    public void theActivity_shouldReportTheShardsThatStartedAndStoppedSinceTheLastCheck() {
+        TestProbe region = new TestProbe(system);
+        List<String> reported = new CopyOnWriteArrayList<>();
+
+        OrderMetrics metrics = new OrderMetrics() {
+            @Override
+            public void shardStarted(String regionName, String shardId) {
+                reported.add(regionName + " started " + shardId);
+            }
+
+            @Override
+            public void shardStopped(String regionName, String shardId) {
+                reported.add(regionName + " stopped " + shardId);
+            }
+        };
+
+        ActorRef activity = system.actorOf(ShardActivity.props(region.ref(), "orders", metrics, Duration.ofMillis(50)));
+
+        region.expectMsg(ShardRegion.getShardRegionStateInstance());
+        region.reply(state("1", "2"));
+
+        region.expectMsg(ShardRegion.getShardRegionStateInstance());
+        region.reply(state("2", "3"));
+
+        region.expectMsg(ShardRegion.getShardRegionStateInstance());
+        region.reply(state("2", "3"));
+
+        region.expectMsg(ShardRegion.getShardRegionStateInstance());
+
+        assertEquals(
+            new HashSet<>(Arrays.asList("orders started 1", "orders started 2", "orders started 3", "orders stopped 1")),
+            new HashSet<>(reported)
+        );
+        assertEquals(4, reported.size());
+
+        system.stop(activity);
+    }
+}
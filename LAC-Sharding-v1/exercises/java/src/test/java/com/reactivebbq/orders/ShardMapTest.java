@@ -0,0 +1,60 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static com.reactivebbq.orders.OrderHelpers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMapTest {
+
+    private final int maxShards = 30;
+
+    @Test
+    void ownerOf_shouldBeEmptyBeforeAnyAllocationIsKnown() {
+        ShardMap shardMap = new ShardMap();
+
+        assertEquals(Optional.empty(), shardMap.ownerOf(generateOrderId()));
+    }
+
+    @Test
+    void ownerOf_shouldReturnTheNodeHostingTheOrdersShard() {
+        ShardMap shardMap = new ShardMap();
+        OrderId orderId = generateOrderId();
+        String shardId = OrderActor.shardId(orderId, maxShards);
+
+        shardMap.update(new ShardAllocation("node-1", maxShards, Collections.singletonList(shardId)));
+
+        assertEquals(Optional.of("node-1"), shardMap.ownerOf(orderId));
+    }
+
+    @Test
+    void update_shouldMoveAShardThatWasRebalanced() {
+        ShardMap shardMap = new ShardMap();
+        OrderId orderId = generateOrderId();
+        String shardId = OrderActor.shardId(orderId, maxShards);
+
+        shardMap.update(new ShardAllocation("node-1", maxShards, Collections.singletonList(shardId)));
+        shardMap.update(new ShardAllocation("node-1", maxShards, Collections.emptyList()));
+
+        assertEquals(Optional.empty(), shardMap.ownerOf(orderId));
+
+        shardMap.update(new ShardAllocation("node-2", maxShards, Collections.singletonList(shardId)));
+
+        assertEquals(Optional.of("node-2"), shardMap.ownerOf(orderId));
+    }
+
+    @Test
+    void forget_shouldRemoveEveryShardOfTheNode() {
+        ShardMap shardMap = new ShardMap();
+
+        shardMap.update(new ShardAllocation("node-1", maxShards, Arrays.asList("1", "2")));
+        shardMap.update(new ShardAllocation("node-2", maxShards, Arrays.asList("3")));
+        shardMap.forget("node-1");
+
+        assertEquals(1, shardMap.size());
+    }
+}
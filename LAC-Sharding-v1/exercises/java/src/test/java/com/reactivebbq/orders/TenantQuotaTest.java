@@ -0,0 +1,71 @@
+package com.reactivebbq.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantQuotaTest {
+
+    private final AtomicLong clock = new AtomicLong(0);
+
+    @Test
+    void tryAcquire_shouldAdmitABurstAtOnce() {
+        TenantQuota quota = new TenantQuota(10, 5, clock::get);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(quota.tryAcquire());
+        }
+
+        assertFalse(quota.tryAcquire());
+    }
+
+    @Test
+    void tryAcquire_shouldAdmitAtTheRateOnceTheBurstIsUsed() {
+        TenantQuota quota = new TenantQuota(10, 5, clock::get);
+
+        for (int i = 0; i < 5; i++) {
+            quota.tryAcquire();
+        }
+
+        clock.addAndGet(Duration.ofMillis(100).toNanos());
+
+        assertTrue(quota.tryAcquire());
+        assertFalse(quota.tryAcquire());
+    }
+
+    @Test
+    void tryAcquire_shouldNotSaveUpMoreThanTheBurst() {
+        TenantQuota quota = new TenantQuota(10, 5, clock::get);
+
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(quota.tryAcquire());
+        }
+
+        assertFalse(quota.tryAcquire());
+    }
+
+    @Test
+    void getRetryAfter_shouldReturnTheTimeUntilTheNextRequestIsAdmitted() {
+        TenantQuota quota = new TenantQuota(10, 1, clock::get);
+
+        assertEquals(Duration.ZERO, quota.getRetryAfter());
+
+        quota.tryAcquire();
+
+        assertEquals(Duration.ofMillis(100), quota.getRetryAfter());
+    }
+
+    @Test
+    void unlimited_shouldAdmitEveryRequest() {
+        TenantQuota quota = TenantQuota.unlimited();
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(quota.tryAcquire());
+        }
+    }
+}
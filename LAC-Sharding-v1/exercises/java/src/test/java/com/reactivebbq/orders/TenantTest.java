@@ -0,0 +1,51 @@
+package com.reactivebbq.orders;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantTest {
+
+    @Test
+    void fromConfig_shouldReadEveryTenant() {
+        Map<String, Tenant> tenants = Tenant.fromConfig(ConfigFactory.parseString(
+            "default { max-shards = 30, requests-per-second = 0, burst = 100 }\n" +
+            "restaurant { max-shards = 10, requests-per-second = 200, burst = 50 }"
+        ));
+
+        assertEquals(2, tenants.size());
+        assertEquals(30, tenants.get(Tenant.DEFAULT).getMaxShards());
+        assertEquals(10, tenants.get("restaurant").getMaxShards());
+    }
+
+    @Test
+    void fromConfig_shouldRequireTheDefaultTenant() {
+        assertThrows(IllegalArgumentException.class, () -> Tenant.fromConfig(ConfigFactory.parseString(
+            "restaurant { max-shards = 10, requests-per-second = 200, burst = 50 }"
+        )));
+    }
+
+    @Test
+    void tenant_shouldRejectAnInvalidId() {
+        assertThrows(IllegalArgumentException.class, () -> Tenant.unlimited("not a tenant", 10));
+    }
+
+    @Test
+    void getRegionName_shouldKeepTheOriginalRegionForTheDefaultTenant() {
+        assertEquals("orders", Tenant.unlimited(Tenant.DEFAULT, 30).getRegionName());
+        assertEquals("orders-restaurant", Tenant.unlimited("restaurant", 10).getRegionName());
+    }
+
+    @Test
+    void orderIdFor_shouldKeepTheOriginalIdsForTheDefaultTenant() {
+        Tenant defaultTenant = Tenant.unlimited(Tenant.DEFAULT, 30);
+        Tenant restaurant = Tenant.unlimited("restaurant", 10);
+
+        assertEquals(OrderId.fromIdempotencyKey("key"), defaultTenant.orderIdFor("key"));
+        assertNotEquals(defaultTenant.orderIdFor("key"), restaurant.orderIdFor("key"));
+        assertEquals(restaurant.orderIdFor("key"), restaurant.orderIdFor("key"));
+    }
+}